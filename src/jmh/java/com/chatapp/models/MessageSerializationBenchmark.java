@@ -0,0 +1,90 @@
+package com.chatapp.models;
+
+import com.chatapp.storage.MessageRecordReader;
+import com.chatapp.storage.MessageRecordWriter;
+import com.chatapp.storage.UserDictionary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a single chat message: Jackson, as sent to STOMP subscribers
+ * (and written to the log before format 2), and the binary log record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageSerializationBenchmark {
+
+  private ObjectWriter writer;
+  private ObjectReader reader;
+  private Message message;
+  private byte[] json;
+  private Path dictionaryDir;
+  private UserDictionary users;
+  private MessageRecordWriter recordWriter;
+  private MessageRecordReader recordReader;
+  private byte[] record;
+
+  @Setup
+  public void setUp() throws IOException {
+    ObjectMapper objectMapper = new ObjectMapper();
+    writer = objectMapper.writerFor(Message.class);
+    reader = objectMapper.readerFor(Message.class);
+    message = new Message("alice", "Are we still on for lunch tomorrow at noon?", "2025-11-11T21:15:00Z",
+        "alice_bob");
+    message.setId(123456L);
+    json = writer.writeValueAsBytes(message);
+
+    dictionaryDir = Files.createTempDirectory("jmh-dictionary");
+    users = UserDictionary.open(dictionaryDir.resolve(UserDictionary.FILE_NAME));
+    recordWriter = new MessageRecordWriter("alice_bob", users);
+    recordReader = new MessageRecordReader("alice_bob", users, objectMapper);
+    record = recordWriter.write(message);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    users.delete();
+    Files.deleteIfExists(dictionaryDir);
+  }
+
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    return writer.writeValueAsBytes(message);
+  }
+
+  @Benchmark
+  public Message deserialize() throws IOException {
+    return reader.readValue(json);
+  }
+
+  @Benchmark
+  public byte[] writeRecord() throws IOException {
+    return recordWriter.write(message);
+  }
+
+  @Benchmark
+  public Message readRecord() throws IOException {
+    return recordReader.read(123456L, record);
+  }
+}
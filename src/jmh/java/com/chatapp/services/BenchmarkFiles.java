@@ -0,0 +1,31 @@
+package com.chatapp.services;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Scratch directories for benchmark state.
+ */
+final class BenchmarkFiles {
+
+  private BenchmarkFiles() {
+  }
+
+  static Path createDirectory(String prefix) throws IOException {
+    return Files.createTempDirectory("chatapp-" + prefix);
+  }
+
+  static void delete(Path dir) throws IOException {
+    if (dir == null || !Files.exists(dir)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.chatapp.services;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap held by each FriendGraph backend for a random graph of edgeCount
+ * friendships among edgeCount / 5 users (about 10 friends each). The graph
+ * is built as loading friends.json builds it (load, then compact); the time
+ * is the build time and the {@code retainedBytes} counter the live heap it
+ * holds afterwards, measured after a full GC. One measured iteration, as
+ * JMH sums the counter over iterations.
+ *
+ * buildByChanges adds the same edges one at a time instead, as live
+ * changes do (through the overlay, for csr).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class FriendGraphMemoryBenchmark {
+
+  @Param({ "1000000", "10000000" })
+  int edgeCount;
+
+  @Param({ "adjacency", "csr" })
+  String graph;
+
+  private int[] from;
+  private int[] to;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Heap {
+    public long retainedBytes;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int userCount = edgeCount / 5;
+    Random random = new Random(42);
+    from = new int[edgeCount];
+    to = new int[edgeCount];
+    for (int i = 0; i < edgeCount; i++) {
+      from[i] = random.nextInt(userCount);
+      // never a self-edge; the odd duplicate is simply not added twice
+      to[i] = (from[i] + 1 + random.nextInt(userCount - 1)) % userCount;
+    }
+  }
+
+  @Benchmark
+  public long build(Heap heap) {
+    long before = usedAfterGc();
+    FriendGraph built = FriendGraph.create(graph, 65536);
+    for (int i = 0; i < edgeCount; i++) {
+      built.load(from[i], to[i]);
+    }
+    built.compact();
+    heap.retainedBytes = usedAfterGc() - before;
+    return built.edgeCount();
+  }
+
+  @Benchmark
+  public long buildByChanges(Heap heap) {
+    long before = usedAfterGc();
+    FriendGraph built = FriendGraph.create(graph, 65536);
+    for (int i = 0; i < edgeCount; i++) {
+      built.add(from[i], to[i]);
+    }
+    built.compact();
+    heap.retainedBytes = usedAfterGc() - before;
+    return built.edgeCount();
+  }
+
+  private static long usedAfterGc() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    System.gc();
+    System.gc();
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
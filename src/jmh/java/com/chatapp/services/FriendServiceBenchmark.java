@@ -0,0 +1,123 @@
+package com.chatapp.services;
+
+import com.chatapp.models.Friend;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FriendService on a random graph of userCount users with about
+ * averageDegree friends each, with either graph backend. addAndRemoveFriendship adds an edge that is
+ * not in the graph and removes it again, so the graph keeps its size; both
+ * halves append to the journal.
+ *
+ * "hub" is also friends with 2000 random users. Suggestions are not cached
+ * here (cache size 0), so every call computes them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FriendServiceBenchmark {
+
+  @Param({ "1000", "100000" })
+  int userCount;
+
+  @Param({ "10" })
+  int averageDegree;
+
+  @Param({ "adjacency", "csr" })
+  String graph;
+
+  private Path dir;
+  private FriendService service;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = BenchmarkFiles.createDirectory("friends");
+    Random random = new Random(42);
+    Set<Friend> edges = new LinkedHashSet<>();
+    long target = (long) userCount * averageDegree / 2;
+    while (edges.size() < target) {
+      int a = random.nextInt(userCount);
+      int b = random.nextInt(userCount);
+      if (a != b) {
+        edges.add(new Friend("user" + a, "user" + b));
+      }
+    }
+    while (edges.size() < target + Math.min(2000, userCount)) {
+      edges.add(new Friend("hub", "user" + random.nextInt(userCount)));
+    }
+    Path friendsFile = dir.resolve("friends.json");
+    ObjectMapper objectMapper = new ObjectMapper();
+    objectMapper.writeValue(friendsFile.toFile(), List.copyOf(edges));
+    service = new FriendService(objectMapper, new SimpleMeterRegistry(),
+        new UsernameDictionary(new SimpleMeterRegistry()), new StartupLoader(new SimpleMeterRegistry()),
+        friendsFile.toString(), graph, 65536, 50, 0, 1000, Duration.ofSeconds(30));
+    service.init();
+    service.awaitLoaded();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    service.close();
+    BenchmarkFiles.delete(dir);
+  }
+
+  private String nextUser() {
+    next = (next + 7919) % userCount;
+    return "user" + next;
+  }
+
+  @Benchmark
+  public List<String> getFriends() {
+    return service.getFriends(nextUser());
+  }
+
+  @Benchmark
+  public List<String> getMutualFriends() {
+    return service.getMutualFriends(nextUser(), "hub");
+  }
+
+  @Benchmark
+  public List<FriendService.Suggestion> getSuggestions() {
+    return service.getSuggestions(nextUser(), 10);
+  }
+
+  @Benchmark
+  public List<FriendService.Suggestion> getSuggestionsForHub() {
+    return service.getSuggestions("hub", 10);
+  }
+
+  @Benchmark
+  public boolean addAndRemoveFriendship() {
+    String user = nextUser();
+    // never in the graph: newcomers have no friends
+    String newcomer = "newcomer" + next;
+    return service.addFriendship(user, newcomer) & service.removeFriendship(user, newcomer);
+  }
+}
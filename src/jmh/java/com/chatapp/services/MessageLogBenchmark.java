@@ -0,0 +1,99 @@
+package com.chatapp.services;
+
+import com.chatapp.models.Message;
+import com.chatapp.storage.LogOptions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageLogService on a chatroom that already holds historySize messages.
+ * loadRecent is served from memory up to the cache size (200 messages per
+ * room); larger requests read the tail of the log from disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageLogBenchmark {
+
+  private static final String ROOM = "bench";
+  private static final int CACHED_PER_ROOM = 200;
+
+  @Param({ "1000", "100000" })
+  int historySize;
+
+  private Path dir;
+  private MessageLogService service;
+  private long counter;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = BenchmarkFiles.createDirectory("messages");
+    MessageLogService writer = open();
+    for (int i = 0; i < historySize; i++) {
+      writer.append(message(i));
+    }
+    writer.close();
+    // reopen so the history is read back from disk like after a restart
+    service = open();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    service.close();
+    BenchmarkFiles.delete(dir);
+  }
+
+  private MessageLogService open() throws IOException {
+    MessageWritePipeline pipeline = new MessageWritePipeline(new SimpleMeterRegistry(), 10_000, 512,
+        MessageWritePipeline.Durability.BATCH);
+    MessageLogService opened = new MessageLogService(new ObjectMapper(), new SimpleMeterRegistry(),
+        new UsernameDictionary(new SimpleMeterRegistry()), dir, dir, LogOptions.defaults(), Duration.ofMinutes(1),
+        new RecentMessageCache(CACHED_PER_ROOM, 64L * 1024 * 1024), pipeline);
+    opened.init();
+    pipeline.start();
+    return opened;
+  }
+
+  private static Message message(long i) {
+    return new Message("user" + (i % 16), "benchmark message number " + i, "2025-11-11T21:15:00Z", ROOM);
+  }
+
+  @Benchmark
+  public Message append() {
+    Message message = message(counter++);
+    service.append(message);
+    return message;
+  }
+
+  @Benchmark
+  public List<Message> loadRecentCached() {
+    return service.loadRecent(ROOM, 50);
+  }
+
+  @Benchmark
+  public List<Message> loadRecentFromDisk() {
+    return service.loadRecent(ROOM, CACHED_PER_ROOM + 300);
+  }
+}
@@ -0,0 +1,89 @@
+package com.chatapp.services;
+
+import com.chatapp.models.Message;
+import com.chatapp.storage.LogOptions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageLogService under contention: 8 threads spread over 1 to 64
+ * chatrooms, three appends for every loadRecent. Rooms do not share a
+ * lock, so throughput should grow with the number of rooms instead of
+ * staying flat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class MessageLogContentionBenchmark {
+
+  @Param({ "1", "4", "16", "64" })
+  int rooms;
+
+  private Path dir;
+  private MessageLogService service;
+
+  @State(Scope.Thread)
+  public static class Sender {
+    int thread;
+    long counter;
+
+    @Setup(Level.Trial)
+    public void setUp(ThreadParams params) {
+      thread = params.getThreadIndex();
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = BenchmarkFiles.createDirectory("contention");
+    MessageWritePipeline pipeline = new MessageWritePipeline(new SimpleMeterRegistry(), 1024, 512,
+        MessageWritePipeline.Durability.NONE);
+    service = new MessageLogService(new ObjectMapper(), new SimpleMeterRegistry(),
+        new UsernameDictionary(new SimpleMeterRegistry()), dir, dir, LogOptions.defaults(), Duration.ofMinutes(1),
+        new RecentMessageCache(50, 64L * 1024 * 1024), pipeline);
+    service.init();
+    pipeline.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    service.close();
+    BenchmarkFiles.delete(dir);
+  }
+
+  @Benchmark
+  public Object appendOrLoadRecent(Sender sender) {
+    long i = sender.counter++;
+    String room = "room" + (sender.thread + i) % rooms;
+    if (i % 4 == 3) {
+      return service.loadRecent(room, 50);
+    }
+    Message message = new Message("user" + sender.thread, "message " + i, "2025-11-11T21:15:00Z", room);
+    service.append(message);
+    return message;
+  }
+}
@@ -0,0 +1,101 @@
+package com.chatapp.services;
+
+import com.chatapp.models.UserAccount;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserService lookups with userCount registered accounts. Passwords are
+ * hashed at the lowest BCrypt cost (4) so login measures the service
+ * rather than BCrypt; at the default cost of 10 a login is ~60 ms of
+ * hashing whatever the rest of the code does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserServiceBenchmark {
+
+  private static final String PASSWORD = "correct horse battery staple";
+
+  @Param({ "1000", "100000" })
+  int userCount;
+
+  private Path dir;
+  private PasswordHasher hasher;
+  private UserService service;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = BenchmarkFiles.createDirectory("users");
+    hasher = new PasswordHasher(new SimpleMeterRegistry(), 4, 0, 64, Duration.ofSeconds(5));
+    // one hash for everyone: hashing every account would dominate setup
+    String hash = hasher.encode(PASSWORD);
+    List<UserAccount> accounts = new ArrayList<>(userCount);
+    for (int i = 0; i < userCount; i++) {
+      accounts.add(new UserAccount("user" + i, hash));
+    }
+    Path usersFile = dir.resolve("users.json");
+    ObjectMapper objectMapper = new ObjectMapper();
+    objectMapper.writeValue(usersFile.toFile(), accounts);
+    service = new UserService(objectMapper, hasher, new UsernameDictionary(new SimpleMeterRegistry()),
+        new StartupLoader(new SimpleMeterRegistry()), usersFile.toString(), 1000, Duration.ofMinutes(1));
+    service.init();
+    service.awaitLoaded();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    service.close();
+    hasher.shutdown();
+    BenchmarkFiles.delete(dir);
+  }
+
+  private String nextUser() {
+    next = (next + 7919) % userCount;
+    return "user" + next;
+  }
+
+  @Benchmark
+  public boolean userExists() {
+    return service.userExists(nextUser());
+  }
+
+  @Benchmark
+  public boolean userExistsMissing() {
+    return service.userExists("nobody" + nextUser());
+  }
+
+  @Benchmark
+  public UserService.LoginResult login() {
+    return service.login(new UserAccount(nextUser(), PASSWORD));
+  }
+
+  @Benchmark
+  public UserService.LoginResult loginUnknownUser() {
+    return service.login(new UserAccount("nobody" + nextUser(), PASSWORD));
+  }
+}
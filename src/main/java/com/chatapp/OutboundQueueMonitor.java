@@ -0,0 +1,142 @@
+package com.chatapp;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts, per WebSocket session, the frames queued on the client outbound
+ * channel that its executor has not delivered yet. A session whose count
+ * keeps growing is a slow consumer; the transport's send time and buffer
+ * limits eventually close it, and this shows who is getting there.
+ * The totals are also exported as metrics.
+ */
+public class OutboundQueueMonitor implements ExecutorChannelInterceptor, MeterBinder {
+
+  private static final Logger logger = LoggerFactory.getLogger(OutboundQueueMonitor.class);
+
+  private static final int TOP_SESSIONS = 10;
+
+  private final int warnDepth;
+  private final Map<String, AtomicInteger> depths = new ConcurrentHashMap<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger highWater = new AtomicInteger();
+  private final AtomicLong slowWarnings = new AtomicLong();
+
+  public OutboundQueueMonitor(int warnDepth) {
+    this.warnDepth = warnDepth;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("chatapp.websocket.outbound.queued", queued, AtomicInteger::get)
+        .description("Frames on the client outbound channel not yet delivered")
+        .register(registry);
+    Gauge.builder("chatapp.websocket.outbound.max.depth", this, monitor -> monitor.maxDepth())
+        .description("Undelivered frames of the most backed-up session")
+        .register(registry);
+    FunctionCounter.builder("chatapp.websocket.outbound.slow.sessions", slowWarnings, AtomicLong::get)
+        .description("Times a session reached the warning depth")
+        .register(registry);
+  }
+
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel) {
+    String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+    if (sessionId != null) {
+      // counted inside compute(), so it cannot land on a counter that
+      // release() is removing at the same time
+      int[] depthHolder = new int[1];
+      depths.compute(sessionId, (id, count) -> {
+        AtomicInteger next = count == null ? new AtomicInteger() : count;
+        depthHolder[0] = next.incrementAndGet();
+        return next;
+      });
+      int depth = depthHolder[0];
+      highWater.accumulateAndGet(depth, Math::max);
+      queued.incrementAndGet();
+      if (depth == warnDepth) {
+        slowWarnings.incrementAndGet();
+        logger.warn("Session {} has {} undelivered outbound frames", sessionId, depth);
+      }
+    }
+    return message;
+  }
+
+  @Override
+  public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+    if (!sent) {
+      // rejected by the executor, so never handled
+      release(message);
+    }
+  }
+
+  @Override
+  public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler,
+      Exception ex) {
+    release(message);
+  }
+
+  private void release(Message<?> message) {
+    String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+    if (sessionId == null) {
+      return;
+    }
+    depths.computeIfPresent(sessionId, (id, depth) -> depth.decrementAndGet() <= 0 ? null : depth);
+    queued.decrementAndGet();
+  }
+
+  private int maxDepth() {
+    int max = 0;
+    for (AtomicInteger depth : depths.values()) {
+      max = Math.max(max, depth.get());
+    }
+    return max;
+  }
+
+  public int depth(String sessionId) {
+    AtomicInteger depth = depths.get(sessionId);
+    return depth == null ? 0 : depth.get();
+  }
+
+  /**
+   * Frames queued in total, the high-water mark of any one session, and
+   * the sessions with the deepest queues right now.
+   */
+  public Map<String, Object> stats() {
+    List<Map.Entry<String, Integer>> snapshot = new ArrayList<>();
+    depths.forEach((id, depth) -> snapshot.add(Map.entry(id, depth.get())));
+    snapshot.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+    List<Map<String, Object>> deepest = new ArrayList<>();
+    for (Map.Entry<String, Integer> entry : snapshot.subList(0, Math.min(TOP_SESSIONS, snapshot.size()))) {
+      Map<String, Object> session = new LinkedHashMap<>();
+      session.put("session", entry.getKey());
+      session.put("depth", entry.getValue());
+      deepest.add(session);
+    }
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("queued", queued.get());
+    stats.put("sessionsWithBacklog", snapshot.size());
+    stats.put("maxDepth", snapshot.isEmpty() ? 0 : snapshot.get(0).getValue());
+    stats.put("highWaterDepth", highWater.get());
+    stats.put("slowSessionWarnings", slowWarnings.get());
+    stats.put("deepest", deepest);
+    return stats;
+  }
+}
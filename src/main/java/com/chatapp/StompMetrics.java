@@ -0,0 +1,126 @@
+package com.chatapp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Channel interceptors that meter STOMP traffic by destination:
+ * - chatapp.stomp.inbound: time to handle a client SEND, e.g. the
+ *   {@code @MessageMapping} methods behind /app/message;
+ * - chatapp.broker.published: messages handed to the broker per /topic;
+ * - chatapp.websocket.fanout: frames the broker sent to sessions per
+ *   /topic, so fanout / published is the average number of subscribers.
+ *
+ * Destinations that embed a chatroom or node id are collapsed so the
+ * number of time series stays bounded (see {@link #normalize}).
+ */
+@Component
+public class StompMetrics {
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Timer> inboundTimers = new ConcurrentHashMap<>();
+  private final Map<String, Counter> publishedCounters = new ConcurrentHashMap<>();
+  private final Map<String, Counter> fanoutCounters = new ConcurrentHashMap<>();
+
+  public StompMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * For the client inbound channel. Handlers run on the channel's executor,
+   * so the start time can live in a thread local between the two callbacks.
+   */
+  public ChannelInterceptor inbound() {
+    ThreadLocal<Long> started = new ThreadLocal<>();
+    return new ExecutorChannelInterceptor() {
+      @Override
+      public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+          started.set(System.nanoTime());
+        }
+        return message;
+      }
+
+      @Override
+      public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler,
+          Exception ex) {
+        Long start = started.get();
+        if (start == null) {
+          return;
+        }
+        started.remove();
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        inboundTimers.computeIfAbsent(normalize(destination), d -> Timer.builder("chatapp.stomp.inbound")
+            .description("Handling one SEND frame from a client")
+            .tag("destination", d)
+            .register(meterRegistry))
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    };
+  }
+
+  /**
+   * For the broker channel: one count per message published to a topic.
+   */
+  public ChannelInterceptor broker() {
+    return counting(publishedCounters, "chatapp.broker.published", "Messages published to the broker");
+  }
+
+  /**
+   * For the client outbound channel: one count per frame sent to a session.
+   */
+  public ChannelInterceptor outbound() {
+    return counting(fanoutCounters, "chatapp.websocket.fanout", "Frames delivered to subscribed sessions");
+  }
+
+  private ChannelInterceptor counting(Map<String, Counter> counters, String name, String description) {
+    return new ChannelInterceptor() {
+      @Override
+      public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+          String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+          counters.computeIfAbsent(normalize(destination), d -> Counter.builder(name)
+              .description(description)
+              .tag("destination", d)
+              .register(meterRegistry))
+              .increment();
+        }
+        return message;
+      }
+    };
+  }
+
+  /**
+   * Collapse per-room and per-node destinations:
+   * /topic/private/alice_bob becomes /topic/private/{id},
+   * /topic/presence.node-1 becomes /topic/presence.{node}. Anything else
+   * is cut after its second segment.
+   */
+  static String normalize(String destination) {
+    if (destination == null) {
+      return "none";
+    }
+    if (destination.startsWith("/topic/presence.")) {
+      return "/topic/presence.{node}";
+    }
+    int first = destination.indexOf('/', 1);
+    if (first < 0) {
+      return destination;
+    }
+    int second = destination.indexOf('/', first + 1);
+    return second < 0 ? destination : destination.substring(0, second) + "/{id}";
+  }
+}
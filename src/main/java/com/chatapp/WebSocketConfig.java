@@ -1,15 +1,66 @@
 package com.chatapp;
 
+import com.chatapp.cluster.ClusterNode;
+import com.chatapp.services.UsersList;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
+import java.time.Duration;
+
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    // resolved lazily: UsersList needs the messaging template this config helps build
+    private final ObjectProvider<UsersList> usersList;
+    private final ObjectProvider<StompMetrics> stompMetrics;
+    private final ClusterNode clusterNode;
+    private final long heartbeatMillis;
+    private final Environment environment;
+
+    public WebSocketConfig(ObjectProvider<UsersList> usersList, ObjectProvider<StompMetrics> stompMetrics,
+            ClusterNode clusterNode, @Value("${chatapp.websocket.heartbeat:10s}") Duration heartbeat,
+            Environment environment) {
+        this.usersList = usersList;
+        this.stompMetrics = stompMetrics;
+        this.clusterNode = clusterNode;
+        this.heartbeatMillis = heartbeat.toMillis();
+        this.environment = environment;
+    }
+
+    @Bean
+    public OutboundQueueMonitor outboundQueueMonitor() {
+        return new OutboundQueueMonitor(
+                environment.getProperty("chatapp.websocket.outbound.warn-depth", Integer.class, 1000));
+    }
+
+    // not an autowire candidate: Spring Boot would otherwise pick it, as the
+    // only AsyncTaskExecutor around, to run the client channels
+    @Bean(autowireCandidate = false)
+    public ThreadPoolTaskScheduler heartbeatScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("ws-heartbeat-");
+        return scheduler;
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws")
@@ -20,7 +71,97 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker("/topic");
+        if (environment.getProperty("chatapp.broker.relay.enabled", Boolean.class, false)) {
+            // relay profile: subscriptions and fan-out live in an external STOMP
+            // broker shared by all nodes; clients negotiate heartbeats with it.
+            // Node-to-node traffic goes through it too, under its own prefix
+            registry.enableStompBrokerRelay("/topic", clusterNode.getDestinationPrefix())
+                    .setRelayHost(environment.getProperty("chatapp.broker.relay.host", "localhost"))
+                    .setRelayPort(environment.getProperty("chatapp.broker.relay.port", Integer.class, 61613))
+                    .setClientLogin(environment.getProperty("chatapp.broker.relay.client-login", "guest"))
+                    .setClientPasscode(environment.getProperty("chatapp.broker.relay.client-passcode", "guest"))
+                    .setSystemLogin(environment.getProperty("chatapp.broker.relay.system-login", "guest"))
+                    .setSystemPasscode(environment.getProperty("chatapp.broker.relay.system-passcode", "guest"))
+                    .setTaskScheduler(heartbeatScheduler());
+        } else {
+            // server and client heartbeat each other; silent sessions expire from presence
+            registry.enableSimpleBroker("/topic")
+                    .setHeartbeatValue(new long[] { heartbeatMillis, heartbeatMillis })
+                    .setTaskScheduler(heartbeatScheduler());
+        }
         registry.setApplicationDestinationPrefixes("/app");
+        registry.configureBrokerChannel().interceptors(stompMetrics.getObject().broker());
+    }
+
+    /**
+     * Slow-consumer protection. Frames to a session are buffered while an
+     * earlier send to it is still in progress; a session whose send takes
+     * longer than the time limit, or whose buffer grows past the size limit,
+     * is closed instead of holding up the outbound threads.
+     */
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration
+                .setSendTimeLimit(millis("chatapp.websocket.send-time-limit", Duration.ofSeconds(5)))
+                .setSendBufferSizeLimit(bytes("chatapp.websocket.send-buffer-size-limit", DataSize.ofKilobytes(256)))
+                .setMessageSizeLimit(bytes("chatapp.websocket.message-size-limit", DataSize.ofKilobytes(64)))
+                .setTimeToFirstMessage(millis("chatapp.websocket.time-to-first-message", Duration.ofSeconds(30)));
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        configureExecutor(registration, "inbound");
+        // every inbound frame, heartbeats included, keeps the session's presence alive;
+        // clients must not send to or subscribe to the nodes' own destinations
+        registration.interceptors(new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                usersList.getObject().touch(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+                String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+                if (clusterNode.isInternal(destination)) {
+                    throw new MessageDeliveryException(message, "Destination " + destination + " is reserved");
+                }
+                return message;
+            }
+        }, stompMetrics.getObject().inbound());
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        configureExecutor(registration, "outbound");
+        registration.interceptors(outboundQueueMonitor(), stompMetrics.getObject().outbound());
+    }
+
+    /**
+     * Size a client channel's executor from chatapp.websocket.{inbound|outbound}.*:
+     * a fixed pool of core-pool-size threads (default two per CPU) over a
+     * queue of queue-capacity frames (default unbounded), or one virtual
+     * thread per frame if chatapp.websocket.virtual-threads is set, which it
+     * is by default when spring.threads.virtual.enabled is (the "virtual"
+     * profile).
+     */
+    private void configureExecutor(ChannelRegistration registration, String channel) {
+        boolean virtual = environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false);
+        if (environment.getProperty("chatapp.websocket.virtual-threads", Boolean.class, virtual)) {
+            registration.executor(new VirtualThreadTaskExecutor("ws-" + channel + "-"));
+            return;
+        }
+        String prefix = "chatapp.websocket." + channel + ".";
+        int core = environment.getProperty(prefix + "core-pool-size", Integer.class,
+                Runtime.getRuntime().availableProcessors() * 2);
+        registration.taskExecutor()
+                .corePoolSize(core)
+                .maxPoolSize(Math.max(core, environment.getProperty(prefix + "max-pool-size", Integer.class, core)))
+                .queueCapacity(environment.getProperty(prefix + "queue-capacity", Integer.class, Integer.MAX_VALUE))
+                .keepAliveSeconds((int) environment.getProperty(prefix + "keep-alive", Duration.class,
+                        Duration.ofSeconds(60)).toSeconds());
+    }
+
+    private int millis(String property, Duration defaultValue) {
+        return (int) environment.getProperty(property, Duration.class, defaultValue).toMillis();
+    }
+
+    private int bytes(String property, DataSize defaultValue) {
+        return (int) environment.getProperty(property, DataSize.class, defaultValue).toBytes();
     }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.chatapp.cluster;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Identity of this server in a multi-node deployment. Nodes are clustered
+ * when they talk to an external STOMP broker (the relay profile); a node
+ * with the in-memory simple broker is always on its own.
+ *
+ * A cluster has a fixed set of node ids, the same on every node. Each
+ * chatroom is owned by one of them, picked by hashing its key over that
+ * set: the owner hands out the room's message ids, so they are the same
+ * on every node. Nodes talk to each other on broker destinations under
+ * their own prefix, which clients are never allowed to use.
+ */
+@Component
+public class ClusterNode {
+
+  public static final String DEFAULT_DESTINATION_PREFIX = "/exchange/chatapp.cluster/";
+
+  private final String nodeId;
+  private final boolean clustered;
+  private final List<String> nodes;
+  private final String destinationPrefix;
+
+  public ClusterNode(String nodeId, boolean clustered) {
+    this(nodeId, clustered, List.of(), DEFAULT_DESTINATION_PREFIX);
+  }
+
+  @Autowired
+  public ClusterNode(
+      @Value("${chatapp.cluster.node-id:}") String nodeId,
+      @Value("${chatapp.broker.relay.enabled:false}") boolean clustered,
+      @Value("${chatapp.cluster.nodes:}") List<String> nodes,
+      @Value("${chatapp.cluster.destination-prefix:" + DEFAULT_DESTINATION_PREFIX + "}") String destinationPrefix) {
+    this.nodeId = nodeId == null || nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+    this.clustered = clustered;
+    this.nodes = nodes.stream().map(String::trim).filter(node -> !node.isEmpty()).sorted().toList();
+    this.destinationPrefix = destinationPrefix;
+    if (clustered && !this.nodes.contains(this.nodeId)) {
+      throw new IllegalStateException("chatapp.cluster.nodes must list every node, including this one ("
+          + this.nodeId + ")");
+    }
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public boolean isClustered() {
+    return clustered;
+  }
+
+  /**
+   * The node that assigns the ids of the given chatroom; always this node
+   * when not clustered.
+   */
+  public String ownerOf(String roomKey) {
+    if (!clustered) {
+      return nodeId;
+    }
+    return nodes.get(Math.floorMod(roomKey.hashCode(), nodes.size()));
+  }
+
+  public boolean owns(String roomKey) {
+    return nodeId.equals(ownerOf(roomKey));
+  }
+
+  /**
+   * The broker destination for node-to-node traffic of the given name,
+   * e.g. "messages" or "node.&lt;id&gt;".
+   */
+  public String destination(String name) {
+    return destinationPrefix + name;
+  }
+
+  /**
+   * Whether a destination is reserved for node-to-node traffic.
+   */
+  public boolean isInternal(String destination) {
+    return destination != null && destination.startsWith(destinationPrefix);
+  }
+
+  public String getDestinationPrefix() {
+    return destinationPrefix;
+  }
+}
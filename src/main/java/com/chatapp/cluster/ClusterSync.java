@@ -0,0 +1,300 @@
+package com.chatapp.cluster;
+
+import com.chatapp.models.Message;
+import com.chatapp.services.MessageLogService;
+import com.chatapp.services.UsersList;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.BrokerAvailabilityEvent;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps nodes that share an external broker consistent.
+ *
+ * Clients already get every chat message and presence delta from the
+ * broker, whichever node they are connected to; what the broker does not
+ * do is keep the nodes' own state in step. Every chatroom has an owner
+ * node (see {@link ClusterNode#ownerOf}), and a message sent to any other
+ * node is forwarded to it. The owner gives the message its id, delivers it
+ * to clients and publishes it to the other nodes, which store it under the
+ * same id: every node holds the same history, so ids and paging cursors
+ * from /api/messages mean the same thing on each of them.
+ *
+ * A node that sees a gap in a room's ids (it missed messages, e.g. while
+ * the broker was unreachable) asks the owner to replay the room from its
+ * own next id, and does the same for all of its rooms whenever the broker
+ * connection comes back. Messages sent while a room's owner is down are
+ * lost.
+ *
+ * All of this travels on destinations under the cluster prefix, through
+ * the relay's shared "system" connection, so a node gets each event once
+ * no matter how many clients it has. Presence heartbeats from
+ * {@link UsersList} use the same prefix.
+ */
+@Component
+public class ClusterSync {
+
+  private static final Logger logger = LoggerFactory.getLogger(ClusterSync.class);
+
+  static final int REPLAY_PAGE = 500;
+  static final long CATCH_UP_TIMEOUT_MILLIS = 10_000;
+
+  private final ClusterNode clusterNode;
+  private final MessageLogService messageLogService;
+  private final UsersList usersList;
+  private final SimpMessagingTemplate messagingTemplate;
+  private final ObjectMapper objectMapper;
+  private final ObjectProvider<AbstractBrokerMessageHandler> brokerHandlers;
+
+  // rooms with a catch-up request out -> when it was sent, and whether
+  // messages were missed meanwhile
+  private final Map<String, CatchUp> catchUps = new ConcurrentHashMap<>();
+
+  private record CatchUp(long requestedAt, boolean missed) {
+  }
+
+  /**
+   * A replicated write or a request between nodes. {@code destination} is
+   * where the owner delivers a forwarded message; {@code id} is the deleted
+   * message, or where a catch-up starts.
+   */
+  public record ClusterEvent(String node, String type, Message message, String chatroomId, String destination,
+      long id) {
+  }
+
+  public record PresenceState(String node, List<String> users) {
+  }
+
+  public ClusterSync(ClusterNode clusterNode, MessageLogService messageLogService, UsersList usersList,
+      SimpMessagingTemplate messagingTemplate, ObjectMapper objectMapper,
+      ObjectProvider<AbstractBrokerMessageHandler> brokerHandlers) {
+    this.clusterNode = clusterNode;
+    this.messageLogService = messageLogService;
+    this.usersList = usersList;
+    this.messagingTemplate = messagingTemplate;
+    this.objectMapper = objectMapper;
+    this.brokerHandlers = brokerHandlers;
+  }
+
+  @PostConstruct
+  public void init() {
+    if (!clusterNode.isClustered()) {
+      return;
+    }
+    // declared as AbstractBrokerMessageHandler, so it cannot be looked up by its own type
+    StompBrokerRelayMessageHandler relay = brokerHandlers.stream()
+        .filter(StompBrokerRelayMessageHandler.class::isInstance)
+        .map(StompBrokerRelayMessageHandler.class::cast)
+        .findFirst()
+        .orElse(null);
+    if (relay == null) {
+      logger.warn("Relay mode is enabled but no broker relay is configured; nodes will not sync");
+      return;
+    }
+    // must be set before the relay starts and opens its system connection
+    relay.setSystemSubscriptions(Map.of(
+        clusterNode.destination("messages"), this::onClusterEvent,
+        nodeDestination(clusterNode.getNodeId()), this::onClusterEvent,
+        clusterNode.destination("presence"), this::onPresence));
+    logger.info("Cluster node {} syncing through the broker relay", clusterNode.getNodeId());
+  }
+
+  /**
+   * Announce our users again whenever the broker connection comes (back)
+   * up, rather than waiting for the next heartbeat, and catch up on the
+   * rooms other nodes own.
+   */
+  @EventListener
+  public void onBrokerAvailability(BrokerAvailabilityEvent event) {
+    if (clusterNode.isClustered() && event.isBrokerAvailable()) {
+      usersList.announceLocalUsers();
+      for (String roomKey : messageLogService.chatroomKeys()) {
+        if (!clusterNode.owns(roomKey)) {
+          requestCatchUp(roomKey);
+        }
+      }
+    }
+  }
+
+  /**
+   * Accept a message from a client: if this node owns its chatroom, give
+   * it its id, send it to {@code destination}, queue it for writing and
+   * replicate it; otherwise hand it to the owner, which does all that.
+   */
+  public void deliver(Message message, String destination) {
+    String owner = clusterNode.ownerOf(MessageLogService.roomKey(message.getChatroomId()));
+    if (!owner.equals(clusterNode.getNodeId())) {
+      messagingTemplate.convertAndSend(nodeDestination(owner),
+          new ClusterEvent(clusterNode.getNodeId(), "forward", message, message.getChatroomId(), destination, 0));
+      return;
+    }
+    // assign the id, broadcast, then queue the write so disk latency never delays delivery
+    messageLogService.stage(message);
+    messagingTemplate.convertAndSend(destination, message);
+    messageLogService.persist(message);
+    if (clusterNode.isClustered() && message.getId() != null) {
+      messagingTemplate.convertAndSend(clusterNode.destination("messages"),
+          new ClusterEvent(clusterNode.getNodeId(), "message", message, message.getChatroomId(), null, 0));
+    }
+  }
+
+  public void publishMessageDeleted(String chatroomId, long id) {
+    if (clusterNode.isClustered()) {
+      messagingTemplate.convertAndSend(clusterNode.destination("messages"),
+          new ClusterEvent(clusterNode.getNodeId(), "message-deleted", null, chatroomId, null, id));
+    }
+  }
+
+  public void publishHistoryDeleted(String chatroomId) {
+    if (clusterNode.isClustered()) {
+      messagingTemplate.convertAndSend(clusterNode.destination("messages"),
+          new ClusterEvent(clusterNode.getNodeId(), "history-deleted", null, chatroomId, null, 0));
+    }
+  }
+
+  void onClusterEvent(org.springframework.messaging.Message<?> frame) {
+    ClusterEvent event = read(frame, ClusterEvent.class);
+    if (event == null || event.type() == null || clusterNode.getNodeId().equals(event.node())) {
+      return;
+    }
+    switch (event.type()) {
+      case "forward" -> {
+        if (event.message() == null || event.destination() == null
+            || clusterNode.isInternal(event.destination())) {
+          return;
+        }
+        if (clusterNode.owns(MessageLogService.roomKey(event.message().getChatroomId()))) {
+          deliver(event.message(), event.destination());
+        } else {
+          // never forward again: nodes with different node lists would bounce it around
+          logger.warn("Dropping message for {} forwarded by {}, which this node does not own",
+              event.message().getChatroomId(), event.node());
+        }
+      }
+      case "message" -> {
+        if (event.message() != null && event.message().getId() != null) {
+          replicate(event.message());
+        }
+      }
+      case "catch-up" -> {
+        if (event.chatroomId() != null) {
+          replay(event.node(), event.chatroomId(), event.id());
+        }
+      }
+      case "replay" -> {
+        if (event.message() != null && event.message().getId() != null) {
+          messageLogService.replicate(event.message(), true);
+        }
+      }
+      case "replay-end" -> {
+        if (event.chatroomId() != null) {
+          finishCatchUp(MessageLogService.roomKey(event.chatroomId()));
+        }
+      }
+      case "message-deleted" -> {
+        if (event.chatroomId() != null) {
+          messageLogService.deleteMessage(event.chatroomId(), event.id());
+        }
+      }
+      case "history-deleted" -> {
+        if (event.chatroomId() != null) {
+          messageLogService.deleteHistory(event.chatroomId());
+        }
+      }
+      default -> logger.debug("Ignoring cluster event of type {}", event.type());
+    }
+  }
+
+  private void replicate(Message message) {
+    String roomKey = MessageLogService.roomKey(message.getChatroomId());
+    long id = message.getId();
+    if (messageLogService.replicate(message, false) > id) {
+      return;
+    }
+    // missed something before this message: stored once the owner replays it
+    CatchUp pending = catchUps.computeIfPresent(roomKey, (key, catchUp) ->
+        System.currentTimeMillis() - catchUp.requestedAt() < CATCH_UP_TIMEOUT_MILLIS
+            ? new CatchUp(catchUp.requestedAt(), true)
+            : null);
+    if (pending == null) {
+      requestCatchUp(roomKey);
+    }
+  }
+
+  private void requestCatchUp(String roomKey) {
+    String chatroomId = MessageLogService.chatroomId(roomKey);
+    long from = messageLogService.nextId(chatroomId);
+    catchUps.put(roomKey, new CatchUp(System.currentTimeMillis(), false));
+    messagingTemplate.convertAndSend(nodeDestination(clusterNode.ownerOf(roomKey)),
+        new ClusterEvent(clusterNode.getNodeId(), "catch-up", null, chatroomId, null, from));
+    logger.info("Catching up on {} from id {}", chatroomId, from);
+  }
+
+  private void finishCatchUp(String roomKey) {
+    CatchUp catchUp = catchUps.remove(roomKey);
+    if (catchUp != null && catchUp.missed()) {
+      // messages that arrived during the replay may be newer than what it covered
+      requestCatchUp(roomKey);
+    }
+  }
+
+  /**
+   * Send a node every message of a room from {@code fromId} on, in order.
+   * Ids that are skipped were deleted or dropped by retention here.
+   */
+  private void replay(String node, String chatroomId, long fromId) {
+    String destination = nodeDestination(node);
+    long after = fromId - 1;
+    int replayed = 0;
+    while (true) {
+      List<Message> page = messageLogService.loadAfter(chatroomId, after, REPLAY_PAGE);
+      for (Message message : page) {
+        messagingTemplate.convertAndSend(destination,
+            new ClusterEvent(clusterNode.getNodeId(), "replay", message, chatroomId, null, 0));
+      }
+      replayed += page.size();
+      if (page.size() < REPLAY_PAGE) {
+        break;
+      }
+      after = page.get(page.size() - 1).getId();
+    }
+    messagingTemplate.convertAndSend(destination,
+        new ClusterEvent(clusterNode.getNodeId(), "replay-end", null, chatroomId, null, 0));
+    logger.info("Replayed {} messages of {} to node {}", replayed, chatroomId, node);
+  }
+
+  private String nodeDestination(String node) {
+    return clusterNode.destination("node." + node);
+  }
+
+  private void onPresence(org.springframework.messaging.Message<?> frame) {
+    PresenceState state = read(frame, PresenceState.class);
+    if (state != null && state.users() != null) {
+      usersList.remotePresence(state.node(), state.users());
+    }
+  }
+
+  private <T> T read(org.springframework.messaging.Message<?> frame, Class<T> type) {
+    if (!(frame.getPayload() instanceof byte[] payload)) {
+      return null;
+    }
+    try {
+      return objectMapper.readValue(payload, type);
+    } catch (IOException e) {
+      logger.warn("Ignoring unreadable cluster frame: {}", e.getMessage());
+      return null;
+    }
+  }
+}
@@ -44,6 +44,10 @@ public class AuthController {
             body.put("success", false);
             body.put("message", "Username already exists. Please choose a different username.");
             return ResponseEntity.status(HttpStatus.CONFLICT).body(body);
+        } else if (result == UserService.RegistrationResult.BUSY) {
+            body.put("success", false);
+            body.put("message", "Server is busy. Please try again shortly.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(body);
         } else {
             body.put("success", false);
             body.put("message", "Invalid username or password. Username and password cannot be empty.");
@@ -55,12 +59,16 @@ public class AuthController {
     public ResponseEntity<Map<String, Object>> login(@RequestBody UserAccount account) {
         Map<String, Object> body = new HashMap<>();
 
-        boolean ok = userService.login(account);
-        if (ok) {
+        UserService.LoginResult result = userService.login(account);
+        if (result == UserService.LoginResult.SUCCESS) {
             logger.info("Login successful for {}", account.getUsername());
             body.put("success", true);
             body.put("message", "Login successful");
             return ResponseEntity.ok(body);
+        } else if (result == UserService.LoginResult.BUSY) {
+            body.put("success", false);
+            body.put("message", "Server is busy. Please try again shortly.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(body);
         } else {
             body.put("success", false);
             body.put("message", "Invalid username or password");
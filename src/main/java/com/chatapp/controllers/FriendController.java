@@ -51,8 +51,8 @@ public class FriendController {
 
     Map<String, Object> body = new HashMap<>();
 
-    // Validate that userB exists
-    if (!userService.userExists(userB)) {
+    // Validate that both users exist
+    if (!userService.userExists(userA) || !userService.userExists(userB)) {
       body.put("success", false);
       body.put("message", "User does not exist");
       return ResponseEntity.ok(body);
@@ -99,6 +99,43 @@ public class FriendController {
     return ResponseEntity.ok(body);
   }
 
+  /**
+   * Get the friends two users have in common.
+   *
+   * Example: GET /api/friends/mutual?userA=alice&userB=bob
+   */
+  @GetMapping("/mutual")
+  public ResponseEntity<Map<String, Object>> mutualFriends(@RequestParam("userA") String userA,
+      @RequestParam("userB") String userB) {
+    List<String> mutual = friendService.getMutualFriends(userA, userB);
+
+    Map<String, Object> body = new HashMap<>();
+    body.put("userA", userA);
+    body.put("userB", userB);
+    body.put("mutualFriends", mutual);
+    body.put("count", mutual.size());
+
+    return ResponseEntity.ok(body);
+  }
+
+  /**
+   * Suggest friends of friends, most mutual friends first.
+   *
+   * Example: GET /api/friends/suggestions?username=alice&limit=10
+   */
+  @GetMapping("/suggestions")
+  public ResponseEntity<Map<String, Object>> suggestFriends(@RequestParam("username") String username,
+      @RequestParam(value = "limit", defaultValue = "10") int limit) {
+    List<FriendService.Suggestion> suggestions = friendService.getSuggestions(username, limit);
+
+    Map<String, Object> body = new HashMap<>();
+    body.put("username", username);
+    body.put("suggestions", suggestions);
+    body.put("count", suggestions.size());
+
+    return ResponseEntity.ok(body);
+  }
+
   /**
    * Remove a friendship between two users.
    *
@@ -1,36 +1,41 @@
 package com.chatapp.controllers;
 
+import com.chatapp.cluster.ClusterSync;
 import com.chatapp.models.Message;
-import com.chatapp.services.MessageLogService;
+import com.chatapp.services.TypingAggregator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Controller;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Map;
 
 @Controller
 public class MessageController {
 
     private static final Logger logger = LoggerFactory.getLogger(MessageController.class);
-    private final MessageLogService messageLogService;
+    private final TypingAggregator typingAggregator;
+    private final ClusterSync clusterSync;
 
-    public MessageController(MessageLogService messageLogService) {
-        this.messageLogService = messageLogService;
+    public MessageController(TypingAggregator typingAggregator, ClusterSync clusterSync) {
+        this.typingAggregator = typingAggregator;
+        this.clusterSync = clusterSync;
     }
 
     // clients will send message to /app/message (public chat)
-    @MessageMapping("/message")
     // server broadcasts message to /topic/messages
-    @SendTo("/topic/messages")
-    public Message handlePublicMessage(@Payload Message userMessage) {
+    @MessageMapping("/message")
+    public void handlePublicMessage(@Payload Message userMessage) {
 
         // if the client didn't provide a timestamp, set it on the server
+        // (millisecond precision, which the log stores as a number)
         if (userMessage.getTimestamp() == null || userMessage.getTimestamp().isEmpty()) {
-            userMessage.setTimestamp(Instant.now().toString());
+            userMessage.setTimestamp(now());
         }
 
         // log the incoming message with user + timestamp + text
@@ -42,21 +47,18 @@ public class MessageController {
         // force chatroomId to public for clarity
         userMessage.setChatroomId("public");
 
-        // append to persistent log
-        messageLogService.append(userMessage);
-
-        // return the message so it gets broadcast to all subscribers
-        return userMessage;
+        // the chatroom's owner (this node unless clustered) assigns the id,
+        // broadcasts, queues the write and copies it to the other nodes
+        clusterSync.deliver(userMessage, "/topic/messages");
     }
 
     // clients will send private messages to /app/private/{chatroomId}
     // server broadcasts to /topic/private/{chatroomId}
     @MessageMapping("/private/{chatroomId}")
-    @SendTo("/topic/private/{chatroomId}")
-    public Message handlePrivateMessage(@Payload Message userMessage) {
+    public void handlePrivateMessage(@DestinationVariable String chatroomId, @Payload Message userMessage) {
 
         if (userMessage.getTimestamp() == null || userMessage.getTimestamp().isEmpty()) {
-            userMessage.setTimestamp(Instant.now().toString());
+            userMessage.setTimestamp(now());
         }
 
         logger.info("Private message in {} from {} at {}: {}",
@@ -65,18 +67,20 @@ public class MessageController {
                 userMessage.getTimestamp(),
                 userMessage.getText());
 
-        // append to persistent log
-        messageLogService.append(userMessage);
-
-        return userMessage;
+        clusterSync.deliver(userMessage, "/topic/private/" + chatroomId);
     }
 
     // Typing indicator: clients send to /app/typing/{chatroomId}
-    // server broadcasts to /topic/typing/{chatroomId}
+    // the aggregator publishes who is typing to /topic/typing/{chatroomId}
     @MessageMapping("/typing/{chatroomId}")
-    @SendTo("/topic/typing/{chatroomId}")
-    public Map<String, String> handleTyping(@Payload Map<String, String> payload) {
+    public void handleTyping(@DestinationVariable String chatroomId, @Payload Map<String, String> payload,
+            SimpMessageHeaderAccessor headers) {
         // payload should contain: { "user": "alice", "typing": "true" or "false" }
-        return payload;
+        typingAggregator.update(chatroomId, headers.getSessionId(), payload.get("user"),
+                "true".equals(payload.get("typing")));
+    }
+
+    private static String now() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS).toString();
     }
-}
\ No newline at end of file
+}
@@ -1,46 +1,113 @@
 package com.chatapp.controllers;
 
+import com.chatapp.cluster.ClusterSync;
 import com.chatapp.models.Message;
 import com.chatapp.services.MessageLogService;
+import com.chatapp.services.MessageWritePipeline;
+import com.chatapp.storage.RetentionPolicy;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * REST endpoint to fetch recent message history for a chatroom.
+ * REST endpoint to fetch message history for a chatroom.
  */
 @RestController
 @RequestMapping("/api/messages")
 public class MessageHistoryController {
 
   private final MessageLogService messageLogService;
+  private final MessageWritePipeline writePipeline;
+  private final ClusterSync clusterSync;
 
-  public MessageHistoryController(MessageLogService messageLogService) {
+  public MessageHistoryController(MessageLogService messageLogService, MessageWritePipeline writePipeline,
+      ClusterSync clusterSync) {
     this.messageLogService = messageLogService;
+    this.writePipeline = writePipeline;
+    this.clusterSync = clusterSync;
   }
 
+  /**
+   * Fetch a page of messages, oldest first.
+   *
+   * Without a cursor the newest {@code limit} messages are returned.
+   * {@code before=<id>} returns the page just older than that message id and
+   * {@code after=<id>} the page just newer. {@code nextBefore} in the
+   * response is the cursor for the next older page (null once the start of
+   * the history is reached).
+   *
+   * Example: GET /api/messages/history?chatroomId=public&before=120&limit=50
+   */
   @GetMapping("/history")
   public ResponseEntity<Map<String, Object>> getHistory(
       @RequestParam("chatroomId") String chatroomId,
-      @RequestParam(name = "limit", defaultValue = "50") int limit) {
+      @RequestParam(name = "limit", defaultValue = "50") int limit,
+      @RequestParam(name = "before", required = false) Long before,
+      @RequestParam(name = "after", required = false) Long after) {
+
+    if (before != null && after != null) {
+      Map<String, Object> error = new HashMap<>();
+      error.put("chatroomId", chatroomId);
+      error.put("message", "Use either before or after, not both");
+      return ResponseEntity.badRequest().body(error);
+    }
 
-    List<Message> messages = messageLogService.loadRecent(chatroomId, limit);
+    List<Message> messages;
+    if (before != null) {
+      messages = messageLogService.loadBefore(chatroomId, before, limit);
+    } else if (after != null) {
+      messages = messageLogService.loadAfter(chatroomId, after, limit);
+    } else {
+      messages = messageLogService.loadRecent(chatroomId, limit);
+    }
 
     Map<String, Object> body = new HashMap<>();
     body.put("chatroomId", chatroomId);
     body.put("count", messages.size());
     body.put("messages", messages);
+    Long oldestId = messages.isEmpty() ? null : messages.get(0).getId();
+    body.put("nextBefore", (oldestId != null && oldestId > 0) ? oldestId : null);
 
     return ResponseEntity.ok(body);
   }
 
+  /**
+   * Find messages containing every word of {@code q}, newest first.
+   *
+   * Example: GET /api/messages/search?chatroomId=alice_bob&q=lunch+tomorrow&limit=20
+   */
+  @GetMapping("/search")
+  public ResponseEntity<Map<String, Object>> search(
+      @RequestParam("chatroomId") String chatroomId,
+      @RequestParam("q") String query,
+      @RequestParam(name = "limit", defaultValue = "50") int limit) {
+
+    Map<String, Object> body = new HashMap<>();
+    body.put("chatroomId", chatroomId);
+    body.put("query", query);
+    if (query.isBlank()) {
+      body.put("message", "Query must not be empty");
+      return ResponseEntity.badRequest().body(body);
+    }
+
+    List<Message> messages = messageLogService.search(chatroomId, query, limit);
+    body.put("count", messages.size());
+    body.put("messages", messages);
+    return ResponseEntity.ok(body);
+  }
+
   /**
    * Delete all stored messages for a given chatroom.
    */
@@ -49,6 +116,7 @@ public class MessageHistoryController {
       @RequestParam("chatroomId") String chatroomId) {
 
     messageLogService.deleteHistory(chatroomId);
+    clusterSync.publishHistoryDeleted(chatroomId);
 
     Map<String, Object> body = new HashMap<>();
     body.put("chatroomId", chatroomId);
@@ -56,4 +124,80 @@ public class MessageHistoryController {
 
     return ResponseEntity.ok(body);
   }
+
+  /**
+   * Delete a single message. Ids are the same on every node, so in a
+   * cluster the delete is replicated by id.
+   *
+   * Example: DELETE /api/messages/120?chatroomId=public
+   */
+  @DeleteMapping("/{id}")
+  public ResponseEntity<Map<String, Object>> deleteMessage(
+      @PathVariable("id") long id,
+      @RequestParam("chatroomId") String chatroomId) {
+
+    Map<String, Object> body = new HashMap<>();
+    body.put("chatroomId", chatroomId);
+    body.put("id", id);
+    if (!messageLogService.deleteMessage(chatroomId, id)) {
+      body.put("message", "No such message");
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+    }
+    clusterSync.publishMessageDeleted(chatroomId, id);
+    body.put("deleted", true);
+    return ResponseEntity.ok(body);
+  }
+
+  /**
+   * Retention policy in effect for a chatroom, plus the extent of its log.
+   */
+  @GetMapping("/retention")
+  public ResponseEntity<Map<String, Object>> getRetention(
+      @RequestParam("chatroomId") String chatroomId) {
+    return ResponseEntity.ok(messageLogService.getRetention(chatroomId));
+  }
+
+  /**
+   * Give a chatroom its own retention policy. Limits of 0 are unlimited.
+   *
+   * Example: PUT /api/messages/retention?chatroomId=public
+   * {"maxAgeSeconds": 604800, "maxCount": 0, "maxBytes": 0}
+   */
+  @PutMapping("/retention")
+  public ResponseEntity<Map<String, Object>> setRetention(
+      @RequestParam("chatroomId") String chatroomId,
+      @RequestBody RetentionPolicy policy) throws IOException {
+    if (!messageLogService.setRetention(chatroomId, policy)) {
+      return noSuchChatroom(chatroomId);
+    }
+    return ResponseEntity.ok(messageLogService.getRetention(chatroomId));
+  }
+
+  /**
+   * Make a chatroom use the default retention policy again.
+   */
+  @DeleteMapping("/retention")
+  public ResponseEntity<Map<String, Object>> resetRetention(
+      @RequestParam("chatroomId") String chatroomId) throws IOException {
+    if (!messageLogService.setRetention(chatroomId, null)) {
+      return noSuchChatroom(chatroomId);
+    }
+    return ResponseEntity.ok(messageLogService.getRetention(chatroomId));
+  }
+
+  private static ResponseEntity<Map<String, Object>> noSuchChatroom(String chatroomId) {
+    Map<String, Object> body = new HashMap<>();
+    body.put("chatroomId", chatroomId);
+    body.put("message", "No such chatroom");
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(body);
+  }
+
+  /**
+   * Write queue depth, batch sizes and producer blocking of the message
+   * write pipeline.
+   */
+  @GetMapping("/pipeline")
+  public ResponseEntity<Map<String, Object>> getPipelineStats() {
+    return ResponseEntity.ok(writePipeline.stats());
+  }
 }
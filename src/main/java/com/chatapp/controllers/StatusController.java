@@ -7,58 +7,58 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
 import org.springframework.stereotype.Controller;
 
-import java.util.List;
+import java.util.Map;
 
 @Controller
 public class StatusController {
     private static  Logger logger = LoggerFactory.getLogger(StatusController.class);
 
     private UsersList usersList;
-    private SimpMessagingTemplate messagingTemplate;
 
-    public StatusController(UsersList usersList, SimpMessagingTemplate messagingTemplate){
+    public StatusController(UsersList usersList){
         this.usersList = usersList;
-        this.messagingTemplate = messagingTemplate;
+    }
+
+    // clients subscribe to /app/presence to get the full online list once;
+    // after that they follow the deltas on /topic/presence
+    @SubscribeMapping("/presence")
+    public Map<String, Object> presenceSnapshot() {
+        return usersList.snapshot();
     }
 
     //handles messages sent to /app/connect
     @MessageMapping("/connect")
-    public void handleConnect(@Payload User user){
+    public void handleConnect(@Payload User user, SimpMessageHeaderAccessor headers){
         if(user == null || user.getUsername() == null){
             logger.warn("Connect payload is invalid");
             return;
         }
 
-        //add the user to the online list
+        //bind this websocket session to the user
         String username = user.getUsername();
-        usersList.userConnect(username);
+        usersList.userConnect(headers.getSessionId(), username);
+        logger.info("User joined: {}", username);
 
-        List<String> online = usersList.getOnlineUsers();
-        logger.info("User joined: {} | online now: {}", username, online);
-
-        // broadcast updated user list to subscribers
-        messagingTemplate.convertAndSend("/topic/users", online);
+        // the change goes out with the next presence delta on /topic/presence
     }
 
     //handles messages sent to /app/disconnect
     @MessageMapping("/disconnect")
-    public void handleDisconnect(@Payload User user) {
+    public void handleDisconnect(@Payload User user, SimpMessageHeaderAccessor headers) {
         if (user == null || user.getUsername() == null) {
             logger.warn("Leave payload is invalid");
             return;
         }
 
-        //remove user from online users list
+        //unbind this session; the user stays online while other sessions remain
         String username = user.getUsername();
-        usersList.userDisconnect(username);
-
-        List<String> online = usersList.getOnlineUsers();
-        logger.info("User {} left | online now: {}", username, online);
+        usersList.userDisconnect(headers.getSessionId());
+        logger.info("User {} left", username);
 
-        // broadcast updated user list to all subscribers
-        messagingTemplate.convertAndSend("/topic/users", online);
+        // the change goes out with the next presence delta on /topic/presence
     }
 }
@@ -0,0 +1,77 @@
+package com.chatapp.controllers;
+
+import com.chatapp.OutboundQueueMonitor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.socket.config.WebSocketMessageBrokerStats;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * REST endpoint for the health of WebSocket delivery.
+ */
+@RestController
+@RequestMapping("/api/websocket")
+public class WebSocketStatsController {
+
+  private final OutboundQueueMonitor outboundQueueMonitor;
+  private final WebSocketMessageBrokerStats brokerStats;
+  private final Executor inboundExecutor;
+  private final Executor outboundExecutor;
+
+  public WebSocketStatsController(OutboundQueueMonitor outboundQueueMonitor,
+      WebSocketMessageBrokerStats brokerStats,
+      @Qualifier("clientInboundChannelExecutor") Executor inboundExecutor,
+      @Qualifier("clientOutboundChannelExecutor") Executor outboundExecutor) {
+    this.outboundQueueMonitor = outboundQueueMonitor;
+    this.brokerStats = brokerStats;
+    this.inboundExecutor = inboundExecutor;
+    this.outboundExecutor = outboundExecutor;
+  }
+
+  /**
+   * Per-session outbound queue depth, how many sessions were closed for
+   * exceeding the send time or buffer limits, and the channel executors.
+   */
+  @GetMapping("/stats")
+  public ResponseEntity<Map<String, Object>> getStats() {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("outbound", outboundQueueMonitor.stats());
+
+    SubProtocolWebSocketHandler.Stats sessions = brokerStats.getWebSocketSessionStats();
+    if (sessions != null) {
+      Map<String, Object> counts = new LinkedHashMap<>();
+      counts.put("current", sessions.getTotalSessions());
+      counts.put("limitExceeded", sessions.getLimitExceededSessions());
+      counts.put("noMessagesReceived", sessions.getNoMessagesReceivedSessions());
+      counts.put("transportErrors", sessions.getTransportErrorSessions());
+      body.put("sessions", counts);
+    }
+    body.put("inboundExecutor", executorStats(inboundExecutor));
+    body.put("outboundExecutor", executorStats(outboundExecutor));
+    return ResponseEntity.ok(body);
+  }
+
+  private static Map<String, Object> executorStats(Executor executor) {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    if (executor instanceof ThreadPoolTaskExecutor pool) {
+      ThreadPoolExecutor threads = pool.getThreadPoolExecutor();
+      stats.put("poolSize", threads.getPoolSize());
+      stats.put("maxPoolSize", threads.getMaximumPoolSize());
+      stats.put("activeThreads", threads.getActiveCount());
+      stats.put("queued", threads.getQueue().size());
+      stats.put("completedTasks", threads.getCompletedTaskCount());
+    } else {
+      stats.put("type", executor.getClass().getSimpleName());
+    }
+    return stats;
+  }
+}
@@ -52,22 +52,20 @@ public class Friend {
    * Return true if this friendship involves the given username.
    */
   public boolean involves(String username) {
-    if (username == null)
-      return false;
-    String u = username.trim().toLowerCase();
-    return u.equals(user1) || u.equals(user2);
+    return getOther(username) != null;
   }
 
   /**
-   * Given one username from this friendship, return the other.
+   * Given one username from this friendship, return the other. Compares
+   * ignoring case instead of building a lowercased copy of the name.
    */
   public String getOther(String username) {
     if (username == null)
       return null;
-    String u = username.trim().toLowerCase();
-    if (u.equals(user1))
+    String u = username.trim();
+    if (u.equalsIgnoreCase(user1))
       return user2;
-    if (u.equals(user2))
+    if (u.equalsIgnoreCase(user2))
       return user1;
     return null;
   }
@@ -1,6 +1,9 @@
 package com.chatapp.models;
 
 public class Message {
+    // server-assigned sequence number within the chatroom, increasing with every
+    // message; used as the cursor for paging through history
+    private Long id;
     private String user;
     private String text;
     private String timestamp; // ISO-8601 string, e.g. "2025-11-11T21:15:00Z"
@@ -24,6 +27,14 @@ public class Message {
         this.chatroomId = chatroomId;
     }
 
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
     public String getUser() {
         return user;
     }
@@ -0,0 +1,118 @@
+package com.chatapp.services;
+
+import java.util.Arrays;
+
+/**
+ * Friend graph as an adjacency index from each id to the sorted int array
+ * of their friends' ids: listing a user's friends costs O(degree), checking
+ * a friendship a binary search, and changes are cheap. Each user's array
+ * has its own header and up to twice the slots in use.
+ */
+final class AdjacencyFriendGraph implements FriendGraph {
+
+  // friendsOf[id] holds the sorted ids of id's friends in its first
+  // degree[id] slots (null without friends)
+  private int[][] friendsOf = new int[0][];
+  private int[] degree = new int[0];
+  private long edgeCount;
+
+  @Override
+  public boolean add(int a, int b) {
+    ensureCapacity(Math.max(a, b) + 1);
+    if (contains(a, b)) {
+      return false;
+    }
+    link(a, b);
+    link(b, a);
+    edgeCount++;
+    return true;
+  }
+
+  @Override
+  public void load(int a, int b) {
+    add(a, b);
+  }
+
+  @Override
+  public boolean remove(int a, int b) {
+    if (!contains(a, b)) {
+      return false;
+    }
+    unlink(a, b);
+    unlink(b, a);
+    edgeCount--;
+    return true;
+  }
+
+  @Override
+  public boolean contains(int a, int b) {
+    if (a >= degree.length || b >= degree.length) {
+      return false;
+    }
+    // search the shorter list
+    int user = degree[a] <= degree[b] ? a : b;
+    int friend = user == a ? b : a;
+    return degree[user] > 0 && Arrays.binarySearch(friendsOf[user], 0, degree[user], friend) >= 0;
+  }
+
+  @Override
+  public int[] friendsOf(int user) {
+    return user < degree.length && degree[user] > 0 ? Arrays.copyOf(friendsOf[user], degree[user]) : new int[0];
+  }
+
+  @Override
+  public long edgeCount() {
+    return edgeCount;
+  }
+
+  @Override
+  public void forEachEdge(EdgeConsumer consumer) {
+    for (int user = 0; user < degree.length; user++) {
+      for (int i = 0; i < degree[user]; i++) {
+        int friend = friendsOf[user][i];
+        if (friend > user) {
+          consumer.accept(user, friend);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void compact() {
+    // changes are applied in place
+  }
+
+  private void ensureCapacity(int users) {
+    if (users > degree.length) {
+      int capacity = Math.max(users, degree.length * 2);
+      friendsOf = Arrays.copyOf(friendsOf, capacity);
+      degree = Arrays.copyOf(degree, capacity);
+    }
+  }
+
+  private void link(int user, int friend) {
+    int[] friends = friendsOf[user];
+    int count = degree[user];
+    if (friends == null) {
+      friends = new int[4];
+    } else if (count == friends.length) {
+      friends = Arrays.copyOf(friends, count * 2);
+    }
+    int at = -Arrays.binarySearch(friends, 0, count, friend) - 1;
+    System.arraycopy(friends, at, friends, at + 1, count - at);
+    friends[at] = friend;
+    friendsOf[user] = friends;
+    degree[user] = count + 1;
+  }
+
+  private void unlink(int user, int friend) {
+    int[] friends = friendsOf[user];
+    int count = degree[user];
+    int at = Arrays.binarySearch(friends, 0, count, friend);
+    System.arraycopy(friends, at + 1, friends, at, count - at - 1);
+    degree[user] = count - 1;
+    if (count == 1) {
+      friendsOf[user] = null;
+    }
+  }
+}
@@ -0,0 +1,450 @@
+package com.chatapp.services;
+
+import com.chatapp.models.Message;
+import com.chatapp.storage.ChatroomLog;
+import com.chatapp.storage.LogOptions;
+import com.chatapp.storage.MessageRecordReader;
+import com.chatapp.storage.MessageRecordWriter;
+import com.chatapp.storage.RetentionPolicy;
+import com.chatapp.storage.SearchIndex;
+import com.chatapp.storage.Tombstones;
+import com.chatapp.storage.UserDictionary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * A chatroom's log together with the messages that were accepted (and given
+ * an id) but not yet written by the {@link MessageWritePipeline}.
+ * Messages are stored as binary records (see {@link MessageRecordWriter})
+ * whose authors are ids in the room's {@link UserDictionary}. Written
+ * messages are added to the room's {@link SearchIndex}. Deleted messages
+ * are {@link Tombstones} that every read path filters out.
+ *
+ * The chatroom's lock orders senders: id assignment and the in-flight
+ * queue are guarded by it. Disk writes happen outside of it, so a slow disk
+ * never blocks senders of this or any other room. Both locks are
+ * ReentrantLocks rather than monitors so virtual threads can wait for them
+ * without pinning their carrier.
+ *
+ * A message leaves the in-flight queue, and is indexed, only once it is in
+ * the log. When a write fails, whatever did not reach the log stays queued
+ * (and readable) and is retried with a growing backoff; see
+ * {@link #hasFailedWrites}. A log whose end does not match the next id is
+ * never written to, as every message would land under the wrong id.
+ */
+class Chatroom implements MessageWritePipeline.WriteSource {
+
+  private static final Logger logger = LoggerFactory.getLogger(Chatroom.class);
+
+  static final String RETENTION_FILE = "retention.json";
+  static final long FIRST_RETRY_BACKOFF_MILLIS = 100;
+  static final long MAX_RETRY_BACKOFF_MILLIS = 30_000;
+
+  private final String key;
+  private final ChatroomLog log;
+  private final UserDictionary users;
+  private final SearchIndex searchIndex;
+  private final Tombstones tombstones;
+  private final ObjectMapper objectMapper;
+  private final MessageRecordReader reader;
+  // only used by the writer, under writeLock
+  private final MessageRecordWriter writer;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Timer lockWaits;
+  // accepted but not yet written, in id order; guarded by lock
+  private final ArrayDeque<Message> inFlight = new ArrayDeque<>();
+  private long nextId; // guarded by lock
+  private boolean deleted; // guarded by lock
+  // this room's own retention policy, or null to use the default
+  private volatile RetentionPolicy retention;
+
+  // serializes writers; normally only the pipeline's writer thread
+  private final ReentrantLock writeLock = new ReentrantLock();
+  // consecutive failed writes (read without the lock by hasFailedWrites),
+  // and when the next attempt may run; written under writeLock
+  private volatile int failedWrites;
+  private long retryAt;
+  // source of retryAt, in nanoseconds; tests replace it
+  private LongSupplier nanoClock = System::nanoTime;
+
+  private Chatroom(String key, ChatroomLog log, UserDictionary users, SearchIndex searchIndex, Tombstones tombstones,
+      ObjectMapper objectMapper, Timer lockWaits) {
+    this.key = key;
+    this.log = log;
+    this.users = users;
+    this.searchIndex = searchIndex;
+    this.tombstones = tombstones;
+    this.objectMapper = objectMapper;
+    // records leave out the chatroomId when it is the room's own
+    String chatroomId = MessageLogService.chatroomId(key);
+    this.reader = new MessageRecordReader(chatroomId == null ? key : chatroomId, users, objectMapper);
+    this.writer = new MessageRecordWriter(chatroomId == null ? key : chatroomId, users);
+    this.lockWaits = lockWaits;
+    this.nextId = log.getNextOffset();
+  }
+
+  /**
+   * Open (or create) the log, user dictionary, search index, tombstones and
+   * retention policy stored in {@code dir}, and index whatever the saved
+   * search index is missing. Usernames read from the dictionary go through
+   * {@code interner}.
+   */
+  static Chatroom open(String key, Path dir, LogOptions options, ObjectMapper objectMapper,
+      UnaryOperator<String> interner, Timer lockWaits)
+      throws IOException {
+    ChatroomLog log = ChatroomLog.open(dir, options);
+    UserDictionary users = null;
+    Tombstones tombstones = null;
+    try {
+      users = UserDictionary.open(dir.resolve(UserDictionary.FILE_NAME), interner);
+      tombstones = Tombstones.open(dir.resolve(Tombstones.FILE_NAME));
+      Path indexFile = dir.resolve(SearchIndex.FILE_NAME);
+      SearchIndex searchIndex = SearchIndex.open(indexFile);
+      if (searchIndex.getNextId() > log.getNextOffset()) {
+        // the log lost a torn tail the index had already seen
+        searchIndex.delete();
+        searchIndex = SearchIndex.open(indexFile);
+      }
+      Chatroom room = new Chatroom(key, log, users, searchIndex, tombstones, objectMapper, lockWaits);
+      Path retentionFile = dir.resolve(RETENTION_FILE);
+      if (Files.exists(retentionFile)) {
+        room.retention = objectMapper.readValue(retentionFile.toFile(), RetentionPolicy.class);
+      }
+      room.catchUpSearchIndex();
+      return room;
+    } catch (IOException e) {
+      if (tombstones != null) {
+        tombstones.close();
+      }
+      if (users != null) {
+        users.close();
+      }
+      log.close();
+      throw e;
+    }
+  }
+
+  private void catchUpSearchIndex() throws IOException {
+    long from = Math.max(searchIndex.getNextId(), log.getFirstOffset());
+    long end = log.getNextOffset();
+    if (from >= end) {
+      return;
+    }
+    long start = System.nanoTime();
+    for (long offset = from; offset < end; offset += 4096) {
+      log.read(offset, (int) Math.min(4096, end - offset),
+          (id, payload) -> searchIndex.add(id, reader.read(id, payload).getText()));
+    }
+    searchIndex.save();
+    logger.info("Indexed {} messages of {} for search in {} ms", end - from, key,
+        (System.nanoTime() - start) / 1_000_000);
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  ChatroomLog getLog() {
+    return log;
+  }
+
+  MessageRecordReader getReader() {
+    return reader;
+  }
+
+  SearchIndex getSearchIndex() {
+    return searchIndex;
+  }
+
+  /**
+   * Whether the message with this id was deleted.
+   */
+  boolean isTombstoned(long id) {
+    return tombstones.contains(id);
+  }
+
+  /**
+   * Number of deleted messages with ids in [from, to).
+   */
+  int tombstonesBetween(long from, long to) {
+    return tombstones.count(from, to);
+  }
+
+  /**
+   * Delete one message by recording a tombstone for its id. Also covers
+   * messages that are accepted but not written yet.
+   *
+   * @return false if there is no such message or it was deleted already
+   */
+  boolean deleteMessage(long id) throws IOException {
+    LockWaits.lock(lock, lockWaits);
+    try {
+      if (deleted || id < log.getFirstOffset() || id >= nextId) {
+        return false;
+      }
+      return tombstones.add(id);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This room's own retention policy, or null if it uses the default.
+   */
+  RetentionPolicy getRetention() {
+    return retention;
+  }
+
+  /**
+   * Give this room its own retention policy, or go back to the default
+   * with null. Saved next to the log.
+   */
+  void setRetention(RetentionPolicy policy) throws IOException {
+    Path file = log.getDirectory().resolve(RETENTION_FILE);
+    if (policy == null) {
+      Files.deleteIfExists(file);
+    } else {
+      Path tmp = file.resolveSibling(RETENTION_FILE + ".tmp");
+      Files.write(tmp, objectMapper.writeValueAsBytes(policy));
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    retention = policy;
+  }
+
+  /**
+   * Apply a retention policy to the log and forget the tombstones and index
+   * postings of messages it removed. Runs alongside appends and reads.
+   *
+   * @return the number of messages that stopped being readable
+   */
+  long applyRetention(RetentionPolicy policy, long nowMillis) throws IOException {
+    long removed = log.applyRetention(policy, nowMillis);
+    if (removed > 0) {
+      long first = log.getFirstOffset();
+      tombstones.removeBelow(first);
+      searchIndex.removeBelow(first);
+    }
+    return removed;
+  }
+
+  /**
+   * Take the chatroom's lock, e.g. to keep id assignment and the caller's
+   * own bookkeeping in the same order. Reentrant.
+   */
+  void lock() {
+    LockWaits.lock(lock, lockWaits);
+  }
+
+  void unlock() {
+    lock.unlock();
+  }
+
+  /**
+   * Give the message the next id and queue it for writing.
+   *
+   * @return false if the room was deleted and the caller must retry on a
+   *         fresh one
+   */
+  boolean stage(Message message) {
+    LockWaits.lock(lock, lockWaits);
+    try {
+      if (deleted) {
+        return false;
+      }
+      message.setId(nextId++);
+      inFlight.add(message);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The id the next accepted message gets.
+   */
+  long getNextId() {
+    LockWaits.lock(lock, lockWaits);
+    try {
+      return nextId;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Accepted messages whose id is at least {@code fromId}, i.e. the ones a
+   * reader that has seen the log up to {@code fromId} is still missing.
+   */
+  List<Message> inFlightFrom(long fromId) {
+    LockWaits.lock(lock, lockWaits);
+    try {
+      List<Message> result = new ArrayList<>();
+      for (Message message : inFlight) {
+        if (message.getId() >= fromId && !tombstones.contains(message.getId())) {
+          result.add(message);
+        }
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean isDeleted() {
+    LockWaits.lock(lock, lockWaits);
+    try {
+      return deleted;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drop pending messages and delete the log. The caller holds this
+   * chatroom's lock.
+   */
+  void delete() throws IOException {
+    LockWaits.lock(lock, lockWaits);
+    try {
+      deleted = true;
+      inFlight.clear();
+      searchIndex.delete();
+      tombstones.delete();
+      users.delete();
+      Files.deleteIfExists(log.getDirectory().resolve(RETENTION_FILE));
+      log.delete();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int writePending(MessageWritePipeline.Durability durability) {
+    writeLock.lock();
+    try {
+      if (failedWrites > 0 && nanoClock.getAsLong() < retryAt) {
+        return 0;
+      }
+      List<Message> batch;
+      LockWaits.lock(lock, lockWaits);
+      try {
+        if (deleted || inFlight.isEmpty()) {
+          return 0;
+        }
+        batch = new ArrayList<>(inFlight);
+      } finally {
+        lock.unlock();
+      }
+
+      long first = log.getNextOffset();
+      if (first != batch.get(0).getId()) {
+        // appending would store every message under the wrong id
+        throw new IllegalStateException("Chat log " + key + " is at offset " + first
+            + " but the next message has id " + batch.get(0).getId() + "; not writing it");
+      }
+      IOException failure = null;
+      try {
+        write(batch, durability);
+      } catch (IOException e) {
+        failure = e;
+      }
+      // what reached the log stays there, failure or not; the rest is retried
+      int written = (int) Math.min(batch.size(), log.getNextOffset() - first);
+      for (int i = 0; i < written; i++) {
+        Message message = batch.get(i);
+        searchIndex.add(message.getId(), message.getText());
+      }
+
+      LockWaits.lock(lock, lockWaits);
+      try {
+        if (deleted) {
+          return 0;
+        }
+        for (int i = 0; i < written; i++) {
+          inFlight.poll();
+        }
+      } finally {
+        lock.unlock();
+      }
+      if (failure != null) {
+        failedWrites++;
+        long backoff = Math.min(MAX_RETRY_BACKOFF_MILLIS,
+            FIRST_RETRY_BACKOFF_MILLIS << Math.min(failedWrites - 1, 16));
+        retryAt = nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(backoff);
+        logger.error("Failed to write {} messages to chat log {} (attempt {}), retrying in {} ms: {}",
+            batch.size() - written, key, failedWrites, backoff, failure.getMessage());
+      } else if (failedWrites > 0) {
+        logger.info("Wrote to chat log {} again after {} failed attempts", key, failedWrites);
+        failedWrites = 0;
+      }
+      return written;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void write(List<Message> batch, MessageWritePipeline.Durability durability) throws IOException {
+    List<byte[]> payloads = new ArrayList<>(batch.size());
+    for (Message message : batch) {
+      payloads.add(writer.write(message));
+    }
+    if (durability == MessageWritePipeline.Durability.EVERY_MESSAGE) {
+      users.flush();
+      for (byte[] payload : payloads) {
+        log.append(payload);
+        log.flush();
+      }
+    } else {
+      log.append(payloads);
+      if (durability == MessageWritePipeline.Durability.BATCH) {
+        users.flush();
+        log.flush();
+      }
+    }
+  }
+
+  void setNanoClock(LongSupplier nanoClock) {
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * Whether the last write failed and pending messages wait for a retry.
+   */
+  boolean hasFailedWrites() {
+    return failedWrites > 0 && !isDeleted();
+  }
+
+  /**
+   * Save the search index, then flush and close the log and the user
+   * dictionary. Pending messages must have been written already.
+   */
+  void close() throws IOException {
+    try {
+      searchIndex.save();
+      users.flush();
+      log.flush();
+    } finally {
+      try {
+        users.close();
+        tombstones.close();
+      } finally {
+        log.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,320 @@
+package com.chatapp.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Friend graph in compressed sparse row (CSR) form, for very large graphs:
+ * the sorted friend ids of every user are packed back to back in one
+ * {@code targets} array, and user u's friends are
+ * {@code targets[offsets[u] .. offsets[u + 1])}. That is 8 bytes per
+ * friendship plus 4 per user, with no per-user objects.
+ *
+ * The arrays are never changed in place. Changes go to a small overlay of
+ * added and removed edges, per user, which lookups merge in on the fly.
+ * Once the overlay holds more than the merge threshold (or an eighth of the
+ * graph, whichever is larger) it is merged into new arrays in one O(users +
+ * friendships) pass, so each change costs O(1) amortized array copying.
+ *
+ * Loading a snapshot skips the overlay: {@link #load} only buffers the
+ * pairs, and {@link #compact} builds the arrays from them in one counting
+ * sort, then sorts each row and drops duplicates.
+ */
+final class CsrFriendGraph implements FriendGraph {
+
+  private static final Logger logger = LoggerFactory.getLogger(CsrFriendGraph.class);
+
+  private static final int[] EMPTY = new int[0];
+
+  private final int mergeThreshold;
+
+  private int[] offsets = { 0 };
+  private int[] targets = EMPTY;
+  // sorted ids added to / removed from each user's row since the last merge
+  private final Map<Integer, int[]> added = new HashMap<>();
+  private final Map<Integer, int[]> removed = new HashMap<>();
+  private int pending; // ids in added and removed
+  // pairs buffered by load(), a at 2i and b at 2i + 1
+  private int[] loaded = EMPTY;
+  private int loadedCount;
+  private int userBound; // one past the highest id with an edge, now or in the arrays
+  private long edgeCount;
+
+  CsrFriendGraph(int mergeThreshold) {
+    this.mergeThreshold = mergeThreshold;
+  }
+
+  @Override
+  public boolean add(int a, int b) {
+    if (contains(a, b)) {
+      return false;
+    }
+    if (inArrays(a, b)) {
+      unmark(removed, a, b);
+      unmark(removed, b, a);
+      pending -= 2;
+    } else {
+      mark(added, a, b);
+      mark(added, b, a);
+      pending += 2;
+    }
+    userBound = Math.max(userBound, Math.max(a, b) + 1);
+    edgeCount++;
+    mergeIfLarge();
+    return true;
+  }
+
+  @Override
+  public void load(int a, int b) {
+    if (2 * loadedCount == loaded.length) {
+      loaded = Arrays.copyOf(loaded, Math.max(1024, loaded.length * 2));
+    }
+    loaded[2 * loadedCount] = a;
+    loaded[2 * loadedCount + 1] = b;
+    loadedCount++;
+    userBound = Math.max(userBound, Math.max(a, b) + 1);
+  }
+
+  @Override
+  public boolean remove(int a, int b) {
+    if (!contains(a, b)) {
+      return false;
+    }
+    if (inArrays(a, b)) {
+      mark(removed, a, b);
+      mark(removed, b, a);
+      pending += 2;
+    } else {
+      unmark(added, a, b);
+      unmark(added, b, a);
+      pending -= 2;
+    }
+    edgeCount--;
+    mergeIfLarge();
+    return true;
+  }
+
+  @Override
+  public boolean contains(int a, int b) {
+    if (pending > 0) {
+      if (marked(removed, a, b)) {
+        return false;
+      }
+      if (marked(added, a, b)) {
+        return true;
+      }
+    }
+    return inArrays(a, b);
+  }
+
+  @Override
+  public int[] friendsOf(int user) {
+    int[] plus = added.getOrDefault(user, EMPTY);
+    int[] minus = removed.getOrDefault(user, EMPTY);
+    int from = rowStart(user);
+    int to = rowEnd(user);
+    int[] friends = new int[to - from - minus.length + plus.length];
+    mergeRow(from, to, plus, minus, friends, 0);
+    return friends;
+  }
+
+  @Override
+  public long edgeCount() {
+    return edgeCount;
+  }
+
+  @Override
+  public void forEachEdge(EdgeConsumer consumer) {
+    for (int user = 0; user < userBound; user++) {
+      if (pending == 0 || !added.containsKey(user) && !removed.containsKey(user)) {
+        for (int i = rowStart(user), end = rowEnd(user); i < end; i++) {
+          if (targets[i] > user) {
+            consumer.accept(user, targets[i]);
+          }
+        }
+        continue;
+      }
+      for (int friend : friendsOf(user)) {
+        if (friend > user) {
+          consumer.accept(user, friend);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void compact() {
+    if (pending > 0) {
+      merge();
+    }
+    if (loadedCount > 0) {
+      build();
+    }
+  }
+
+  private void mergeIfLarge() {
+    if (pending > Math.max(mergeThreshold, targets.length / 8)) {
+      merge();
+    }
+  }
+
+  /**
+   * Rebuild the arrays with the overlay applied and clear the overlay.
+   */
+  private void merge() {
+    if (2 * edgeCount > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("Friend graph too large for CSR: " + edgeCount + " friendships");
+    }
+    long start = System.nanoTime();
+    int[] newOffsets = new int[userBound + 1];
+    int[] newTargets = new int[(int) (2 * edgeCount)];
+    int at = 0;
+    for (int user = 0; user < userBound; user++) {
+      newOffsets[user] = at;
+      at = mergeRow(rowStart(user), rowEnd(user), added.getOrDefault(user, EMPTY),
+          removed.getOrDefault(user, EMPTY), newTargets, at);
+    }
+    newOffsets[userBound] = at;
+    offsets = newOffsets;
+    targets = newTargets;
+    added.clear();
+    removed.clear();
+    pending = 0;
+    logger.debug("Merged friend graph: {} users, {} friendships in {} ms", userBound, edgeCount,
+        (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /**
+   * Rebuild the arrays with the pairs buffered by load() added.
+   */
+  private void build() {
+    long total = targets.length + 2L * loadedCount;
+    if (total > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("Friend graph too large for CSR: " + total / 2 + " friendships");
+    }
+    long start = System.nanoTime();
+    int users = userBound;
+    // count each row's length, then turn the counts into offsets
+    int[] newOffsets = new int[users + 1];
+    for (int user = 0; user < users; user++) {
+      newOffsets[user + 1] = rowEnd(user) - rowStart(user);
+    }
+    for (int i = 0; i < loadedCount; i++) {
+      newOffsets[loaded[2 * i] + 1]++;
+      newOffsets[loaded[2 * i + 1] + 1]++;
+    }
+    for (int user = 0; user < users; user++) {
+      newOffsets[user + 1] += newOffsets[user];
+    }
+    int[] newTargets = new int[(int) total];
+    int[] next = Arrays.copyOf(newOffsets, users);
+    for (int user = 0; user < users; user++) {
+      int from = rowStart(user);
+      int length = rowEnd(user) - from;
+      System.arraycopy(targets, from, newTargets, next[user], length);
+      next[user] += length;
+    }
+    for (int i = 0; i < loadedCount; i++) {
+      int a = loaded[2 * i];
+      int b = loaded[2 * i + 1];
+      newTargets[next[a]++] = b;
+      newTargets[next[b]++] = a;
+    }
+    loaded = EMPTY;
+    loadedCount = 0;
+    // sort each row and drop duplicates, moving rows left over the gaps
+    int at = 0;
+    for (int user = 0; user < users; user++) {
+      int from = newOffsets[user];
+      int to = newOffsets[user + 1];
+      Arrays.sort(newTargets, from, to);
+      newOffsets[user] = at;
+      for (int i = from; i < to; i++) {
+        if (at == newOffsets[user] || newTargets[at - 1] != newTargets[i]) {
+          newTargets[at++] = newTargets[i];
+        }
+      }
+    }
+    newOffsets[users] = at;
+    offsets = newOffsets;
+    targets = at == newTargets.length ? newTargets : Arrays.copyOf(newTargets, at);
+    edgeCount = at / 2;
+    logger.debug("Built friend graph: {} users, {} friendships in {} ms", users, edgeCount,
+        (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /**
+   * Write targets[from, to) without {@code minus} and with {@code plus}
+   * (all sorted) to {@code out} at {@code at}; returns the end.
+   */
+  private int mergeRow(int from, int to, int[] plus, int[] minus, int[] out, int at) {
+    int p = 0;
+    int m = 0;
+    for (int i = from; i < to; i++) {
+      int friend = targets[i];
+      while (m < minus.length && minus[m] < friend) {
+        m++;
+      }
+      if (m < minus.length && minus[m] == friend) {
+        continue;
+      }
+      while (p < plus.length && plus[p] < friend) {
+        out[at++] = plus[p++];
+      }
+      out[at++] = friend;
+    }
+    while (p < plus.length) {
+      out[at++] = plus[p++];
+    }
+    return at;
+  }
+
+  private int rowStart(int user) {
+    return user + 1 < offsets.length ? offsets[user] : 0;
+  }
+
+  private int rowEnd(int user) {
+    return user + 1 < offsets.length ? offsets[user + 1] : 0;
+  }
+
+  private boolean inArrays(int a, int b) {
+    // search the shorter row
+    int user = rowEnd(a) - rowStart(a) <= rowEnd(b) - rowStart(b) ? a : b;
+    int friend = user == a ? b : a;
+    int from = rowStart(user);
+    int to = rowEnd(user);
+    return from < to && Arrays.binarySearch(targets, from, to, friend) >= 0;
+  }
+
+  private static boolean marked(Map<Integer, int[]> overlay, int user, int friend) {
+    int[] row = overlay.get(user);
+    return row != null && Arrays.binarySearch(row, friend) >= 0;
+  }
+
+  private static void mark(Map<Integer, int[]> overlay, int user, int friend) {
+    int[] row = overlay.getOrDefault(user, EMPTY);
+    int at = -Arrays.binarySearch(row, friend) - 1;
+    int[] longer = new int[row.length + 1];
+    System.arraycopy(row, 0, longer, 0, at);
+    longer[at] = friend;
+    System.arraycopy(row, at, longer, at + 1, row.length - at);
+    overlay.put(user, longer);
+  }
+
+  private static void unmark(Map<Integer, int[]> overlay, int user, int friend) {
+    int[] row = overlay.get(user);
+    if (row.length == 1) {
+      overlay.remove(user);
+      return;
+    }
+    int at = Arrays.binarySearch(row, friend);
+    int[] shorter = new int[row.length - 1];
+    System.arraycopy(row, 0, shorter, 0, at);
+    System.arraycopy(row, at + 1, shorter, at, row.length - at - 1);
+    overlay.put(user, shorter);
+  }
+}
@@ -0,0 +1,65 @@
+package com.chatapp.services;
+
+/**
+ * The undirected friend graph of {@link FriendService}, over user ids from
+ * the {@link UsernameDictionary}. Self-edges are the caller's to reject.
+ *
+ * Not thread-safe: FriendService guards it with its read-write lock.
+ */
+interface FriendGraph {
+
+  /**
+   * Visits an edge as an ordered pair of ids.
+   */
+  @FunctionalInterface
+  interface EdgeConsumer {
+    void accept(int user, int friend);
+  }
+
+  /**
+   * The graph selected by {@code chatapp.friends.graph}: "adjacency" (the
+   * default) or "csr".
+   */
+  static FriendGraph create(String type, int mergeThreshold) {
+    return switch (type) {
+      case "adjacency" -> new AdjacencyFriendGraph();
+      case "csr" -> new CsrFriendGraph(mergeThreshold);
+      default -> throw new IllegalArgumentException("Unknown chatapp.friends.graph: " + type);
+    };
+  }
+
+  /**
+   * @return false if the edge already existed
+   */
+  boolean add(int a, int b);
+
+  /**
+   * Add an edge read from a snapshot. Duplicates are allowed; the edge may
+   * only be visible, and counted, after {@link #compact}.
+   */
+  void load(int a, int b);
+
+  /**
+   * @return false if there was no such edge
+   */
+  boolean remove(int a, int b);
+
+  boolean contains(int a, int b);
+
+  /**
+   * A copy of the ids of a user's friends, in ascending order.
+   */
+  int[] friendsOf(int user);
+
+  long edgeCount();
+
+  /**
+   * Visit every edge once, as (user, friend) with user < friend.
+   */
+  void forEachEdge(EdgeConsumer consumer);
+
+  /**
+   * Fold loaded edges and pending changes into the main structure.
+   */
+  void compact();
+}
@@ -1,63 +1,218 @@
 package com.chatapp.services;
 
 import com.chatapp.models.Friend;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.chatapp.storage.SnapshotJournal;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Manages friendships between users and stores them in friends.json.
+ *
+ * Users are ids from the {@link UsernameDictionary}, and the graph is a
+ * {@link FriendGraph} of ids: by default an adjacency index from each id to
+ * the sorted int array of their friends' ids (see {@link AdjacencyFriendGraph}),
+ * or with {@code chatapp.friends.graph=csr} the more compact
+ * {@link CsrFriendGraph} for very large graphs. Either way listing a user's
+ * friends costs O(degree) and checking a friendship a binary search, with
+ * no per-edge objects. Names are resolved only at the API, and
+ * {@link Friend} objects only exist while saving. The graph is changed
+ * under the write half of a read-write lock; lookups share the read half.
+ * (A ReentrantReadWriteLock rather than a monitor: changes are journaled to
+ * disk under it, which would pin a virtual thread's carrier.)
+ *
+ * Changes are appended to a journal rather than rewriting friends.json each
+ * time; the journal is folded back into friends.json in the background (see
+ * {@link SnapshotJournal}).
+ *
+ * friends.json is streamed into the graph in the background by the
+ * {@link StartupLoader}; requests that arrive earlier wait for it.
+ *
+ * Mutual friends are the intersection of two sorted friend arrays.
+ * Suggestions are friends of friends ranked by mutual friends: they are
+ * counted in an int array indexed by user id, reused across requests, and
+ * the best are kept in a bounded heap. They are cached per user; a
+ * change to a friendship evicts both users and their friends, whose
+ * friends of friends it changes.
  */
 @Service
 public class FriendService {
 
   private static final Logger logger = LoggerFactory.getLogger(FriendService.class);
 
-  private static final Path FRIENDS_FILE = Paths.get("friends.json");
+  private final Path friendsFile;
 
-  private final ObjectMapper objectMapper;
+  private final UsernameDictionary usernames;
+  private final StartupLoader startupLoader;
+  private final SnapshotJournal<FriendChange> journal;
+  private final Duration compactInterval;
+  private volatile StartupLoader.Load loaded;
 
-  private final Set<Friend> friendships = new HashSet<>();
+  private final FriendGraph graph; // guarded by lock
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Timer readLockWaits;
+  private final Timer writeLockWaits;
 
-  public FriendService(ObjectMapper objectMapper) {
-    this.objectMapper = objectMapper;
+  // top suggestions per user id, least recently used first; filled under
+  // the read lock and evicted under the write lock, so never stale
+  private final Map<Integer, List<Suggestion>> suggestionCache;
+  private final ReentrantLock suggestionCacheLock = new ReentrantLock();
+  private final int maxSuggestions;
+  private final Counter suggestionHits;
+  private final Counter suggestionMisses;
+  // zeroed per-id count arrays for suggest(), one per concurrent caller
+  private final Queue<int[]> suggestionCounts = new ConcurrentLinkedQueue<>();
+
+  /**
+   * A journaled change to the friend graph. Adding or removing an edge is
+   * idempotent, so replaying a change twice is harmless.
+   */
+  public record FriendChange(boolean added, String user1, String user2) {
+  }
+
+  /**
+   * A suggested friend and how many friends they share with the user.
+   */
+  public record Suggestion(String username, int mutualFriends) {
   }
 
+  public FriendService(ObjectMapper objectMapper, MeterRegistry meterRegistry, UsernameDictionary usernames,
+      StartupLoader startupLoader,
+      @Value("${chatapp.friends.file:friends.json}") String friendsFilePath,
+      @Value("${chatapp.friends.graph:adjacency}") String graphType,
+      @Value("${chatapp.friends.csr.merge-threshold:65536}") int mergeThreshold,
+      @Value("${chatapp.friends.suggestions.max:50}") int maxSuggestions,
+      @Value("${chatapp.friends.suggestions.cache-size:10000}") int suggestionCacheSize,
+      @Value("${chatapp.persistence.compact-threshold:1000}") int compactThreshold,
+      @Value("${chatapp.persistence.compact-interval:30s}") Duration compactInterval) {
+    this.usernames = usernames;
+    this.startupLoader = startupLoader;
+    this.readLockWaits = LockWaits.timer(meterRegistry, "friends-read");
+    this.writeLockWaits = LockWaits.timer(meterRegistry, "friends-write");
+    this.friendsFile = Paths.get(friendsFilePath);
+    this.graph = FriendGraph.create(graphType, mergeThreshold);
+    this.journal = new SnapshotJournal<>(friendsFile, objectMapper, FriendChange.class, compactThreshold);
+    this.compactInterval = compactInterval;
+    this.maxSuggestions = maxSuggestions;
+    this.suggestionCache = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, List<Suggestion>> eldest) {
+        return size() > suggestionCacheSize;
+      }
+    };
+    this.suggestionHits = Counter.builder("chatapp.friends.suggestions")
+        .description("Friend suggestion requests, by whether the cache answered them")
+        .tag("result", "hit")
+        .register(meterRegistry);
+    this.suggestionMisses = Counter.builder("chatapp.friends.suggestions")
+        .description("Friend suggestion requests, by whether the cache answered them")
+        .tag("result", "miss")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Start loading friends.json and the journal in the background.
+   */
   @PostConstruct
+  void init() {
+    loaded = startupLoader.start("friends", load -> {
+      LockWaits.lock(lock.writeLock(), writeLockWaits);
+      try {
+        load.phase("snapshot", this::loadFromFile);
+        load.phase("index", graph::compact);
+        load.phase("journal", this::replayJournal);
+        graph.compact();
+      } finally {
+        lock.writeLock().unlock();
+      }
+      journal.startCompaction(compactInterval, this::snapshot);
+    });
+  }
+
+  /**
+   * Wait until the friend graph is loaded.
+   */
+  void awaitLoaded() {
+    StartupLoader.Load load = loaded;
+    if (load != null) {
+      load.await();
+    }
+  }
+
+  private void replayJournal() {
+    try {
+      journal.replay(change -> {
+        int a = usernames.idOf(change.user1());
+        int b = usernames.idOf(change.user2());
+        if (a == UsernameDictionary.NONE || b == UsernameDictionary.NONE || a == b) {
+          return;
+        }
+        if (change.added()) {
+          graph.add(a, b);
+        } else {
+          graph.remove(a, b);
+        }
+      });
+    } catch (IOException e) {
+      logger.error("Failed to replay friends journal: {}", e.getMessage());
+    }
+  }
+
+  @PreDestroy
+  void close() {
+    // a snapshot taken halfway through loading would lose friendships
+    awaitLoaded();
+    try {
+      journal.close(this::snapshot);
+    } catch (IOException e) {
+      logger.error("Failed to close friends journal: {}", e.getMessage());
+    }
+  }
+
   private void loadFromFile() {
-    if (!Files.exists(FRIENDS_FILE)) {
+    if (!Files.exists(friendsFile)) {
       logger.info("friends.json not found, starting with empty friend list");
       return;
     }
 
     try {
-      byte[] bytes = Files.readAllBytes(FRIENDS_FILE);
-      if (bytes.length == 0) {
+      long read = journal.readSnapshot(Friend.class, f -> {
+        int a = usernames.idOf(f.getUser1());
+        int b = usernames.idOf(f.getUser2());
+        if (a != UsernameDictionary.NONE && b != UsernameDictionary.NONE && a != b) {
+          graph.load(a, b);
+        }
+      });
+      if (read == 0) {
         logger.info("friends.json is empty, starting with empty friend list");
         return;
       }
-
-      List<Friend> loaded = objectMapper.readValue(
-          bytes,
-          new TypeReference<List<Friend>>() {
-          });
-      if (loaded != null) {
-        friendships.clear();
-        friendships.addAll(loaded);
-        logger.info("Loaded {} friendships from friends.json", friendships.size());
-      }
+      logger.info("Read {} friendships from friends.json", read);
     } catch (IOException e) {
       logger.error("Failed to read friends.json: {}", e.getMessage());
     }
@@ -69,57 +224,63 @@ public class FriendService {
    * @return true if a new friendship was created, false if it already existed
    *         or input invalid.
    */
-  public synchronized boolean addFriendship(String userA, String userB) {
-    if (userA == null || userB == null) {
-      return false;
-    }
-    String a = userA.trim().toLowerCase();
-    String b = userB.trim().toLowerCase();
-
-    if (a.isEmpty() || b.isEmpty() || a.equals(b)) {
+  public boolean addFriendship(String userA, String userB) {
+    awaitLoaded();
+    int a = usernames.idOf(userA);
+    int b = usernames.idOf(userB);
+    if (a == UsernameDictionary.NONE || b == UsernameDictionary.NONE || a == b) {
       return false;
     }
 
-    Friend friendship = new Friend(a, b);
-    boolean added = friendships.add(friendship);
-    if (added) {
-      saveToFile();
-      logger.info("Created friendship between {} and {}", a, b);
+    LockWaits.lock(lock.writeLock(), writeLockWaits);
+    try {
+      boolean added = graph.add(a, b);
+      if (added) {
+        evictSuggestions(a, b);
+        record(change(true, a, b));
+        logger.info("Created friendship between {} and {}", usernames.nameOf(a), usernames.nameOf(b));
+      }
+      return added;
+    } finally {
+      lock.writeLock().unlock();
     }
-    return added;
   }
 
   /**
-   * Get list of friends for a given user.
+   * Get list of friends for a given user, sorted by name.
    */
-  public synchronized List<String> getFriends(String username) {
-    List<String> result = new ArrayList<>();
-    if (username == null) {
-      return result;
-    }
-    String u = username.trim().toLowerCase();
-
-    for (Friend f : friendships) {
-      if (f.involves(u)) {
-        String other = f.getOther(u);
-        if (other != null && !result.contains(other)) {
-          result.add(other);
-        }
-      }
+  public List<String> getFriends(String username) {
+    awaitLoaded();
+    int user = usernames.find(username);
+    if (user == UsernameDictionary.NONE) {
+      return new ArrayList<>();
+    }
+    int[] ids;
+    LockWaits.lock(lock.readLock(), readLockWaits);
+    try {
+      ids = graph.friendsOf(user);
+    } finally {
+      lock.readLock().unlock();
     }
-    result.sort(String::compareTo);
-    return result;
+    return names(ids);
   }
 
   /**
    * Check whether two users are already friends.
    */
-  public synchronized boolean areFriends(String userA, String userB) {
-    if (userA == null || userB == null) {
+  public boolean areFriends(String userA, String userB) {
+    awaitLoaded();
+    int a = usernames.find(userA);
+    int b = usernames.find(userB);
+    if (a == UsernameDictionary.NONE || b == UsernameDictionary.NONE) {
       return false;
     }
-    Friend friendship = new Friend(userA, userB);
-    return friendships.contains(friendship);
+    LockWaits.lock(lock.readLock(), readLockWaits);
+    try {
+      return graph.contains(a, b);
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   /**
@@ -128,24 +289,79 @@ public class FriendService {
    * @return true if the friendship was removed, false if it didn't exist or input
    *         invalid.
    */
-  public synchronized boolean removeFriendship(String userA, String userB) {
-    if (userA == null || userB == null) {
+  public boolean removeFriendship(String userA, String userB) {
+    awaitLoaded();
+    int a = usernames.find(userA);
+    int b = usernames.find(userB);
+    if (a == UsernameDictionary.NONE || b == UsernameDictionary.NONE || a == b) {
       return false;
     }
-    String a = userA.trim().toLowerCase();
-    String b = userB.trim().toLowerCase();
 
-    if (a.isEmpty() || b.isEmpty() || a.equals(b)) {
-      return false;
+    LockWaits.lock(lock.writeLock(), writeLockWaits);
+    try {
+      boolean removed = graph.remove(a, b);
+      if (removed) {
+        evictSuggestions(a, b);
+        record(change(false, a, b));
+        logger.info("Removed friendship between {} and {}", usernames.nameOf(a), usernames.nameOf(b));
+      }
+      return removed;
+    } finally {
+      lock.writeLock().unlock();
     }
+  }
 
-    Friend friendship = new Friend(a, b);
-    boolean removed = friendships.remove(friendship);
-    if (removed) {
-      saveToFile();
-      logger.info("Removed friendship between {} and {}", a, b);
+  /**
+   * Friends two users have in common, sorted by name.
+   */
+  public List<String> getMutualFriends(String userA, String userB) {
+    awaitLoaded();
+    int a = usernames.find(userA);
+    int b = usernames.find(userB);
+    if (a == UsernameDictionary.NONE || b == UsernameDictionary.NONE || a == b) {
+      return new ArrayList<>();
+    }
+    int[] mutual;
+    LockWaits.lock(lock.readLock(), readLockWaits);
+    try {
+      mutual = intersect(graph.friendsOf(a), graph.friendsOf(b));
+    } finally {
+      lock.readLock().unlock();
+    }
+    return names(mutual);
+  }
+
+  /**
+   * Up to {@code limit} (at most chatapp.friends.suggestions.max) users who
+   * are friends of the user's friends but not their friends, most mutual
+   * friends first, then by name.
+   */
+  public List<Suggestion> getSuggestions(String username, int limit) {
+    awaitLoaded();
+    int user = usernames.find(username);
+    int count = Math.min(limit, maxSuggestions);
+    if (user == UsernameDictionary.NONE || count <= 0) {
+      return new ArrayList<>();
+    }
+    LockWaits.lock(lock.readLock(), readLockWaits);
+    try {
+      List<Suggestion> suggestions = cachedSuggestions(user);
+      if (suggestions != null) {
+        suggestionHits.increment();
+      } else {
+        suggestionMisses.increment();
+        suggestions = suggest(user);
+        suggestionCacheLock.lock();
+        try {
+          suggestionCache.put(user, suggestions);
+        } finally {
+          suggestionCacheLock.unlock();
+        }
+      }
+      return new ArrayList<>(suggestions.subList(0, Math.min(count, suggestions.size())));
+    } finally {
+      lock.readLock().unlock();
     }
-    return removed;
   }
 
   /**
@@ -164,13 +380,160 @@ public class FriendService {
     }
   }
 
-  private void saveToFile() {
+  // the top maxSuggestions for a user; needs the read lock
+  private List<Suggestion> suggest(int user) {
+    int[] friends = graph.friendsOf(user);
+    int[] counts = takeCounts();
+    // count every friend of a friend; touched lists each id counted once,
+    // so only those slots are read and cleared again
+    int[] touched = new int[64];
+    int touchedCount = 0;
+    for (int friend : friends) {
+      for (int candidate : graph.friendsOf(friend)) {
+        if (counts[candidate]++ == 0) {
+          if (touchedCount == touched.length) {
+            touched = Arrays.copyOf(touched, touchedCount * 2);
+          }
+          touched[touchedCount++] = candidate;
+        }
+      }
+    }
+
+    Comparator<Suggestion> worstFirst = Comparator.comparingInt(Suggestion::mutualFriends)
+        .thenComparing(Suggestion::username, Comparator.reverseOrder());
+    PriorityQueue<Suggestion> best = new PriorityQueue<>(worstFirst);
+    for (int i = 0; i < touchedCount; i++) {
+      int candidate = touched[i];
+      int mutual = counts[candidate];
+      counts[candidate] = 0;
+      if (candidate == user || Arrays.binarySearch(friends, candidate) >= 0) {
+        continue;
+      }
+      String name = usernames.nameOf(candidate);
+      if (best.size() == maxSuggestions && (best.peek().mutualFriends() > mutual
+          || best.peek().mutualFriends() == mutual && best.peek().username().compareTo(name) < 0)) {
+        continue;
+      }
+      best.offer(new Suggestion(name, mutual));
+      if (best.size() > maxSuggestions) {
+        best.poll();
+      }
+    }
+    // every touched slot is zero again; a failure above drops the array
+    suggestionCounts.offer(counts);
+    List<Suggestion> suggestions = new ArrayList<>(best);
+    suggestions.sort(worstFirst.reversed());
+    return suggestions;
+  }
+
+  // an all-zero array with a slot for every user id handed out so far
+  private int[] takeCounts() {
+    int[] counts = suggestionCounts.poll();
+    int users = usernames.size();
+    return counts != null && counts.length >= users ? counts : new int[users + users / 4];
+  }
+
+  private List<Suggestion> cachedSuggestions(int user) {
+    suggestionCacheLock.lock();
     try {
-      byte[] json = objectMapper.writerWithDefaultPrettyPrinter()
-          .writeValueAsBytes(new ArrayList<>(friendships));
-      Files.write(FRIENDS_FILE, json);
+      return suggestionCache.get(user);
+    } finally {
+      suggestionCacheLock.unlock();
+    }
+  }
+
+  // after a change to a-b, under the write lock: the friends of friends of
+  // a, b and everyone who now is or was a friend of either
+  private void evictSuggestions(int a, int b) {
+    suggestionCacheLock.lock();
+    try {
+      if (suggestionCache.isEmpty()) {
+        return;
+      }
+      suggestionCache.remove(a);
+      suggestionCache.remove(b);
+      for (int friend : graph.friendsOf(a)) {
+        suggestionCache.remove(friend);
+      }
+      for (int friend : graph.friendsOf(b)) {
+        suggestionCache.remove(friend);
+      }
+    } finally {
+      suggestionCacheLock.unlock();
+    }
+  }
+
+  /**
+   * Ids in both sorted arrays. Walks both when they are of similar size;
+   * otherwise binary searches the longer one for each id of the shorter.
+   */
+  static int[] intersect(int[] a, int[] b) {
+    int[] shorter = a.length <= b.length ? a : b;
+    int[] longer = shorter == a ? b : a;
+    int[] common = new int[shorter.length];
+    int count = 0;
+    if (longer.length / 16 > shorter.length) {
+      int from = 0;
+      for (int id : shorter) {
+        int at = Arrays.binarySearch(longer, from, longer.length, id);
+        if (at >= 0) {
+          common[count++] = id;
+          from = at + 1;
+        } else {
+          from = -at - 1;
+        }
+      }
+    } else {
+      for (int i = 0, j = 0; i < shorter.length && j < longer.length;) {
+        if (shorter[i] < longer[j]) {
+          i++;
+        } else if (shorter[i] > longer[j]) {
+          j++;
+        } else {
+          common[count++] = shorter[i];
+          i++;
+          j++;
+        }
+      }
+    }
+    return Arrays.copyOf(common, count);
+  }
+
+  private List<String> names(int[] ids) {
+    List<String> names = new ArrayList<>(ids.length);
+    for (int id : ids) {
+      names.add(usernames.nameOf(id));
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  // a journal record with the names in the same order as in a Friend
+  private FriendChange change(boolean added, int a, int b) {
+    Friend friendship = new Friend(usernames.nameOf(a), usernames.nameOf(b));
+    return new FriendChange(added, friendship.getUser1(), friendship.getUser2());
+  }
+
+  private void record(FriendChange change) {
+    try {
+      journal.append(change);
     } catch (IOException e) {
-      logger.error("Failed to write friends.json: {}", e.getMessage());
+      logger.error("Failed to journal friendship change: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Copy of all friendships, written to friends.json on compaction.
+   */
+  private List<Friend> snapshot() {
+    LockWaits.lock(lock.readLock(), readLockWaits);
+    try {
+      List<Friend> friendships = new ArrayList<>((int) Math.min(graph.edgeCount(), Integer.MAX_VALUE - 8));
+      graph.forEachEdge((user, friend) ->
+          friendships.add(new Friend(usernames.nameOf(user), usernames.nameOf(friend))));
+      return friendships;
+    } finally {
+      lock.readLock().unlock();
     }
   }
 }
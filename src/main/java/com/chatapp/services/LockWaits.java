@@ -0,0 +1,38 @@
+package com.chatapp.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Takes service locks and records how long callers waited for them.
+ *
+ * Only contended acquisitions are timed: an uncontended one costs a single
+ * tryLock and is not recorded, so a timer's count is the number of times
+ * somebody had to wait and its total is the time lost to waiting.
+ */
+final class LockWaits {
+
+  static final String METRIC = "chatapp.lock.wait";
+
+  private LockWaits() {
+  }
+
+  static Timer timer(MeterRegistry registry, String lock) {
+    return Timer.builder(METRIC)
+        .description("Time spent waiting for a contended service lock")
+        .tag("lock", lock)
+        .register(registry);
+  }
+
+  static void lock(Lock lock, Timer waits) {
+    if (lock.tryLock()) {
+      return;
+    }
+    long start = System.nanoTime();
+    lock.lock();
+    waits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+}
@@ -1,106 +1,829 @@
 package com.chatapp.services;
 
 import com.chatapp.models.Message;
+import com.chatapp.storage.ChatroomLog;
+import com.chatapp.storage.LogOptions;
+import com.chatapp.storage.MessageRecordReader;
+import com.chatapp.storage.MessageRecordWriter;
+import com.chatapp.storage.RetentionPolicy;
+import com.chatapp.storage.RoomKeys;
+import com.chatapp.storage.UserDictionary;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Persists chat messages to JSON files, one file per chatroomId.
- * Example filenames:
- * - messages_public.json
- * - messages_alice_bob.json
+ * Persists chat messages in an append-only, segmented log per chatroomId.
+ * Each message is one compact binary record, so appending costs the same no
+ * matter how long the history is. Example layout:
+ * - messages/public/00000000000000000000.log
+ * - messages/public/users.dict
+ * - messages/alice_5fbob/00000000000000000000.log (the room alice_bob)
+ *
+ * Directory names are {@link #roomKey room keys}, a reversible escape of
+ * the chatroomId, so no two rooms ever share a log.
+ *
+ * The newest messages of recently read rooms are kept in a
+ * {@link RecentMessageCache}, so most history requests never hit the disk.
+ * Sender names of accounts are the canonical instances from the
+ * {@link UsernameDictionary}, so cached messages and the rooms' user
+ * dictionaries share one String per user. Senders are only looked up
+ * there, never added, as they come from clients.
+ *
+ * Chatrooms do not contend with each other: each {@link Chatroom} is its own
+ * lock for ordering senders, and readers never lock the log at all because
+ * logs only ever expose complete records.
+ *
+ * Writes are asynchronous. {@link #stage} gives a message its id and makes
+ * it visible to history reads straight away; {@link #persist} then hands it
+ * to the {@link MessageWritePipeline}, whose writer thread group-commits it
+ * to disk. Callers that broadcast a message do so between the two calls, so
+ * storage latency never sits on the delivery path.
+ *
+ * Every room has a {@link com.chatapp.storage.SearchIndex} that the writer
+ * updates as messages are written; dirty indexes are saved next to their
+ * logs every {@code chatapp.messages.search.save-interval} and on shutdown.
+ *
+ * Retention (max age, count and bytes, per room or the default from
+ * {@code chatapp.messages.retention.*}) is enforced every
+ * {@code chatapp.messages.retention.check-interval} by dropping whole
+ * segments, which never blocks appends or reads. Single messages are
+ * deleted with a tombstone and skipped by every read.
+ *
+ * Older messages_<chatroomId>.json files are migrated into the log once at
+ * startup and renamed to messages_<chatroomId>.json.migrated. Directories
+ * named by the earlier, lossy key scheme are renamed to their room key.
  */
 @Service
 public class MessageLogService {
 
   private static final Logger logger = LoggerFactory.getLogger(MessageLogService.class);
 
+  private static final String PUBLIC_ROOM = "public";
+  private static final String LEGACY_PREFIX = "messages_";
+  private static final String LEGACY_SUFFIX = ".json";
+  private static final String MIGRATION_PREFIX = ".migrating-";
+
   private final ObjectMapper objectMapper;
+  private final UsernameDictionary usernames;
+  private final Path baseDir;
+  private final Path legacyDir;
+  private final LogOptions options;
+  private final RecentMessageCache cache;
+  private final MessageWritePipeline pipeline;
+  private final Duration searchSaveInterval;
+  private ScheduledExecutorService maintenance;
+
+  private final Map<String, Chatroom> rooms = new ConcurrentHashMap<>();
+
+  private final Timer stageTimer;
+  private final Timer persistTimer;
+  private final Timer recentFromCache;
+  private final Timer recentFromDisk;
+  private final Timer diskReadTimer;
+  private final Timer parseTimer;
+  private final Timer chatroomLockWaits;
+  private final Timer searchTimer;
+  private final Counter deletedMessages;
+  private final Counter retentionRemoved;
 
-  public MessageLogService(ObjectMapper objectMapper) {
+  @Autowired
+  public MessageLogService(ObjectMapper objectMapper, MeterRegistry meterRegistry, UsernameDictionary usernames,
+      @Value("${chatapp.messages.dir:messages}") String baseDir,
+      @Value("${chatapp.messages.legacy-dir:.}") String legacyDir,
+      @Value("${chatapp.messages.segment-max-bytes:8388608}") long segmentMaxBytes,
+      @Value("${chatapp.messages.segment-max-age:1d}") Duration segmentMaxAge,
+      @Value("${chatapp.messages.retention.max-age:0s}") Duration retentionMaxAge,
+      @Value("${chatapp.messages.retention.max-count:0}") long retentionMaxCount,
+      @Value("${chatapp.messages.retention.max-bytes:0}") long retentionMaxBytes,
+      @Value("${chatapp.messages.retention.check-interval:1m}") Duration retentionCheckInterval,
+      @Value("${chatapp.messages.search.save-interval:1m}") Duration searchSaveInterval,
+      RecentMessageCache cache,
+      MessageWritePipeline pipeline) {
+    this(objectMapper, meterRegistry, usernames, Paths.get(baseDir), Paths.get(legacyDir),
+        new LogOptions(segmentMaxBytes, segmentMaxAge,
+            RetentionPolicy.of(retentionMaxAge, retentionMaxCount, retentionMaxBytes), retentionCheckInterval),
+        searchSaveInterval, cache, pipeline);
+  }
+
+  public MessageLogService(ObjectMapper objectMapper, MeterRegistry meterRegistry, UsernameDictionary usernames,
+      Path baseDir, Path legacyDir, LogOptions options, Duration searchSaveInterval, RecentMessageCache cache,
+      MessageWritePipeline pipeline) {
     this.objectMapper = objectMapper;
+    this.usernames = usernames;
+    this.baseDir = baseDir;
+    this.legacyDir = legacyDir;
+    this.options = options;
+    this.cache = cache;
+    this.pipeline = pipeline;
+    this.searchSaveInterval = searchSaveInterval;
+    this.stageTimer = Timer.builder("chatapp.messages.stage")
+        .description("Giving a message its id and making it visible to history reads")
+        .register(meterRegistry);
+    this.persistTimer = Timer.builder("chatapp.messages.persist")
+        .description("Handing a staged message to the write pipeline, including backpressure waits")
+        .register(meterRegistry);
+    this.recentFromCache = recentTimer(meterRegistry, "cache");
+    this.recentFromDisk = recentTimer(meterRegistry, "disk");
+    this.diskReadTimer = Timer.builder("chatapp.messages.disk.read")
+        .description("Reading records from a chatroom log, without decoding them")
+        .register(meterRegistry);
+    this.parseTimer = Timer.builder("chatapp.messages.parse")
+        .description("Decoding the records returned by one log read")
+        .register(meterRegistry);
+    this.chatroomLockWaits = LockWaits.timer(meterRegistry, "chatroom");
+    this.searchTimer = Timer.builder("chatapp.messages.search")
+        .description("Full-text searches of a chatroom, including loading the matching messages")
+        .register(meterRegistry);
+    this.deletedMessages = Counter.builder("chatapp.messages.deleted")
+        .description("Single messages deleted")
+        .register(meterRegistry);
+    this.retentionRemoved = Counter.builder("chatapp.messages.retention.removed")
+        .description("Messages removed by retention")
+        .register(meterRegistry);
+    Gauge.builder("chatapp.messages.rooms", rooms, Map::size)
+        .description("Chatroom logs open")
+        .register(meterRegistry);
+    Gauge.builder("chatapp.messages.cache.bytes", cache, RecentMessageCache::usedBytes)
+        .description("Estimated heap used by cached recent messages")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  private static Timer recentTimer(MeterRegistry meterRegistry, String source) {
+    return Timer.builder("chatapp.messages.recent")
+        .description("loadRecent calls, by where the messages came from")
+        .tag("source", source)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Open every existing chatroom log (recovering torn tails), then migrate
+   * any legacy JSON files that are still around.
+   */
+  @PostConstruct
+  public void init() throws IOException {
+    Files.createDirectories(baseDir);
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(baseDir, Files::isDirectory)) {
+      for (Path dir : dirs) {
+        String roomKey = dir.getFileName().toString();
+        if (roomKey.startsWith(MIGRATION_PREFIX)) {
+          // leftover from an interrupted migration; it is redone below
+          deleteRecursively(dir);
+          continue;
+        }
+        if (chatroomId(roomKey) == null) {
+          dir = renameUnescapedRoom(dir);
+          if (dir == null) {
+            continue;
+          }
+          roomKey = dir.getFileName().toString();
+        }
+        rooms.put(roomKey,
+            Chatroom.open(roomKey, dir, options, objectMapper, usernames::canonical, chatroomLockWaits));
+      }
+    }
+    logger.info("Opened {} chatroom logs under {}", rooms.size(), baseDir);
+    migrateLegacyFiles();
+
+    maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "message-log-maintenance");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long millis = searchSaveInterval.toMillis();
+    maintenance.scheduleWithFixedDelay(this::saveSearchIndexes, millis, millis, TimeUnit.MILLISECONDS);
+    millis = options.getRetentionCheckInterval().toMillis();
+    maintenance.scheduleWithFixedDelay(this::applyRetention, millis, millis, TimeUnit.MILLISECONDS);
+    maintenance.scheduleWithFixedDelay(this::retryFailedWrites, Chatroom.FIRST_RETRY_BACKOFF_MILLIS,
+        Chatroom.FIRST_RETRY_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queue rooms whose last write failed again, so their pending messages
+   * are retried even if nobody sends to them; each room applies its own
+   * backoff.
+   */
+  private void retryFailedWrites() {
+    for (Chatroom room : rooms.values()) {
+      try {
+        if (room.hasFailedWrites()) {
+          pipeline.submit(room);
+        }
+      } catch (RuntimeException e) {
+        logger.error("Failed to retry writes to {}: {}", room.getKey(), e.getMessage());
+      }
+    }
+  }
+
+  private void saveSearchIndexes() {
+    for (Chatroom room : rooms.values()) {
+      try {
+        room.getSearchIndex().save();
+      } catch (IOException | RuntimeException e) {
+        logger.error("Failed to save search index of {}: {}", room.getKey(), e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Enforce every room's retention policy once. Rooms keep taking appends
+   * and reads meanwhile; readers of a dropped segment finish undisturbed.
+   */
+  void applyRetention() {
+    long now = System.currentTimeMillis();
+    for (Chatroom room : rooms.values()) {
+      RetentionPolicy policy = effectiveRetention(room);
+      if (policy.isUnlimited()) {
+        continue;
+      }
+      try {
+        long removed = room.applyRetention(policy, now);
+        if (removed > 0) {
+          cache.invalidate(room.getKey());
+          retentionRemoved.increment(removed);
+          logger.info("Retention removed {} messages from {}", removed, room.getKey());
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.error("Failed to apply retention to {}: {}", room.getKey(), e.getMessage());
+      }
+    }
+  }
+
+  private RetentionPolicy effectiveRetention(Chatroom room) {
+    RetentionPolicy own = room.getRetention();
+    return own != null ? own : options.getRetention();
+  }
+
+  /**
+   * Write out everything still queued, then close the logs.
+   */
+  @PreDestroy
+  public void close() {
+    if (maintenance != null) {
+      maintenance.shutdownNow();
+    }
+    pipeline.shutdown();
+    for (Chatroom room : rooms.values()) {
+      room.writePending(pipeline.getDurability());
+      try {
+        room.close();
+      } catch (IOException e) {
+        logger.error("Failed to close message log {}: {}", room.getLog().getDirectory(), e.getMessage());
+      }
+    }
+    rooms.clear();
+  }
+
+  /**
+   * Persist a message: {@link #stage} followed by {@link #persist}.
+   */
+  public void append(Message message) {
+    stage(message);
+    persist(message);
   }
 
-  private Path getFileForChatroom(String chatroomId) {
-    String id = (chatroomId == null || chatroomId.isBlank()) ? "public" : chatroomId;
-    return Paths.get("messages_" + id + ".json");
+  /**
+   * Accept a message for its chatroom: set its id (its future offset in the
+   * log) and make it visible to history reads. Nothing is written yet.
+   */
+  public void stage(Message message) {
+    long start = System.nanoTime();
+    message.setUser(usernames.canonical(message.getUser()));
+    String roomKey = roomKey(message.getChatroomId());
+    try {
+      while (true) {
+        Chatroom room = openRoom(roomKey);
+        // the room's lock keeps ids and cache updates in the same order
+        room.lock();
+        try {
+          if (room.stage(message)) {
+            cache.onAppend(roomKey, message);
+            stageTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return;
+          }
+        } finally {
+          room.unlock();
+        }
+        // history was cleared concurrently; retry on the new room
+      }
+    } catch (IOException e) {
+      logger.error("Failed to open message log {}: {}", roomKey, e.getMessage());
+    }
+  }
+
+  /**
+   * Store a message whose id was given by another node, the chatroom's
+   * owner, so ids stay the same on every node. A message this room has
+   * already seen is ignored. If ids are missing before it, it is stored
+   * only when {@code fillGap} is set, e.g. while catching up, where those
+   * are messages the owner deleted or no longer has; they are then taken up
+   * by deleted placeholders.
+   *
+   * @return the id the room expects next: at most the message's id if it
+   *         was not stored because of a gap
+   */
+  public long replicate(Message message, boolean fillGap) {
+    message.setUser(usernames.canonical(message.getUser()));
+    String roomKey = roomKey(message.getChatroomId());
+    long id = message.getId();
+    try {
+      while (true) {
+        Chatroom room = openRoom(roomKey);
+        boolean stored = false;
+        room.lock();
+        try {
+          long next = room.getNextId();
+          if (id < next || id > next && !fillGap) {
+            return next;
+          }
+          boolean staged = true;
+          for (long gap = next; staged && gap < id; gap++) {
+            Message placeholder = new Message(null, null, null, message.getChatroomId());
+            staged = room.stage(placeholder) && room.deleteMessage(placeholder.getId());
+          }
+          if (staged && room.stage(message)) {
+            if (id > next) {
+              cache.invalidate(roomKey);
+            } else {
+              cache.onAppend(roomKey, message);
+            }
+            stored = true;
+          }
+        } finally {
+          room.unlock();
+        }
+        if (stored) {
+          pipeline.submit(room);
+          return id + 1;
+        }
+        // history was cleared concurrently; retry on the new room
+      }
+    } catch (IOException e) {
+      logger.error("Failed to store replicated message in {}: {}", roomKey, e.getMessage());
+      return id;
+    }
+  }
+
+  /**
+   * The id the next message of a chatroom gets, 0 for a room without
+   * messages.
+   */
+  public long nextId(String chatroomId) {
+    Chatroom room = rooms.get(roomKey(chatroomId));
+    return room == null ? 0 : room.getNextId();
+  }
+
+  /**
+   * Keys of the chatrooms that have a log on this node.
+   */
+  public Set<String> chatroomKeys() {
+    return Set.copyOf(rooms.keySet());
   }
 
   /**
-   * Append a message to the JSON log for its chatroom.
+   * Queue a staged message for writing. May block briefly if the write
+   * pipeline is saturated.
    */
-  public synchronized void append(Message message) {
-    String chatroomId = message.getChatroomId();
-    Path file = getFileForChatroom(chatroomId);
-    List<Message> messages = loadAllInternal(file);
-    messages.add(message);
-    saveAllInternal(file, messages);
+  public void persist(Message message) {
+    Chatroom room = rooms.get(roomKey(message.getChatroomId()));
+    if (room != null) {
+      long start = System.nanoTime();
+      pipeline.submit(room);
+      persistTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Load the most recent N messages for a chatroom. Served from the cache
+   * whenever it holds enough messages; otherwise the tail is read from disk
+   * without any lock and used to warm the cache.
+   */
+  public List<Message> loadRecent(String chatroomId, int limit) {
+    if (limit <= 0) {
+      return Collections.emptyList();
+    }
+    long begin = System.nanoTime();
+    String roomKey = roomKey(chatroomId);
+    List<Message> cached = cache.recent(roomKey, limit);
+    if (cached != null) {
+      recentFromCache.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+      return cached;
+    }
+    Chatroom room = rooms.get(roomKey);
+    if (room == null) {
+      return Collections.emptyList();
+    }
+    ChatroomLog log = room.getLog();
+    try {
+      int toRead = Math.max(limit, cache.getMessagesPerRoom());
+      long end = log.getNextOffset();
+      long start = pageStart(room, end, toRead);
+      List<Message> messages = new ArrayList<>(Math.min(toRead, 1024));
+      read(room, start, (int) (end - start), messages);
+
+      // Catch up on whatever was written or staged during the read while
+      // holding the room's lock, so the buffer cannot miss a message.
+      room.lock();
+      try {
+        if (!room.isDeleted()) {
+          long now = log.getNextOffset();
+          read(room, end, (int) (now - end), messages);
+          messages.addAll(room.inFlightFrom(now));
+          // drop what was deleted or removed by retention during the read
+          long first = log.getFirstOffset();
+          messages.removeIf(m -> m.getId() < first || room.isTombstoned(m.getId()));
+          cache.warm(roomKey, messages, start <= log.getFirstOffset());
+        }
+      } finally {
+        room.unlock();
+      }
+      int from = Math.max(0, messages.size() - limit);
+      recentFromDisk.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+      return new ArrayList<>(messages.subList(from, messages.size()));
+    } catch (IOException e) {
+      logger.error("Failed to read message log {}: {}", roomKey, e.getMessage());
+      return Collections.emptyList();
+    }
   }
 
   /**
-   * Load the most recent N messages for a chatroom.
+   * Load up to {@code limit} messages with an id lower than {@code beforeId},
+   * i.e. the page just older than the cursor, oldest first.
    */
-  public synchronized List<Message> loadRecent(String chatroomId, int limit) {
-    Path file = getFileForChatroom(chatroomId);
-    List<Message> all = loadAllInternal(file);
-    if (all.isEmpty() || limit <= 0) {
+  public List<Message> loadBefore(String chatroomId, long beforeId, int limit) {
+    Chatroom room = rooms.get(roomKey(chatroomId));
+    if (room == null || limit <= 0) {
       return Collections.emptyList();
     }
-    int fromIndex = Math.max(0, all.size() - limit);
-    return new ArrayList<>(all.subList(fromIndex, all.size()));
+    long from = pageStart(room, beforeId, limit);
+    return readPage(room, from, beforeId - from);
   }
 
   /**
-   * Delete all messages for a chatroom by removing its JSON file.
+   * Start of the id range ending at {@code end} that holds {@code count}
+   * messages that were not deleted, or the first offset if there are fewer.
    */
-  public synchronized void deleteHistory(String chatroomId) {
-    Path file = getFileForChatroom(chatroomId);
+  private static long pageStart(Chatroom room, long end, long count) {
+    long first = room.getLog().getFirstOffset();
+    long from = Math.max(first, end - count);
+    long widened;
+    while (from > first && (widened = Math.max(first, end - count - room.tombstonesBetween(from, end))) < from) {
+      from = widened;
+    }
+    return from;
+  }
+
+  /**
+   * Load up to {@code limit} messages with an id higher than {@code afterId},
+   * i.e. the page just newer than the cursor, oldest first. Includes
+   * messages that were accepted but are not written yet.
+   */
+  public List<Message> loadAfter(String chatroomId, long afterId, int limit) {
+    Chatroom room = rooms.get(roomKey(chatroomId));
+    if (room == null || limit <= 0) {
+      return Collections.emptyList();
+    }
+    ChatroomLog log = room.getLog();
+    long committed;
+    List<Message> pending;
+    // the writer only drops in-flight messages under the room's lock, so
+    // together these cover every id without a gap
+    room.lock();
+    try {
+      committed = log.getNextOffset();
+      pending = room.inFlightFrom(committed);
+    } finally {
+      room.unlock();
+    }
+    long from = Math.max(log.getFirstOffset(), afterId + 1);
+    long end = Math.min(committed, from + limit);
+    // widen the page by the deleted messages in it
+    long widened;
+    while (end < committed
+        && (widened = Math.min(committed, from + limit + room.tombstonesBetween(from, end))) > end) {
+      end = widened;
+    }
+    List<Message> messages = new ArrayList<>(readPage(room, from, end - from));
+    for (Message message : pending) {
+      if (messages.size() >= limit) {
+        break;
+      }
+      if (message.getId() >= from) {
+        messages.add(message);
+      }
+    }
+    return messages;
+  }
+
+  private List<Message> readPage(Chatroom room, long from, long count) {
+    if (count <= 0) {
+      return Collections.emptyList();
+    }
+    List<Message> messages = new ArrayList<>((int) Math.min(count, 1024));
     try {
-      Files.deleteIfExists(file);
-      logger.info("Deleted message history file {}", file);
+      read(room, from, (int) count, messages);
+      return messages;
     } catch (IOException e) {
-      logger.error("Failed to delete message log {}: {}", file, e.getMessage());
+      logger.error("Failed to read message log {}: {}", room.getKey(), e.getMessage());
+      return Collections.emptyList();
     }
   }
 
-  private List<Message> loadAllInternal(Path file) {
-    if (!Files.exists(file)) {
-      return new ArrayList<>();
+  /**
+   * Read and decode up to {@code count} records into {@code into}, skipping
+   * deleted messages and timing the disk and the decoding separately.
+   */
+  private void read(Chatroom room, long from, int count, List<Message> into) throws IOException {
+    if (count <= 0) {
+      return;
     }
+    MessageRecordReader reader = room.getReader();
+    long[] parseNanos = new long[1];
+    long start = System.nanoTime();
+    room.getLog().read(from, count, (offset, payload) -> {
+      if (room.isTombstoned(offset)) {
+        return;
+      }
+      long parseStart = System.nanoTime();
+      into.add(reader.read(offset, payload));
+      parseNanos[0] += System.nanoTime() - parseStart;
+    });
+    long total = System.nanoTime() - start;
+    diskReadTimer.record(total - parseNanos[0], TimeUnit.NANOSECONDS);
+    parseTimer.record(parseNanos[0], TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Messages of a chatroom that contain every word of {@code query}
+   * (case-insensitive, whole words), newest first. Looks up the room's
+   * search index, so the cost depends on how often the words occur rather
+   * than on the size of the room. Messages that are accepted but not
+   * written yet are not found.
+   */
+  public List<Message> search(String chatroomId, String query, int limit) {
+    Chatroom room = rooms.get(roomKey(chatroomId));
+    if (room == null || limit <= 0) {
+      return Collections.emptyList();
+    }
+    long start = System.nanoTime();
+    ChatroomLog log = room.getLog();
+    long first = log.getFirstOffset();
+    // deleted messages are skipped while matching, so they never use up the limit
+    long[] ids = room.getSearchIndex().search(query, first, limit, id -> !room.isTombstoned(id));
+    List<Message> messages = new ArrayList<>(ids.length);
     try {
-      byte[] bytes = Files.readAllBytes(file);
-      if (bytes.length == 0) {
-        return new ArrayList<>();
+      for (long id : ids) {
+        read(room, id, 1, messages);
       }
-      List<Message> loaded = objectMapper.readValue(
-          bytes,
-          new TypeReference<List<Message>>() {
-          });
-      return (loaded != null) ? loaded : new ArrayList<>();
     } catch (IOException e) {
-      logger.error("Failed to read message log {}: {}", file, e.getMessage());
-      return new ArrayList<>();
+      logger.error("Failed to read message log {}: {}", room.getKey(), e.getMessage());
+      return Collections.emptyList();
     }
+    searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    return messages;
   }
 
-  private void saveAllInternal(Path file, List<Message> messages) {
+  /**
+   * Delete a single message. Its id is tombstoned and skipped from then on;
+   * the record itself is reclaimed when retention drops its segment.
+   *
+   * @return false if the chatroom has no such message
+   */
+  public boolean deleteMessage(String chatroomId, long id) {
+    String roomKey = roomKey(chatroomId);
+    Chatroom room = rooms.get(roomKey);
+    if (room == null) {
+      return false;
+    }
     try {
-      byte[] json = objectMapper.writerWithDefaultPrettyPrinter()
-          .writeValueAsBytes(messages);
-      Files.write(file, json);
+      if (!room.deleteMessage(id)) {
+        return false;
+      }
     } catch (IOException e) {
-      logger.error("Failed to write message log {}: {}", file, e.getMessage());
+      logger.error("Failed to delete message {} of {}: {}", id, roomKey, e.getMessage());
+      return false;
+    }
+    cache.invalidate(roomKey);
+    deletedMessages.increment();
+    return true;
+  }
+
+  /**
+   * The retention policy in effect for a chatroom and the current extent of
+   * its log.
+   */
+  public Map<String, Object> getRetention(String chatroomId) {
+    String roomKey = roomKey(chatroomId);
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("chatroomId", chatroomId(roomKey));
+    Chatroom room = rooms.get(roomKey);
+    if (room == null) {
+      stats.put("policy", options.getRetention());
+      stats.put("custom", false);
+      return stats;
+    }
+    ChatroomLog log = room.getLog();
+    stats.put("policy", effectiveRetention(room));
+    stats.put("custom", room.getRetention() != null);
+    stats.put("firstId", log.getFirstOffset());
+    stats.put("nextId", log.getNextOffset());
+    stats.put("bytes", log.getSizeInBytes());
+    stats.put("segments", log.getSegmentCount());
+    stats.put("deleted", room.tombstonesBetween(log.getFirstOffset(), Long.MAX_VALUE));
+    return stats;
+  }
+
+  /**
+   * Give a chatroom its own retention policy, or make it use the default
+   * again with null. Takes effect at the next retention pass.
+   *
+   * @return false if the chatroom has no log
+   */
+  public boolean setRetention(String chatroomId, RetentionPolicy policy) throws IOException {
+    Chatroom room = rooms.get(roomKey(chatroomId));
+    if (room == null) {
+      return false;
+    }
+    room.setRetention(policy);
+    return true;
+  }
+
+  /**
+   * Delete all messages for a chatroom by removing its log.
+   */
+  public void deleteHistory(String chatroomId) {
+    String roomKey = roomKey(chatroomId);
+    Chatroom room = rooms.get(roomKey);
+    if (room == null) {
+      return;
+    }
+    try {
+      // Delete before unmapping the room: a concurrent sender waits on the
+      // lock, sees the room is deleted and opens a fresh one.
+      room.lock();
+      try {
+        room.delete();
+      } finally {
+        rooms.remove(roomKey, room);
+        cache.invalidate(roomKey);
+        room.unlock();
+      }
+      logger.info("Deleted message history for {}", roomKey);
+    } catch (IOException e) {
+      logger.error("Failed to delete message log {}: {}", roomKey, e.getMessage());
+    }
+  }
+
+  private Chatroom openRoom(String roomKey) throws IOException {
+    try {
+      return rooms.computeIfAbsent(roomKey, key -> {
+        try {
+          return Chatroom.open(key, baseDir.resolve(key), options, objectMapper, usernames::canonical,
+              chatroomLockWaits);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Map a chatroomId onto a safe directory name, which is also the key the
+   * room goes by, e.g. to pick its owner in a cluster. Distinct ids always
+   * get distinct keys (see {@link RoomKeys}); a missing id is the public
+   * room.
+   */
+  public static String roomKey(String chatroomId) {
+    if (chatroomId == null || chatroomId.isBlank()) {
+      return PUBLIC_ROOM;
+    }
+    return RoomKeys.encode(chatroomId);
+  }
+
+  /**
+   * The chatroomId of a room key, or null if it is not one.
+   */
+  public static String chatroomId(String roomKey) {
+    return RoomKeys.decode(roomKey);
+  }
+
+  /**
+   * Move a room stored under the earlier key scheme, which replaced unsafe
+   * characters with '_' but kept names of letters, digits, '_' and '-' as
+   * they were, to the key of the chatroomId it most likely belongs to: its
+   * directory name. Returns null if that key is taken.
+   */
+  private Path renameUnescapedRoom(Path dir) throws IOException {
+    String name = dir.getFileName().toString();
+    Path target = baseDir.resolve(roomKey(name));
+    if (Files.exists(target)) {
+      logger.warn("Not opening message log {}: its room key {} is taken", dir, target.getFileName());
+      return null;
+    }
+    Files.move(dir, target, StandardCopyOption.ATOMIC_MOVE);
+    logger.info("Renamed message log {} to {}", name, target.getFileName());
+    return target;
+  }
+
+  /**
+   * One-time import of the old messages_<chatroomId>.json files. Each file is
+   * written into a scratch directory that is renamed into place only once it
+   * is complete, so a crash mid-import never leaves a half-migrated room.
+   */
+  private void migrateLegacyFiles() {
+    if (!Files.isDirectory(legacyDir)) {
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(legacyDir,
+        LEGACY_PREFIX + "*" + LEGACY_SUFFIX)) {
+      for (Path file : files) {
+        migrateLegacyFile(file);
+      }
+    } catch (IOException e) {
+      logger.error("Failed to scan for legacy message logs: {}", e.getMessage());
+    }
+  }
+
+  private void migrateLegacyFile(Path file) {
+    String name = file.getFileName().toString();
+    String chatroomId = name.substring(LEGACY_PREFIX.length(), name.length() - LEGACY_SUFFIX.length());
+    String roomKey = roomKey(chatroomId);
+    try {
+      if (rooms.containsKey(roomKey)) {
+        // left in place, so nothing is lost if it was never imported
+        logger.warn("Log for {} already exists, not importing {}", roomKey, file);
+        return;
+      }
+      Path scratch = baseDir.resolve(MIGRATION_PREFIX + roomKey);
+      deleteRecursively(scratch);
+      byte[] bytes = Files.readAllBytes(file);
+      List<Message> messages = bytes.length == 0 ? null
+          : objectMapper.readValue(bytes, new TypeReference<List<Message>>() {
+          });
+      try (ChatroomLog log = ChatroomLog.open(scratch, options);
+          UserDictionary users = UserDictionary.open(scratch.resolve(UserDictionary.FILE_NAME))) {
+        MessageRecordWriter writer = new MessageRecordWriter(chatroomId(roomKey), users);
+        if (messages != null) {
+          for (Message message : messages) {
+            message.setId(log.getNextOffset());
+            log.append(writer.write(message));
+          }
+        }
+        users.flush();
+        log.flush();
+      }
+      Path target = baseDir.resolve(roomKey);
+      Files.move(scratch, target, StandardCopyOption.ATOMIC_MOVE);
+      rooms.put(roomKey,
+          Chatroom.open(roomKey, target, options, objectMapper, usernames::canonical, chatroomLockWaits));
+      logger.info("Migrated {} messages from {}", messages == null ? 0 : messages.size(), file);
+      Files.move(file, file.resolveSibling(name + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.error("Failed to migrate legacy message log {}: {}", file, e.getMessage());
+    }
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+      for (Path entry : entries) {
+        Files.delete(entry);
+      }
     }
+    Files.delete(dir);
   }
 }
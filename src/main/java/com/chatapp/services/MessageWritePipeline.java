@@ -0,0 +1,234 @@
+package com.chatapp.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves chat persistence off the message delivery path.
+ *
+ * Producers put one entry per message into a bounded queue; a single writer
+ * thread drains the queue in batches, and for every chatroom in the batch
+ * writes all of its pending messages with one write and at most one fsync
+ * (see {@link Durability}). When the queue is full producers block, which is
+ * counted and timed so backpressure is visible in {@link #stats()}.
+ */
+@Component
+public class MessageWritePipeline {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessageWritePipeline.class);
+
+  /**
+   * When appended messages are forced to disk.
+   */
+  public enum Durability {
+    /** Never fsync; rely on the OS to write pages back. */
+    NONE,
+    /** One fsync per chatroom per batch. */
+    BATCH,
+    /** Write and fsync every message on its own. */
+    EVERY_MESSAGE
+  }
+
+  /**
+   * Something with messages waiting to be written, e.g. one chatroom.
+   */
+  public interface WriteSource {
+    /**
+     * Write everything that is pending. Normally called from the writer
+     * thread, but also inline when the pipeline is not running, so
+     * implementations must tolerate concurrent calls.
+     *
+     * @return the number of messages written
+     */
+    int writePending(Durability durability);
+  }
+
+  private final BlockingQueue<WriteSource> queue;
+  private final int capacity;
+  private final int maxBatch;
+  private final Durability durability;
+
+  private final AtomicLong enqueued = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong blockedProducers = new AtomicLong();
+  private final AtomicLong blockedNanos = new AtomicLong();
+  private final AtomicLong highWaterMark = new AtomicLong();
+
+  private final Timer writeTimer;
+  private final DistributionSummary writeSizes;
+
+  private volatile boolean running;
+  private Thread writer;
+
+  public MessageWritePipeline(MeterRegistry meterRegistry,
+      @Value("${chatapp.messages.pipeline.capacity:10000}") int capacity,
+      @Value("${chatapp.messages.pipeline.max-batch:512}") int maxBatch,
+      @Value("${chatapp.messages.pipeline.durability:BATCH}") Durability durability) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.capacity = capacity;
+    this.maxBatch = maxBatch;
+    this.durability = durability;
+    this.writeTimer = Timer.builder("chatapp.messages.write")
+        .description("Writing one chatroom's pending messages, including any fsync")
+        .tag("durability", durability.name())
+        .register(meterRegistry);
+    this.writeSizes = DistributionSummary.builder("chatapp.messages.write.size")
+        .description("Messages written per chatroom write")
+        .register(meterRegistry);
+    Gauge.builder("chatapp.messages.pipeline.queued", queue, BlockingQueue::size)
+        .description("Messages waiting for the writer thread")
+        .register(meterRegistry);
+    FunctionCounter.builder("chatapp.messages.pipeline.blocked", blockedProducers, AtomicLong::get)
+        .description("Senders that had to wait because the write queue was full")
+        .register(meterRegistry);
+  }
+
+  @PostConstruct
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    writer = new Thread(this::runWriter, "message-writer");
+    writer.setDaemon(true);
+    writer.start();
+    logger.info("Message write pipeline started (capacity {}, max batch {}, durability {})",
+        capacity, maxBatch, durability);
+  }
+
+  /**
+   * Stop accepting work, write whatever is still queued and wait for the
+   * writer thread to finish. Safe to call more than once.
+   */
+  @PreDestroy
+  public synchronized void shutdown() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    logger.info("Message write pipeline stopped after writing {} messages", written.get());
+  }
+
+  /**
+   * Queue one message's worth of work for the given source. Blocks while the
+   * queue is full.
+   */
+  public void submit(WriteSource source) {
+    if (!running) {
+      // not started (or already stopped): write inline so nothing is lost
+      written.addAndGet(source.writePending(durability));
+      return;
+    }
+    if (!queue.offer(source)) {
+      blockedProducers.incrementAndGet();
+      long start = System.nanoTime();
+      try {
+        queue.put(source);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for the message write queue", e);
+      } finally {
+        blockedNanos.addAndGet(System.nanoTime() - start);
+      }
+    }
+    enqueued.incrementAndGet();
+    highWaterMark.accumulateAndGet(queue.size(), Math::max);
+    if (!running) {
+      // raced with shutdown(); the writer may already be gone
+      written.addAndGet(source.writePending(durability));
+    }
+  }
+
+  private void runWriter() {
+    List<WriteSource> batch = new ArrayList<>(maxBatch);
+    // never interrupted: an interrupt would close the log's file channels
+    while (true) {
+      WriteSource first;
+      try {
+        first = queue.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        first = null;
+      }
+      if (first == null) {
+        if (!running) {
+          break; // stopped and fully drained
+        }
+        continue;
+      }
+      batch.add(first);
+      queue.drainTo(batch, maxBatch - 1);
+      writeBatch(batch);
+      batch.clear();
+    }
+  }
+
+  private void writeBatch(List<WriteSource> batch) {
+    // several entries for the same chatroom collapse into one write
+    Set<WriteSource> sources = Collections.newSetFromMap(new IdentityHashMap<>());
+    sources.addAll(batch);
+    for (WriteSource source : sources) {
+      try {
+        long start = System.nanoTime();
+        int count = source.writePending(durability);
+        if (count > 0) {
+          writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+          writeSizes.record(count);
+        }
+        written.addAndGet(count);
+      } catch (RuntimeException e) {
+        logger.error("Message write failed: {}", e.getMessage(), e);
+      }
+    }
+    batches.incrementAndGet();
+  }
+
+  public Durability getDurability() {
+    return durability;
+  }
+
+  /**
+   * Queue and throughput counters, for monitoring backpressure.
+   */
+  public Map<String, Object> stats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    long batchCount = batches.get();
+    stats.put("durability", durability.name());
+    stats.put("queueDepth", queue.size());
+    stats.put("queueCapacity", capacity);
+    stats.put("queueHighWaterMark", highWaterMark.get());
+    stats.put("enqueued", enqueued.get());
+    stats.put("written", written.get());
+    stats.put("batches", batchCount);
+    stats.put("averageBatchSize", batchCount == 0 ? 0.0 : (double) written.get() / batchCount);
+    stats.put("blockedProducers", blockedProducers.get());
+    stats.put("blockedMillis", TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()));
+    return stats;
+  }
+}
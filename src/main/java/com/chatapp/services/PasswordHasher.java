@@ -0,0 +1,151 @@
+package com.chatapp.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs BCrypt hashing and verification on a small dedicated pool.
+ *
+ * BCrypt is slow on purpose, so the pool is sized to the CPU and its queue
+ * is bounded: a login storm queues up to {@code queue-size} requests and
+ * rejects the rest straight away with {@link BusyException} instead of
+ * piling up request threads. Callers never hold a lock while they wait.
+ */
+@Component
+public class PasswordHasher {
+
+  private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+
+  private static final Pattern BCRYPT_COST = Pattern.compile("^\\$2[abxy]?\\$(\\d{2})\\$");
+
+  /**
+   * Thrown when the hashing pool is saturated or a hash took too long.
+   */
+  public static class BusyException extends RuntimeException {
+    BusyException(String message) {
+      super(message);
+    }
+  }
+
+  private final int strength;
+  private final BCryptPasswordEncoder encoder;
+  private final ThreadPoolExecutor executor;
+  private final Duration timeout;
+  private final Timer hashTimer;
+  private final Timer verifyTimer;
+  private final Timer queueWaits;
+  private final Counter rejections;
+
+  public PasswordHasher(MeterRegistry meterRegistry,
+      @Value("${chatapp.auth.bcrypt-strength:10}") int strength,
+      @Value("${chatapp.auth.hash-threads:0}") int threads,
+      @Value("${chatapp.auth.hash-queue-size:64}") int queueSize,
+      @Value("${chatapp.auth.hash-timeout:5s}") Duration timeout) {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    this.strength = strength;
+    this.encoder = new BCryptPasswordEncoder(strength);
+    this.timeout = timeout;
+    AtomicInteger counter = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueSize), runnable -> {
+          Thread thread = new Thread(runnable, "password-hasher-" + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    this.hashTimer = bcryptTimer(meterRegistry, "hash");
+    this.verifyTimer = bcryptTimer(meterRegistry, "verify");
+    this.queueWaits = Timer.builder("chatapp.auth.bcrypt.queue")
+        .description("Time a hashing request waited for a thread")
+        .register(meterRegistry);
+    this.rejections = Counter.builder("chatapp.auth.bcrypt.rejected")
+        .description("Hashing requests turned away because the pool was saturated or too slow")
+        .register(meterRegistry);
+    Gauge.builder("chatapp.auth.bcrypt.queued", executor, pool -> pool.getQueue().size())
+        .description("Hashing requests waiting for a thread")
+        .register(meterRegistry);
+    logger.info("Password hasher using BCrypt cost {} on {} threads (queue {})", strength, poolSize, queueSize);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static Timer bcryptTimer(MeterRegistry meterRegistry, String operation) {
+    return Timer.builder("chatapp.auth.bcrypt")
+        .description("CPU time of one BCrypt hash or verification, without queueing")
+        .tag("operation", operation)
+        .register(meterRegistry);
+  }
+
+  public String encode(String rawPassword) {
+    return run(hashTimer, () -> encoder.encode(rawPassword));
+  }
+
+  public boolean matches(String rawPassword, String hash) {
+    return run(verifyTimer, () -> encoder.matches(rawPassword, hash));
+  }
+
+  /**
+   * True if the hash was made with a different cost than the configured one
+   * (or is not a BCrypt hash at all) and should be replaced.
+   */
+  public boolean needsRehash(String hash) {
+    if (hash == null) {
+      return false;
+    }
+    Matcher matcher = BCRYPT_COST.matcher(hash);
+    return !matcher.find() || Integer.parseInt(matcher.group(1)) != strength;
+  }
+
+  private <T> T run(Timer timer, Callable<T> task) {
+    long submitted = System.nanoTime();
+    Future<T> future;
+    try {
+      future = executor.submit(() -> {
+        queueWaits.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+        return timer.recordCallable(task);
+      });
+    } catch (RejectedExecutionException e) {
+      rejections.increment();
+      throw new BusyException("Password hashing queue is full");
+    }
+    try {
+      return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(false);
+      rejections.increment();
+      throw new BusyException("Password hashing timed out");
+    } catch (InterruptedException e) {
+      future.cancel(false);
+      Thread.currentThread().interrupt();
+      throw new BusyException("Interrupted while waiting for password hashing");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
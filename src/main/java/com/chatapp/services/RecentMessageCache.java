@@ -0,0 +1,227 @@
+package com.chatapp.services;
+
+import com.chatapp.models.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the most recent messages of each chatroom in memory so history
+ * requests do not have to touch the disk.
+ *
+ * Each chatroom gets a fixed-size ring buffer with its own lock, so rooms
+ * never wait on each other. Every access stamps the ring with the current
+ * time; once the estimated size of all cached messages exceeds the memory
+ * budget, the least recently used rooms are evicted.
+ */
+@Component
+public class RecentMessageCache {
+
+  private final int messagesPerRoom;
+  private final long maxBytes;
+
+  private final Map<String, Ring> rooms = new ConcurrentHashMap<>();
+  private final AtomicLong usedBytes = new AtomicLong();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  public RecentMessageCache(
+      @Value("${chatapp.messages.cache.messages-per-room:200}") int messagesPerRoom,
+      @Value("${chatapp.messages.cache.max-bytes:67108864}") long maxBytes) {
+    if (messagesPerRoom <= 0) {
+      throw new IllegalArgumentException("messagesPerRoom must be positive");
+    }
+    this.messagesPerRoom = messagesPerRoom;
+    this.maxBytes = maxBytes;
+  }
+
+  public int getMessagesPerRoom() {
+    return messagesPerRoom;
+  }
+
+  /**
+   * Return the last {@code limit} messages of a room, or null if the room is
+   * not cached or the buffer cannot answer a request that large.
+   */
+  public List<Message> recent(String roomKey, int limit) {
+    Ring ring = rooms.get(roomKey);
+    if (ring == null) {
+      return null;
+    }
+    ring.lock.lock();
+    try {
+      if (ring.evicted || (limit > ring.size && !ring.complete)) {
+        return null;
+      }
+      ring.lastAccess = System.nanoTime();
+      return ring.tail(limit);
+    } finally {
+      ring.lock.unlock();
+    }
+  }
+
+  /**
+   * Fill the buffer for a room from its stored history. Callers must make
+   * sure no message is appended to the room while this runs, otherwise that
+   * message could be missing from the buffer.
+   *
+   * @param tail     the newest messages of the room, oldest first
+   * @param complete true if {@code tail} is the room's entire history
+   */
+  public void warm(String roomKey, List<Message> tail, boolean complete) {
+    int from = Math.max(0, tail.size() - messagesPerRoom);
+    Ring ring = new Ring(messagesPerRoom, complete && from == 0);
+    for (Message message : tail.subList(from, tail.size())) {
+      ring.add(message);
+    }
+    ring.lastAccess = System.nanoTime();
+    usedBytes.addAndGet(ring.bytes);
+    Ring previous = rooms.put(roomKey, ring);
+    if (previous != null) {
+      discard(previous);
+    }
+    evictIfNeeded(roomKey);
+  }
+
+  /**
+   * Record a newly appended message. Rooms that are not cached are left
+   * alone; they are warmed on their next read. Callers append to a room one
+   * message at a time, in log order.
+   */
+  public void onAppend(String roomKey, Message message) {
+    Ring ring = rooms.get(roomKey);
+    if (ring == null) {
+      return;
+    }
+    ring.lock.lock();
+    try {
+      if (ring.evicted) {
+        return;
+      }
+      long before = ring.bytes;
+      ring.add(message);
+      usedBytes.addAndGet(ring.bytes - before);
+    } finally {
+      ring.lock.unlock();
+    }
+    evictIfNeeded(roomKey);
+  }
+
+  public void invalidate(String roomKey) {
+    Ring ring = rooms.remove(roomKey);
+    if (ring != null) {
+      discard(ring);
+    }
+  }
+
+  public int cachedRooms() {
+    return rooms.size();
+  }
+
+  public long usedBytes() {
+    return usedBytes.get();
+  }
+
+  private void discard(Ring ring) {
+    ring.lock.lock();
+    try {
+      if (!ring.evicted) {
+        ring.evicted = true;
+        usedBytes.addAndGet(-ring.bytes);
+      }
+    } finally {
+      ring.lock.unlock();
+    }
+  }
+
+  /**
+   * Evict least recently used rooms until the cache is back under 90% of its
+   * budget. Only one thread evicts at a time; others carry on.
+   */
+  private void evictIfNeeded(String keep) {
+    if (usedBytes.get() <= maxBytes || !evictionLock.tryLock()) {
+      return;
+    }
+    try {
+      long target = maxBytes - maxBytes / 10;
+      List<Map.Entry<String, Ring>> candidates = new ArrayList<>(rooms.entrySet());
+      candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+      for (Map.Entry<String, Ring> entry : candidates) {
+        if (usedBytes.get() <= target) {
+          break;
+        }
+        if (!entry.getKey().equals(keep) && rooms.remove(entry.getKey(), entry.getValue())) {
+          discard(entry.getValue());
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Rough heap footprint of a cached message: object headers plus the
+   * characters of its strings.
+   */
+  static long estimateBytes(Message message) {
+    return 96
+        + 2L * length(message.getUser())
+        + 2L * length(message.getText())
+        + 2L * length(message.getTimestamp())
+        + 2L * length(message.getChatroomId());
+  }
+
+  private static int length(String s) {
+    return s == null ? 0 : s.length();
+  }
+
+  /**
+   * Fixed-size ring buffer of a room's newest messages. Guarded by its own
+   * lock.
+   */
+  private static final class Ring {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Message[] slots;
+    private int head; // index of the oldest message
+    private int size;
+    private long bytes;
+    // true while the buffer still holds every message the room has ever had
+    private boolean complete;
+    private boolean evicted;
+    private volatile long lastAccess;
+
+    Ring(int capacity, boolean complete) {
+      this.slots = new Message[capacity];
+      this.complete = complete;
+    }
+
+    void add(Message message) {
+      long added = estimateBytes(message);
+      if (size < slots.length) {
+        slots[(head + size) % slots.length] = message;
+        size++;
+      } else {
+        bytes -= estimateBytes(slots[head]);
+        slots[head] = message;
+        head = (head + 1) % slots.length;
+        complete = false;
+      }
+      bytes += added;
+    }
+
+    List<Message> tail(int limit) {
+      int n = Math.min(limit, size);
+      List<Message> result = new ArrayList<>(n);
+      for (int i = size - n; i < size; i++) {
+        result.add(slots[(head + i) % slots.length]);
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package com.chatapp.services;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+/**
+ * Feeds WebSocket session lifecycle events into {@link UsersList}. Clients
+ * may name their user in a {@code username} header on the STOMP CONNECT
+ * frame; otherwise the session is bound once they send /app/connect.
+ */
+@Component
+public class SessionPresenceListener {
+
+  private final UsersList usersList;
+
+  public SessionPresenceListener(UsersList usersList) {
+    this.usersList = usersList;
+  }
+
+  // the client's CONNECT frame; with the broker relay the CONNECTED reply
+  // comes from the external broker and no longer carries the client's headers
+  @EventListener
+  public void onConnect(SessionConnectEvent event) {
+    StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+    usersList.sessionOpened(accessor.getSessionId(), accessor.getFirstNativeHeader("username"));
+  }
+
+  @EventListener
+  public void onDisconnect(SessionDisconnectEvent event) {
+    usersList.sessionClosed(event.getSessionId());
+  }
+}
@@ -0,0 +1,177 @@
+package com.chatapp.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads stores such as users.json and friends.json in the background, each
+ * on its own thread, so they load in parallel and the application accepts
+ * connections before a large store is in memory.
+ *
+ * Every load is a {@link Load}: the owning service runs its phases through
+ * it (each phase is timed as {@code chatapp.startup.load}) and calls
+ * {@link Load#await} before serving a request, which waits until the load
+ * is done. Until every load is done this indicator reports OUT_OF_SERVICE
+ * on /actuator/health, so rolling deploys can hold traffic back.
+ */
+@Component
+public class StartupLoader implements HealthIndicator {
+
+  private static final Logger logger = LoggerFactory.getLogger(StartupLoader.class);
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Load> loads = new ConcurrentHashMap<>();
+  private final Timer gateWaits;
+
+  /**
+   * The work of one load, split into phases with {@link Load#phase}.
+   */
+  public interface Task {
+    void run(Load load);
+  }
+
+  public StartupLoader(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.gateWaits = Timer.builder("chatapp.startup.gate.wait")
+        .description("Time requests waited for a store that was still loading")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Start loading {@code name} on a new thread. A task that fails still
+   * opens the gate, with whatever it loaded so far.
+   */
+  public Load start(String name, Task task) {
+    Load load = new Load(name);
+    if (loads.putIfAbsent(name, load) != null) {
+      throw new IllegalStateException("Already loading " + name);
+    }
+    Thread thread = new Thread(() -> {
+      long start = System.nanoTime();
+      try {
+        task.run(load);
+      } catch (RuntimeException e) {
+        load.failed = true;
+        logger.error("Loading {} failed: {}", name, e.getMessage(), e);
+      } finally {
+        load.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        load.done.countDown();
+        logger.info("Loaded {} in {} ms ({})", name, load.millis, load.describePhases());
+      }
+    }, "startup-load-" + name);
+    thread.setDaemon(true);
+    thread.start();
+    return load;
+  }
+
+  public boolean isReady() {
+    for (Load load : loads.values()) {
+      if (!load.isDone()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Health health() {
+    Health.Builder health = isReady() ? Health.up() : Health.outOfService();
+    for (Load load : loads.values()) {
+      Map<String, Object> details = new LinkedHashMap<>();
+      details.put("state", !load.isDone() ? "loading" : load.failed ? "failed" : "ready");
+      if (load.isDone()) {
+        details.put("millis", load.millis);
+      }
+      details.put("phases", load.phaseMillis());
+      health.withDetail(load.name, details);
+    }
+    return health.build();
+  }
+
+  /**
+   * One store being loaded; {@link #await} is its readiness gate.
+   */
+  public final class Load {
+    private final String name;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final Map<String, Long> phases = new LinkedHashMap<>(); // guarded by itself
+    private volatile boolean failed;
+    private volatile long millis;
+
+    private Load(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Run one phase of the load and record how long it took.
+     */
+    public void phase(String phase, Runnable work) {
+      long start = System.nanoTime();
+      try {
+        work.run();
+      } finally {
+        long nanos = System.nanoTime() - start;
+        synchronized (phases) {
+          phases.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+        Timer.builder("chatapp.startup.load")
+            .description("Phases of loading a store at startup")
+            .tag("store", name)
+            .tag("phase", phase)
+            .register(meterRegistry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    /**
+     * Wait until the load is done. Returns straight away once it is.
+     */
+    public void await() {
+      if (isDone()) {
+        return;
+      }
+      long start = System.nanoTime();
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      gateWaits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private Map<String, Long> phaseMillis() {
+      synchronized (phases) {
+        return new LinkedHashMap<>(phases);
+      }
+    }
+
+    private String describePhases() {
+      StringJoiner joiner = new StringJoiner(", ");
+      phaseMillis().forEach((phase, ms) -> joiner.add(phase + " " + ms + " ms"));
+      return joiner.toString();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.chatapp.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashed timer wheel: deadlines are hashed into a ring of slots by tick, so
+ * scheduling is O(1) and advancing the clock only looks at the slots that
+ * came due. Deadlines further out than one turn of the wheel stay in their
+ * slot until the round they belong to.
+ *
+ * Rescheduling a key replaces its deadline. Not thread-safe; callers lock.
+ */
+final class TimerWheel<K> {
+
+  private final long tickMillis;
+  private final List<Map<K, Long>> slots;
+  // key -> tick it is currently scheduled for
+  private final Map<K, Long> deadlines = new HashMap<>();
+  private long currentTick;
+
+  TimerWheel(long tickMillis, int slotCount, long nowMillis) {
+    if (tickMillis <= 0 || slotCount <= 0) {
+      throw new IllegalArgumentException("tickMillis and slotCount must be positive");
+    }
+    this.tickMillis = tickMillis;
+    this.slots = new ArrayList<>(slotCount);
+    for (int i = 0; i < slotCount; i++) {
+      slots.add(new HashMap<>());
+    }
+    this.currentTick = nowMillis / tickMillis;
+  }
+
+  /**
+   * Fire {@code key} once the clock passes {@code deadlineMillis}, replacing
+   * any earlier deadline for it.
+   */
+  void schedule(K key, long deadlineMillis) {
+    long tick = Math.max(currentTick + 1, (deadlineMillis + tickMillis - 1) / tickMillis);
+    Long previous = deadlines.put(key, tick);
+    if (previous != null) {
+      slot(previous).remove(key);
+    }
+    slot(tick).put(key, tick);
+  }
+
+  void cancel(K key) {
+    Long tick = deadlines.remove(key);
+    if (tick != null) {
+      slot(tick).remove(key);
+    }
+  }
+
+  /**
+   * Advance the clock and return the keys whose deadline has passed; they
+   * are no longer scheduled.
+   */
+  List<K> advance(long nowMillis) {
+    List<K> due = new ArrayList<>();
+    long target = nowMillis / tickMillis;
+    // a long pause only needs one pass over the wheel
+    long from = Math.max(currentTick + 1, target - slots.size() + 1);
+    for (long tick = from; tick <= target; tick++) {
+      Map<K, Long> slot = slot(tick);
+      if (slot.isEmpty()) {
+        continue;
+      }
+      slot.entrySet().removeIf(entry -> {
+        if (entry.getValue() > target) {
+          return false; // belongs to a later round
+        }
+        due.add(entry.getKey());
+        deadlines.remove(entry.getKey());
+        return true;
+      });
+    }
+    currentTick = Math.max(currentTick, target);
+    return due;
+  }
+
+  int size() {
+    return deadlines.size();
+  }
+
+  private Map<K, Long> slot(long tick) {
+    return slots.get((int) Math.floorMod(tick, (long) slots.size()));
+  }
+}
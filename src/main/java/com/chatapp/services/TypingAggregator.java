@@ -0,0 +1,223 @@
+package com.chatapp.services;
+
+import com.chatapp.cluster.ClusterNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects typing notifications and publishes, per chatroom, who is typing
+ * as one coalesced frame on /topic/typing/{chatroomId}:
+ * {"node": "a1", "users": ["alice", "bob"]}. Each node only knows its own
+ * sessions, so with several nodes behind a broker relay a client keeps the
+ * latest set per node and shows their union.
+ *
+ * A user counts as typing until they say they stopped or their last
+ * notification is older than the TTL. Frames go out at most once per
+ * interval per room and only when the set of typing users changed, so
+ * keystrokes that merely refresh someone's TTL cost no fan-out. Each
+ * session is rate limited by a token bucket; notifications beyond it are
+ * dropped.
+ */
+@Service
+public class TypingAggregator {
+
+  private final SimpMessagingTemplate messagingTemplate;
+  private final String nodeId;
+  private final Duration interval;
+  private final long ttlMillis;
+  private final double tokensPerMilli;
+  private final int burst;
+
+  private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+  private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService scheduler;
+
+  public TypingAggregator(SimpMessagingTemplate messagingTemplate, ClusterNode clusterNode,
+      @Value("${chatapp.typing.interval:500ms}") Duration interval,
+      @Value("${chatapp.typing.ttl:5s}") Duration ttl,
+      @Value("${chatapp.typing.rate-per-second:2}") double ratePerSecond,
+      @Value("${chatapp.typing.rate-burst:5}") int burst) {
+    this.messagingTemplate = messagingTemplate;
+    this.nodeId = clusterNode.getNodeId();
+    this.interval = interval;
+    this.ttlMillis = ttl.toMillis();
+    this.tokensPerMilli = ratePerSecond / 1000.0;
+    this.burst = burst;
+  }
+
+  @PostConstruct
+  public void start() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "typing-flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long millis = Math.max(1, interval.toMillis());
+    scheduler.scheduleWithFixedDelay(this::flush, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * Record that {@code user} started or stopped typing in a chatroom.
+   *
+   * @return false if the notification was dropped by the rate limit; only
+   *         starts are limited, as a dropped stop would leave the user
+   *         typing until their entry expires
+   */
+  public boolean update(String chatroomId, String sessionId, String user, boolean typing) {
+    if (chatroomId == null || user == null || user.isBlank()) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    if (typing && sessionId != null
+        && !buckets.computeIfAbsent(sessionId, id -> new TokenBucket(burst, now)).tryTake(now)) {
+      return false;
+    }
+    long deadline = now + ttlMillis;
+    // per-key compute so this cannot race with flush() dropping an idle room
+    rooms.compute(chatroomId, (id, room) -> {
+      if (room == null) {
+        if (!typing) {
+          return null;
+        }
+        room = new Room();
+      }
+      if (typing) {
+        room.typing(user, deadline);
+      } else {
+        room.stopped(user);
+      }
+      return room;
+    });
+    return true;
+  }
+
+  @EventListener
+  public void onDisconnect(SessionDisconnectEvent event) {
+    buckets.remove(event.getSessionId());
+  }
+
+  /**
+   * Expire stale entries and publish every room whose typing set changed.
+   */
+  public void flush() {
+    long now = System.currentTimeMillis();
+    Map<String, List<String>> changes = new LinkedHashMap<>();
+    for (String chatroomId : rooms.keySet()) {
+      rooms.computeIfPresent(chatroomId, (id, room) -> {
+        List<String> users = room.collectChanges(now);
+        if (users != null) {
+          changes.put(id, users);
+        }
+        return room.isIdle() ? null : room;
+      });
+    }
+    for (Map.Entry<String, List<String>> change : changes.entrySet()) {
+      Map<String, Object> frame = new LinkedHashMap<>();
+      frame.put("node", nodeId);
+      frame.put("users", change.getValue());
+      messagingTemplate.convertAndSend("/topic/typing/" + change.getKey(), frame);
+    }
+  }
+
+  /**
+   * Typing state of one chatroom. Only touched inside the map's per-key
+   * compute, which serializes access.
+   */
+  private static final class Room {
+    private final Map<String, Long> expiresAt = new HashMap<>();
+    private List<String> published = Collections.emptyList();
+    private boolean dirty;
+
+    void typing(String user, long deadline) {
+      if (expiresAt.put(user, deadline) == null) {
+        dirty = true;
+      }
+    }
+
+    void stopped(String user) {
+      if (expiresAt.remove(user) != null) {
+        dirty = true;
+      }
+    }
+
+    /**
+     * Drop expired users; return the new sorted set if it differs from the
+     * last published one, otherwise null.
+     */
+    List<String> collectChanges(long now) {
+      if (expiresAt.values().removeIf(deadline -> deadline <= now)) {
+        dirty = true;
+      }
+      if (!dirty) {
+        return null;
+      }
+      dirty = false;
+      List<String> current = new ArrayList<>(new TreeSet<>(expiresAt.keySet()));
+      if (current.equals(published)) {
+        return null;
+      }
+      published = current;
+      return current;
+    }
+
+    boolean isIdle() {
+      return expiresAt.isEmpty() && published.isEmpty();
+    }
+  }
+
+  /**
+   * Per-session token bucket: {@code burst} tokens, refilled continuously.
+   */
+  private final class TokenBucket {
+    private final ReentrantLock lock = new ReentrantLock();
+    private double tokens; // guarded by lock
+    private long lastRefill;
+
+    TokenBucket(int capacity, long now) {
+      this.tokens = capacity;
+      this.lastRefill = now;
+    }
+
+    boolean tryTake(long now) {
+      lock.lock();
+      try {
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerMilli);
+        lastRefill = now;
+        if (tokens < 1) {
+          return false;
+        }
+        tokens -= 1;
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
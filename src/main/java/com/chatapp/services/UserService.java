@@ -1,65 +1,147 @@
 package com.chatapp.services;
 
 import com.chatapp.models.UserAccount;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.chatapp.storage.SnapshotJournal;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages user accounts and stores them in a JSON file (users.json).
  * Passwords are stored as BCrypt hashes, not in plain text.
+ *
+ * Accounts are indexed by normalized username in a concurrent map, so
+ * lookups and logins never take a lock. Stored names are the canonical
+ * instances from the {@link UsernameDictionary}, shared with the other
+ * services. Registration claims a username
+ * with an atomic put-if-absent. Changes are appended to a journal that is
+ * folded back into users.json in the background (see {@link SnapshotJournal}).
+ * BCrypt work runs on the {@link PasswordHasher} pool, never under a lock.
+ *
+ * users.json is streamed into the index in the background by the
+ * {@link StartupLoader}; requests that arrive earlier wait for it.
  */
 @Service
 public class UserService {
 
   private static final Logger logger = LoggerFactory.getLogger(UserService.class);
 
-  private static final Path USERS_FILE = Paths.get("users.json");
+  private final Path usersFile;
 
-  private final ObjectMapper objectMapper;
+  private final Map<String, UserAccount> accounts = new ConcurrentHashMap<>();
+  private final PasswordHasher passwordHasher;
+  private final UsernameDictionary usernames;
+  private final StartupLoader startupLoader;
+  private final SnapshotJournal<AccountChange> journal;
+  private final Duration compactInterval;
+  private volatile StartupLoader.Load loaded;
 
-  private final List<UserAccount> accounts = new ArrayList<>();
-  private final PasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+  /**
+   * A journaled account change: a registration (put-if-absent) or a new
+   * password hash (put). Both are idempotent, so replaying one twice is
+   * harmless.
+   */
+  public record AccountChange(String username, String password, boolean replace) {
+  }
 
-  public UserService(ObjectMapper objectMapper) {
-    this.objectMapper = objectMapper;
+  public UserService(ObjectMapper objectMapper, PasswordHasher passwordHasher, UsernameDictionary usernames,
+      StartupLoader startupLoader,
+      @Value("${chatapp.users.file:users.json}") String usersFilePath,
+      @Value("${chatapp.persistence.compact-threshold:1000}") int compactThreshold,
+      @Value("${chatapp.persistence.compact-interval:30s}") Duration compactInterval) {
+    this.passwordHasher = passwordHasher;
+    this.usernames = usernames;
+    this.startupLoader = startupLoader;
+    this.usersFile = Paths.get(usersFilePath);
+    this.journal = new SnapshotJournal<>(usersFile, objectMapper, AccountChange.class, compactThreshold);
+    this.compactInterval = compactInterval;
   }
 
+  /**
+   * Start loading users.json and the journal in the background.
+   */
   @PostConstruct
+  void init() {
+    loaded = startupLoader.start("users", load -> {
+      load.phase("snapshot", this::loadFromFile);
+      load.phase("journal", this::replayJournal);
+      journal.startCompaction(compactInterval, this::snapshot);
+    });
+  }
+
+  /**
+   * Wait until the accounts are loaded.
+   */
+  void awaitLoaded() {
+    StartupLoader.Load load = loaded;
+    if (load != null) {
+      load.await();
+    }
+  }
+
+  private void replayJournal() {
+    try {
+      journal.replay(change -> {
+        String username = usernames.intern(change.username());
+        if (username == null) {
+          return;
+        }
+        UserAccount account = new UserAccount(username, change.password());
+        if (change.replace()) {
+          accounts.put(username, account);
+        } else {
+          accounts.putIfAbsent(username, account);
+        }
+      });
+    } catch (IOException e) {
+      logger.error("Failed to replay users journal: {}", e.getMessage());
+    }
+  }
+
+  @PreDestroy
+  void close() {
+    // a snapshot taken halfway through loading would lose accounts
+    awaitLoaded();
+    try {
+      journal.close(this::snapshot);
+    } catch (IOException e) {
+      logger.error("Failed to close users journal: {}", e.getMessage());
+    }
+  }
+
   private void loadFromFile() {
-    if (!Files.exists(USERS_FILE)) {
+    if (!Files.exists(usersFile)) {
       logger.info("users.json not found, starting with empty user list");
       return;
     }
 
     try {
-      byte[] bytes = Files.readAllBytes(USERS_FILE);
-      if (bytes.length == 0) {
+      long read = journal.readSnapshot(UserAccount.class, account -> {
+        String username = usernames.intern(account.getUsername());
+        if (username != null) {
+          account.setUsername(username);
+          accounts.putIfAbsent(username, account);
+        }
+      });
+      if (read == 0) {
         logger.info("users.json is empty, starting with empty user list");
         return;
       }
-
-      List<UserAccount> loaded = objectMapper.readValue(
-          bytes,
-          new TypeReference<List<UserAccount>>() {
-          });
-      if (loaded != null) {
-        accounts.clear();
-        accounts.addAll(loaded);
-        logger.info("Loaded {} user accounts from users.json", accounts.size());
-      }
+      logger.info("Loaded {} user accounts from users.json", accounts.size());
     } catch (IOException e) {
       logger.error("Failed to read users.json: {}", e.getMessage());
     }
@@ -71,7 +153,8 @@ public class UserService {
    * @return RegistrationResult indicating success or the specific reason for
    *         failure
    */
-  public synchronized RegistrationResult register(UserAccount account) {
+  public RegistrationResult register(UserAccount account) {
+    awaitLoaded();
     if (account == null) {
       return RegistrationResult.INVALID_INPUT;
     }
@@ -82,16 +165,26 @@ public class UserService {
       return RegistrationResult.INVALID_INPUT;
     }
 
-    // check if username already exists
+    // cheap check first so taken names don't pay for hashing
     if (findByUsername(username) != null) {
       return RegistrationResult.USERNAME_EXISTS;
     }
 
-    // store normalized username and hashed password
-    String hashed = passwordEncoder.encode(password);
+    // store normalized username and hashed password; putIfAbsent decides
+    // between concurrent registrations of the same name
+    String hashed;
+    try {
+      hashed = passwordHasher.encode(password);
+    } catch (PasswordHasher.BusyException e) {
+      logger.warn("Registration of {} rejected: {}", username, e.getMessage());
+      return RegistrationResult.BUSY;
+    }
+    username = usernames.intern(username);
     UserAccount toStore = new UserAccount(username, hashed);
-    accounts.add(toStore);
-    saveToFile();
+    if (accounts.putIfAbsent(username, toStore) != null) {
+      return RegistrationResult.USERNAME_EXISTS;
+    }
+    record(new AccountChange(username, hashed, false));
     logger.info("Registered new user: {}", username);
     return RegistrationResult.SUCCESS;
   }
@@ -102,33 +195,75 @@ public class UserService {
   public enum RegistrationResult {
     SUCCESS,
     USERNAME_EXISTS,
-    INVALID_INPUT
+    INVALID_INPUT,
+    /** The password hashing pool is saturated; try again later. */
+    BUSY
   }
 
   /**
-   * Check username + password.
+   * Check username + password. A hash made with a different BCrypt cost
+   * than the configured one is replaced after a successful login.
    */
-  public synchronized boolean login(UserAccount account) {
+  public LoginResult login(UserAccount account) {
+    awaitLoaded();
     if (account == null) {
-      return false;
+      return LoginResult.INVALID_CREDENTIALS;
     }
     String username = normalize(account.getUsername());
     String password = account.getPassword();
 
     if (username == null || username.isEmpty() || password == null || password.isEmpty()) {
-      return false;
+      return LoginResult.INVALID_CREDENTIALS;
     }
 
     UserAccount existing = findByUsername(username);
     if (existing == null) {
-      return false;
+      return LoginResult.INVALID_CREDENTIALS;
     }
 
     String storedHash = existing.getPassword();
     if (storedHash == null || storedHash.isEmpty()) {
-      return false;
+      return LoginResult.INVALID_CREDENTIALS;
+    }
+    try {
+      if (!passwordHasher.matches(password, storedHash)) {
+        return LoginResult.INVALID_CREDENTIALS;
+      }
+    } catch (PasswordHasher.BusyException e) {
+      logger.warn("Login of {} rejected: {}", username, e.getMessage());
+      return LoginResult.BUSY;
+    }
+    if (passwordHasher.needsRehash(storedHash)) {
+      rehash(existing, password);
+    }
+    return LoginResult.SUCCESS;
+  }
+
+  /**
+   * Result of a login attempt.
+   */
+  public enum LoginResult {
+    SUCCESS,
+    INVALID_CREDENTIALS,
+    /** The password hashing pool is saturated; try again later. */
+    BUSY
+  }
+
+  /**
+   * Replace an account's hash with one of the configured cost. Best effort:
+   * skipped if the pool is busy, and lost to a concurrent change of the
+   * same account.
+   */
+  private void rehash(UserAccount existing, String password) {
+    try {
+      UserAccount upgraded = new UserAccount(existing.getUsername(), passwordHasher.encode(password));
+      if (accounts.replace(existing.getUsername(), existing, upgraded)) {
+        record(new AccountChange(upgraded.getUsername(), upgraded.getPassword(), true));
+        logger.info("Upgraded password hash of {}", existing.getUsername());
+      }
+    } catch (PasswordHasher.BusyException e) {
+      logger.debug("Skipped password hash upgrade of {}: {}", existing.getUsername(), e.getMessage());
     }
-    return passwordEncoder.matches(password, storedHash);
   }
 
   /**
@@ -137,7 +272,8 @@ public class UserService {
    * @param username the username to check (will be normalized)
    * @return true if the user exists, false otherwise
    */
-  public synchronized boolean userExists(String username) {
+  public boolean userExists(String username) {
+    awaitLoaded();
     if (username == null) {
       return false;
     }
@@ -152,31 +288,25 @@ public class UserService {
     if (normalizedUsername == null) {
       return null;
     }
-    for (UserAccount acc : accounts) {
-      if (normalizedUsername.equals(acc.getUsername())) {
-        return acc;
-      }
-    }
-    return null;
+    return accounts.get(normalizedUsername);
   }
 
   private String normalize(String username) {
-    if (username == null) {
-      return null;
-    }
-    return username.trim().toLowerCase();
+    return UsernameDictionary.normalize(username);
   }
 
-  /**
-   * Save current list of accounts back to users.json.
-   */
-  private void saveToFile() {
+  private void record(AccountChange change) {
     try {
-      byte[] json = objectMapper.writerWithDefaultPrettyPrinter()
-          .writeValueAsBytes(accounts);
-      Files.write(USERS_FILE, json);
+      journal.append(change);
     } catch (IOException e) {
-      logger.error("Failed to write users.json: {}", e.getMessage());
+      logger.error("Failed to journal account change for {}: {}", change.username(), e.getMessage());
     }
   }
+
+  /**
+   * Copy of all accounts, written to users.json on compaction.
+   */
+  private List<UserAccount> snapshot() {
+    return new ArrayList<>(accounts.values());
+  }
 }
@@ -0,0 +1,139 @@
+package com.chatapp.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Canonical usernames of this process: every account's normalized name
+ * (trimmed, lowercased) gets a dense int id and one shared String instance.
+ *
+ * Services keep ids, or the canonical instance where a String is needed
+ * anyway, instead of their own copies of each name, and resolve names only
+ * at their API. Only accounts are assigned ids ({@link #idOf} and
+ * {@link #intern}: by UserService, and by FriendService, whose friendships
+ * only link accounts); names that come from clients, such as message
+ * senders or presence, are only looked up ({@link #lookup},
+ * {@link #canonical}), so the dictionary holds about the number of
+ * accounts. Ids are never reused or persisted.
+ *
+ * Lookups never lock; only assigning a new id does.
+ */
+@Component
+public class UsernameDictionary {
+
+  /** The id of no user, e.g. of a blank name. */
+  public static final int NONE = -1;
+
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  // written under lock before the id is published in ids
+  private volatile String[] names = new String[1024];
+  private volatile int size;
+
+  public UsernameDictionary(MeterRegistry meterRegistry) {
+    Gauge.builder("chatapp.usernames", this, UsernameDictionary::size)
+        .description("Distinct usernames seen since startup")
+        .register(meterRegistry);
+  }
+
+  /**
+   * The normalized form of a username, or null for null.
+   */
+  public static String normalize(String username) {
+    return username == null ? null : username.trim().toLowerCase();
+  }
+
+  /**
+   * The id of a username, assigning one if it is new, or {@link #NONE} if
+   * it is null or blank.
+   */
+  public int idOf(String username) {
+    String name = normalize(username);
+    if (name == null || name.isEmpty()) {
+      return NONE;
+    }
+    Integer id = ids.get(name);
+    return id != null ? id : assign(name);
+  }
+
+  /**
+   * The id of a username seen before, or {@link #NONE}; never assigns one,
+   * so lookups of arbitrary input do not grow the dictionary.
+   */
+  public int find(String username) {
+    String name = normalize(username);
+    Integer id = name == null ? null : ids.get(name);
+    return id != null ? id : NONE;
+  }
+
+  /**
+   * The canonical name of an id handed out by {@link #idOf}.
+   */
+  public String nameOf(int id) {
+    return names[id];
+  }
+
+  /**
+   * The canonical instance of a username, after normalizing it; null for a
+   * null or blank name.
+   */
+  public String intern(String username) {
+    int id = idOf(username);
+    return id == NONE ? null : nameOf(id);
+  }
+
+  /**
+   * The canonical instance of a username if it is an account's, otherwise
+   * its normalized form; null for a null or blank name. Never assigns an id.
+   */
+  public String lookup(String username) {
+    String name = normalize(username);
+    if (name == null || name.isEmpty()) {
+      return null;
+    }
+    Integer id = ids.get(name);
+    return id != null ? nameOf(id) : name;
+  }
+
+  /**
+   * The canonical instance of a name exactly as given, or the name itself
+   * if it has no id (such as a message sender as typed), so shared strings
+   * never change what is displayed. Never assigns an id.
+   */
+  public String canonical(String name) {
+    Integer id = name == null ? null : ids.get(name);
+    return id != null ? nameOf(id) : name;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private int assign(String name) {
+    lock.lock();
+    try {
+      Integer existing = ids.get(name);
+      if (existing != null) {
+        return existing;
+      }
+      int id = size;
+      String[] current = names;
+      if (id == current.length) {
+        current = Arrays.copyOf(current, current.length * 2);
+        names = current;
+      }
+      current[id] = name;
+      size = id + 1;
+      ids.put(name, id);
+      return id;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
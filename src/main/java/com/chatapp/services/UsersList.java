@@ -1,36 +1,454 @@
-// used by controller to add and remove users and to broadcast the list of online users.
+// used by controller to add and remove users and to broadcast presence changes.
 
 package com.chatapp.services;
 
+import com.chatapp.cluster.ClusterNode;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Tracks who is online and publishes changes as versioned deltas on
+ * /topic/presence, e.g. {"version": 42, "joined": ["alice"], "left": []}.
+ *
+ * Presence is keyed by WebSocket session: each session is bound to at most
+ * one user and a user is online while at least one of their sessions is
+ * (a reference count per user), so closing one of two tabs keeps them
+ * online. Sessions end on disconnect or, if that never arrives, when no
+ * frame (heartbeats included) has been seen for the session timeout. A
+ * timer wheel finds those sessions without scanning all of them.
+ *
+ * Changes are coalesced over a short window, so a reconnect storm turns into
+ * a few deltas instead of one message per event, and a user who drops and
+ * comes back within the window produces no delta at all. Every published
+ * delta increments the version by one; a client that sees a gap fetches a
+ * full snapshot (see {@link #snapshot()}) and continues from its version.
+ *
+ * In a cluster every node publishes the users of its own sessions to the
+ * cluster-internal "presence" destination whenever they change and every few seconds as a
+ * heartbeat; a user is online if any node has them. Each node numbers its
+ * deltas on its own topic (/topic/presence.{nodeId}), which the snapshot
+ * names, so clients never mix two version sequences. A node that stops
+ * sending heartbeats is dropped after three missed ones.
+ *
+ * Usernames are normalized and, for accounts, held as the canonical
+ * instances from the {@link UsernameDictionary}, so sessions, counts and
+ * pending changes all share one String per user. Names are only looked up
+ * there, never added, as they come from clients.
+ */
 @Service
 public class UsersList {
 
-    private final Set<String> onlineUsers = ConcurrentHashMap.newKeySet();
+    private static final Logger logger = LoggerFactory.getLogger(UsersList.class);
 
-    //call when user connects
-    public void userConnect(String username){
-        if (username != null && !username.isBlank()){
-            onlineUsers.add(username);
+    public static final String PRESENCE_TOPIC = "/topic/presence";
+
+    private static final long SWEEP_TICK_MILLIS = 1000;
+    private static final long CLUSTER_HEARTBEAT_MILLIS = 5000;
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ClusterNode clusterNode;
+    private final UsernameDictionary usernames;
+    private final String presenceTopic;
+    private final Duration coalesceWindow;
+    private final long sessionTimeoutMillis;
+
+    // read lock-free by touch(); added and removed under lock
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    // a lock rather than a monitor: flush() hands deltas to the broker while
+    // holding it, which would pin a virtual thread's carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Timer lockWaits;
+    // all guarded by lock
+    private final Map<String, Integer> sessionsPerUser = new HashMap<>();
+    // users changed since the last delta -> whether they were online at the last delta
+    private final Map<String, Boolean> pending = new LinkedHashMap<>();
+    private final TimerWheel<String> expiry;
+    private long version;
+    // other nodes' users (clustered only)
+    private final Map<String, RemoteNode> remoteNodes = new HashMap<>();
+    private final Map<String, Integer> remoteNodesPerUser = new HashMap<>();
+    // users online on any node; written under lock, read by the gauge
+    private volatile int onlineCount;
+    private boolean localUsersChanged;
+    private long lastClusterPublish;
+
+    private ScheduledExecutorService scheduler;
+
+    private static final class Session {
+        private String username; // guarded by UsersList.lock
+        private volatile long lastSeen;
+
+        Session(long now) {
+            this.lastSeen = now;
+        }
+    }
+
+    private static final class RemoteNode {
+        private Set<String> users = new HashSet<>();
+        private long lastSeen;
+    }
+
+    public UsersList(SimpMessagingTemplate messagingTemplate, ClusterNode clusterNode, UsernameDictionary usernames,
+            MeterRegistry meterRegistry,
+            @Value("${chatapp.presence.coalesce-window:200ms}") Duration coalesceWindow,
+            @Value("${chatapp.presence.session-timeout:30s}") Duration sessionTimeout) {
+        this.messagingTemplate = messagingTemplate;
+        this.clusterNode = clusterNode;
+        this.usernames = usernames;
+        this.presenceTopic = clusterNode.isClustered()
+                ? PRESENCE_TOPIC + "." + clusterNode.getNodeId()
+                : PRESENCE_TOPIC;
+        this.coalesceWindow = coalesceWindow;
+        this.sessionTimeoutMillis = sessionTimeout.toMillis();
+        this.expiry = new TimerWheel<>(SWEEP_TICK_MILLIS, 64, System.currentTimeMillis());
+        this.lockWaits = LockWaits.timer(meterRegistry, "presence");
+        Gauge.builder("chatapp.presence.online.users", this, users -> users.onlineCount)
+                .description("Users online on any node")
+                .register(meterRegistry);
+        Gauge.builder("chatapp.presence.sessions", this, UsersList::sessionCount)
+                .description("WebSocket sessions tracked on this node")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = Math.max(1, coalesceWindow.toMillis());
+        scheduler.scheduleWithFixedDelay(this::flush, millis, millis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_TICK_MILLIS, SWEEP_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
         }
     }
-    //call when user disconnects
-    public void userDisconnect(String username){
-        if(username != null && !username.isBlank()){
-            onlineUsers.remove(username);
+
+    //call when a websocket session opens; username may be null until the client sends /app/connect
+    public void sessionOpened(String sessionId, String username) {
+        LockWaits.lock(lock, lockWaits);
+        try {
+            if (sessionId == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            Session session = sessions.computeIfAbsent(sessionId, id -> new Session(now));
+            session.lastSeen = now;
+            expiry.schedule(sessionId, now + sessionTimeoutMillis);
+            bind(session, username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //call when the client announces its user (/app/connect)
+    public void userConnect(String sessionId, String username){
+        sessionOpened(sessionId, username);
+    }
+
+    //call when the client logs out (/app/disconnect); the session itself may stay open
+    public void userDisconnect(String sessionId){
+        LockWaits.lock(lock, lockWaits);
+        try {
+            Session session = sessionId == null ? null : sessions.get(sessionId);
+            if (session != null) {
+                bind(session, null);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //call when a websocket session closes
+    public void sessionClosed(String sessionId) {
+        LockWaits.lock(lock, lockWaits);
+        try {
+            Session session = sessionId == null ? null : sessions.remove(sessionId);
+            if (session != null) {
+                expiry.cancel(sessionId);
+                bind(session, null);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Note that a frame arrived on the session. Called for every inbound
+     * frame, so it takes no lock.
+     */
+    public void touch(String sessionId) {
+        Session session = sessionId == null ? null : sessions.get(sessionId);
+        if (session != null) {
+            session.lastSeen = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Replace what this node knows about another node's users; called for
+     * every presence message from the cluster.
+     */
+    public void remotePresence(String nodeId, Collection<String> users) {
+        LockWaits.lock(lock, lockWaits);
+        try {
+            if (nodeId == null || nodeId.equals(clusterNode.getNodeId())) {
+                return;
+            }
+            RemoteNode node = remoteNodes.computeIfAbsent(nodeId, id -> new RemoteNode());
+            node.lastSeen = System.currentTimeMillis();
+            Set<String> current = new HashSet<>();
+            for (String user : users) {
+                String name = usernames.lookup(user);
+                if (name != null) {
+                    current.add(name);
+                }
+            }
+            for (String user : node.users) {
+                if (!current.contains(user)) {
+                    markChanging(user);
+                    leave(remoteNodesPerUser, user);
+                }
+            }
+            for (String user : current) {
+                if (!node.users.contains(user)) {
+                    markChanging(user);
+                    join(remoteNodesPerUser, user);
+                }
+            }
+            node.users = current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publish this node's users to the cluster on the next flush, e.g. after
+     * the broker connection came back.
+     */
+    public void announceLocalUsers() {
+        LockWaits.lock(lock, lockWaits);
+        try {
+            localUsersChanged = true;
+        } finally {
+            lock.unlock();
         }
     }
 
     //return online users
     public List<String> getOnlineUsers(){
-        return new ArrayList<>(onlineUsers);
+        LockWaits.lock(lock, lockWaits);
+        try {
+            return new ArrayList<>(onlineUsers());
+        } finally {
+            lock.unlock();
+        }
     }
 
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Full presence state: {"version": n, "users": [...]}, exactly the state
+     * after delta n. Pending changes are published first so that holds;
+     * clients skip deltas they receive with a version of n or lower.
+     */
+    public Map<String, Object> snapshot() {
+        LockWaits.lock(lock, lockWaits);
+        try {
+            flush();
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("version", version);
+            body.put("users", new ArrayList<>(onlineUsers()));
+            body.put("topic", presenceTopic);
+            return body;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Expire sessions that have been silent for the session timeout. Only
+     * sessions whose deadline came due are looked at; those that were
+     * touched since are simply rescheduled.
+     */
+    public void sweep() {
+        LockWaits.lock(lock, lockWaits);
+        try {
+            long now = System.currentTimeMillis();
+            for (String sessionId : expiry.advance(now)) {
+                Session session = sessions.get(sessionId);
+                if (session == null) {
+                    continue;
+                }
+                long deadline = session.lastSeen + sessionTimeoutMillis;
+                if (deadline > now) {
+                    expiry.schedule(sessionId, deadline);
+                } else {
+                    logger.info("Presence session {} of {} expired", sessionId, session.username);
+                    sessions.remove(sessionId);
+                    bind(session, null);
+                }
+            }
+            if (clusterNode.isClustered()) {
+                expireRemoteNodes(now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void expireRemoteNodes(long now) {
+        for (Iterator<Map.Entry<String, RemoteNode>> it = remoteNodes.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, RemoteNode> entry = it.next();
+            if (now - entry.getValue().lastSeen > 3 * CLUSTER_HEARTBEAT_MILLIS) {
+                logger.info("Presence of node {} expired", entry.getKey());
+                for (String user : entry.getValue().users) {
+                    markChanging(user);
+                    leave(remoteNodesPerUser, user);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Publish everything that changed since the last delta, if anything did.
+     */
+    public void flush() {
+        LockWaits.lock(lock, lockWaits);
+        try {
+            if (clusterNode.isClustered()) {
+                publishLocalUsers();
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            for (Map.Entry<String, Boolean> entry : pending.entrySet()) {
+                boolean online = isOnline(entry.getKey());
+                if (online && !entry.getValue()) {
+                    joined.add(entry.getKey());
+                } else if (!online && entry.getValue()) {
+                    left.add(entry.getKey());
+                }
+            }
+            pending.clear();
+            if (joined.isEmpty() && left.isEmpty()) {
+                return;
+            }
+            version++;
+            Map<String, Object> delta = new LinkedHashMap<>();
+            delta.put("version", version);
+            delta.put("joined", joined);
+            delta.put("left", left);
+            // sent under the lock so deltas reach the broker in version order
+            messagingTemplate.convertAndSend(presenceTopic, delta);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // tell the other nodes about our users, on change and as a heartbeat
+    private void publishLocalUsers() {
+        long now = System.currentTimeMillis();
+        if (!localUsersChanged && now - lastClusterPublish < CLUSTER_HEARTBEAT_MILLIS) {
+            return;
+        }
+        localUsersChanged = false;
+        lastClusterPublish = now;
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("node", clusterNode.getNodeId());
+        state.put("users", new ArrayList<>(sessionsPerUser.keySet()));
+        messagingTemplate.convertAndSend(clusterNode.destination("presence"), state);
+    }
+
+    private boolean isOnline(String user) {
+        return sessionsPerUser.containsKey(user) || remoteNodesPerUser.containsKey(user);
+    }
 
+    private Set<String> onlineUsers() {
+        Set<String> users = new TreeSet<>(sessionsPerUser.keySet());
+        users.addAll(remoteNodesPerUser.keySet());
+        return users;
+    }
+
+    // remember whether a user was online before the first change since the last delta
+    private void markChanging(String user) {
+        pending.putIfAbsent(user, isOnline(user));
+    }
+
+    // one more session (or node) of a user; returns their count in counts
+    private int join(Map<String, Integer> counts, String user) {
+        boolean wasOnline = isOnline(user);
+        int count = counts.merge(user, 1, Integer::sum);
+        if (!wasOnline) {
+            onlineCount++;
+        }
+        return count;
+    }
+
+    private void leave(Map<String, Integer> counts, String user) {
+        decrement(counts, user);
+        if (!isOnline(user)) {
+            onlineCount--;
+        }
+    }
+
+    private static void decrement(Map<String, Integer> counts, String key) {
+        if (counts.merge(key, -1, Integer::sum) <= 0) {
+            counts.remove(key);
+        }
+    }
+
+    // move a session from its current user (if any) to another (or none)
+    private void bind(Session session, String username) {
+        username = usernames.lookup(username);
+        if (username == null ? session.username == null : username.equals(session.username)) {
+            return;
+        }
+        if (session.username != null) {
+            String previous = session.username;
+            markChanging(previous);
+            leave(sessionsPerUser, previous);
+            localUsersChanged |= !sessionsPerUser.containsKey(previous);
+        }
+        session.username = username;
+        if (username != null) {
+            markChanging(username);
+            localUsersChanged |= join(sessionsPerUser, username) == 1;
+        }
+    }
 }
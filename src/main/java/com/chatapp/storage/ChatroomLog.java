@@ -0,0 +1,429 @@
+package com.chatapp.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log for a single chatroom, split into segment files named by
+ * the offset of their first record (e.g. 00000000000000000000.log).
+ *
+ * Appends always go to the newest segment; a new one is started once the
+ * active segment exceeds the configured size or age.
+ *
+ * A log has a single writer at a time: appends take the log's lock (a
+ * ReentrantLock rather than a monitor, so a virtual thread waiting for it or
+ * doing disk I/O under it does not pin its carrier). Readers never lock. They
+ * read the volatile end offset first and only look at records below it,
+ * which are complete and never change.
+ *
+ * Old records are removed from the head by {@link #applyRetention}, which
+ * takes a separate lock so it never blocks appends. It first raises the
+ * start offset (persisted in log.start), which hides records from readers
+ * immediately, and then drops sealed segments that hold nothing readable.
+ * Dropped segments are closed only on the next pass, so reads that already
+ * started on one can finish.
+ */
+public class ChatroomLog implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ChatroomLog.class);
+
+  static final String SEGMENT_SUFFIX = ".log";
+  static final String START_OFFSET_FILE = "log.start";
+
+  private final Path dir;
+  private final LogOptions options;
+  private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  // moves the head of the log; taken after lock when both are needed
+  private final ReentrantLock headLock = new ReentrantLock();
+  // dropped from the head but maybe still being read; guarded by headLock
+  private final List<LogSegment> retired = new ArrayList<>();
+
+  private volatile long startOffset;
+  private volatile long nextOffset;
+  private volatile boolean deleted;
+
+  private ChatroomLog(Path dir, LogOptions options) {
+    this.dir = dir;
+    this.options = options;
+  }
+
+  /**
+   * Open (or create) the log stored in the given directory. Only the newest
+   * segment can have a torn tail, so only that one is scanned for recovery.
+   */
+  public static ChatroomLog open(Path dir, LogOptions options) throws IOException {
+    Files.createDirectories(dir);
+    ChatroomLog log = new ChatroomLog(dir, options);
+
+    TreeMap<Long, Path> files = new TreeMap<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+      for (Path file : stream) {
+        Long base = parseBaseOffset(file);
+        if (base != null) {
+          files.put(base, file);
+        }
+      }
+    }
+
+    try {
+      for (Map.Entry<Long, Path> entry : files.entrySet()) {
+        boolean newest = entry.getKey().equals(files.lastKey());
+        log.segments.put(entry.getKey(), LogSegment.open(entry.getValue(), entry.getKey(), newest));
+      }
+    } catch (IOException e) {
+      log.close();
+      throw e;
+    }
+
+    if (log.segments.isEmpty()) {
+      log.nextOffset = 0;
+    } else {
+      LogSegment last = log.segments.lastEntry().getValue();
+      log.nextOffset = last.getBaseOffset() + last.getRecordCount();
+    }
+    Path startFile = dir.resolve(START_OFFSET_FILE);
+    if (Files.exists(startFile) && Files.size(startFile) == Long.BYTES) {
+      long start = ByteBuffer.wrap(Files.readAllBytes(startFile)).getLong();
+      log.startOffset = Math.min(start, log.nextOffset);
+    }
+    return log;
+  }
+
+  private static Long parseBaseOffset(Path file) {
+    String name = file.getFileName().toString();
+    try {
+      return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      logger.warn("Ignoring unexpected file in chat log directory: {}", file);
+      return null;
+    }
+  }
+
+  static String segmentFileName(long baseOffset) {
+    return String.format("%020d%s", baseOffset, SEGMENT_SUFFIX);
+  }
+
+  /**
+   * Append a record and return its offset.
+   */
+  public long append(byte[] payload) throws IOException {
+    return append(List.of(payload));
+  }
+
+  /**
+   * Append records in order and return the offset of the first one. Records
+   * that land in the same segment are written with a single write call.
+   */
+  public long append(List<byte[]> payloads) throws IOException {
+    lock.lock();
+    try {
+      if (deleted) {
+        throw new IOException("Chat log was deleted: " + dir);
+      }
+      long first = nextOffset;
+      int i = 0;
+      while (i < payloads.size()) {
+        LogSegment active = activeSegmentForAppend();
+        // take records until the segment would need to roll
+        long projected = active.getSize();
+        int end = i;
+        while (end < payloads.size()
+            && (end == i || projected < options.getMaxSegmentBytes())) {
+          projected += LogSegment.FRAME_OVERHEAD + payloads.get(end).length;
+          end++;
+        }
+        active.append(payloads.subList(i, end));
+        nextOffset += end - i;
+        i = end;
+      }
+      return first;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private LogSegment activeSegmentForAppend() throws IOException {
+    Map.Entry<Long, LogSegment> last = segments.lastEntry();
+    if (last != null && !shouldRoll(last.getValue())) {
+      return last.getValue();
+    }
+    LogSegment segment = LogSegment.create(dir.resolve(segmentFileName(nextOffset)), nextOffset);
+    segments.put(nextOffset, segment);
+    if (last != null) {
+      logger.debug("Rolled chat log {} at offset {}", dir, nextOffset);
+    }
+    return segment;
+  }
+
+  private boolean shouldRoll(LogSegment segment) {
+    if (segment.getRecordCount() == 0) {
+      return false;
+    }
+    if (segment.getSize() >= options.getMaxSegmentBytes()) {
+      return true;
+    }
+    long ageMillis = System.currentTimeMillis() - segment.getCreatedAtMillis();
+    return ageMillis >= options.getMaxSegmentAge().toMillis();
+  }
+
+  /**
+   * Force appended records to disk.
+   */
+  public void flush() throws IOException {
+    lock.lock();
+    try {
+      Map.Entry<Long, LogSegment> last = segments.lastEntry();
+      if (last != null) {
+        last.getValue().flush();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Read the records with offsets in [fromOffset, fromOffset + maxRecords)
+   * that are still held by the log, oldest first. The segment holding
+   * the start offset is found through the segment map and the position inside
+   * it through the segment's sparse index, so the cost depends on the page
+   * size rather than on the length of the history.
+   */
+  public void read(long fromOffset, int maxRecords, RecordConsumer consumer) throws IOException {
+    long committed = nextOffset;
+    Map.Entry<Long, LogSegment> first = segments.firstEntry();
+    if (first == null || maxRecords <= 0) {
+      return;
+    }
+    long from = Math.max(fromOffset, getFirstOffset());
+    long end = Math.min(committed, fromOffset + maxRecords);
+    if (from >= end) {
+      return;
+    }
+    Long segmentBase = segments.floorKey(from);
+    if (segmentBase == null) {
+      return;
+    }
+    for (LogSegment segment : segments.tailMap(segmentBase, true).values()) {
+      long base = segment.getBaseOffset();
+      if (base >= end) {
+        break;
+      }
+      int relativeFrom = (int) (Math.max(from, base) - base);
+      segment.read(relativeFrom, (relativeOffset, payload) -> {
+        long offset = base + relativeOffset;
+        if (offset >= end) {
+          return false;
+        }
+        consumer.accept(offset, payload);
+        return true;
+      });
+    }
+  }
+
+  /**
+   * Read the last {@code limit} records, oldest first.
+   */
+  public void readTail(int limit, RecordConsumer consumer) throws IOException {
+    long committed = nextOffset;
+    long from = Math.max(getFirstOffset(), committed - limit);
+    read(from, (int) (committed - from), consumer);
+  }
+
+  /**
+   * Offset of the oldest record still readable.
+   */
+  public long getFirstOffset() {
+    long committed = nextOffset;
+    Map.Entry<Long, LogSegment> first = segments.firstEntry();
+    if (first == null) {
+      return committed;
+    }
+    return Math.min(committed, Math.max(startOffset, first.getKey()));
+  }
+
+  /**
+   * Bytes on disk, including records hidden by retention whose segment
+   * has not been dropped yet.
+   */
+  public long getSizeInBytes() {
+    long total = 0;
+    for (LogSegment segment : segments.values()) {
+      total += segment.getSize();
+    }
+    return total;
+  }
+
+  public int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Enforce a retention policy (see {@link RetentionPolicy}) and return how
+   * many records stopped being readable.
+   */
+  public long applyRetention(RetentionPolicy policy, long nowMillis) throws IOException {
+    headLock.lock();
+    try {
+      if (deleted) {
+        return 0;
+      }
+      closeRetired();
+      long before = getFirstOffset();
+      long newStart = before;
+      if (policy.maxCount() > 0) {
+        newStart = Math.max(newStart, nextOffset - policy.maxCount());
+      }
+
+      // every record of a segment is older than the next segment
+      List<LogSegment> all = new ArrayList<>(segments.values());
+      long total = getSizeInBytes();
+      for (int i = 0; i + 1 < all.size(); i++) {
+        LogSegment next = all.get(i + 1);
+        boolean tooOld = policy.maxAgeSeconds() > 0
+            && nowMillis - next.getCreatedAtMillis() >= policy.maxAgeSeconds() * 1000;
+        boolean tooBig = policy.maxBytes() > 0 && total > policy.maxBytes();
+        if (!tooOld && !tooBig) {
+          break;
+        }
+        newStart = Math.max(newStart, next.getBaseOffset());
+        total -= all.get(i).getSize();
+      }
+
+      if (newStart > startOffset) {
+        writeStartOffset(newStart);
+        startOffset = newStart;
+      }
+      dropUnreadableSegments();
+      return getFirstOffset() - before;
+    } finally {
+      headLock.unlock();
+    }
+  }
+
+  private void writeStartOffset(long offset) throws IOException {
+    Path tmp = dir.resolve(START_OFFSET_FILE + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(offset).flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+    Files.move(tmp, dir.resolve(START_OFFSET_FILE), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void dropUnreadableSegments() throws IOException {
+    while (true) {
+      Map.Entry<Long, LogSegment> first = segments.firstEntry();
+      Long nextBase = first == null ? null : segments.higherKey(first.getKey());
+      if (nextBase == null || nextBase > startOffset) {
+        return;
+      }
+      LogSegment segment = first.getValue();
+      segments.remove(first.getKey());
+      retired.add(segment);
+      segment.deleteFiles();
+      logger.debug("Dropped segment {} of chat log {} for retention", first.getKey(), dir);
+    }
+  }
+
+  private void closeRetired() {
+    for (LogSegment segment : retired) {
+      try {
+        segment.close();
+      } catch (IOException e) {
+        logger.warn("Failed to close dropped segment {}: {}", segment.getPath(), e.getMessage());
+      }
+    }
+    retired.clear();
+  }
+
+  /**
+   * Number of records currently in the log.
+   */
+  public long size() {
+    return nextOffset - getFirstOffset();
+  }
+
+  public boolean isDeleted() {
+    return deleted;
+  }
+
+  public long getNextOffset() {
+    return nextOffset;
+  }
+
+  public Path getDirectory() {
+    return dir;
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    headLock.lock();
+    try {
+      closeRetired();
+      IOException failure = null;
+      for (LogSegment segment : segments.values()) {
+        try {
+          segment.close();
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } finally {
+      headLock.unlock();
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Close the log and remove all of its files.
+   */
+  public void delete() throws IOException {
+    lock.lock();
+    headLock.lock();
+    try {
+      deleted = true;
+      close();
+      for (LogSegment segment : segments.values()) {
+        segment.deleteFiles();
+      }
+      segments.clear();
+      Files.deleteIfExists(dir.resolve(START_OFFSET_FILE));
+      Files.deleteIfExists(dir);
+    } finally {
+      headLock.unlock();
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Receives records read from the log.
+   */
+  public interface RecordConsumer {
+    void accept(long offset, byte[] payload) throws IOException;
+  }
+}
@@ -0,0 +1,93 @@
+package com.chatapp.storage;
+
+import com.chatapp.models.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Debugging tool that prints a chatroom log as JSON, one message per line:
+ *
+ * <pre>
+ * java -cp ... com.chatapp.storage.LogExport messages/alice_bob [--from=0] [--limit=100] [--pretty]
+ * </pre>
+ *
+ * Opening a log cuts off a torn tail, like the app does at startup, so run
+ * it against a stopped node or a copy of the directory.
+ */
+public final class LogExport {
+
+  private LogExport() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path dir = null;
+    long from = 0;
+    long limit = Long.MAX_VALUE;
+    boolean pretty = false;
+    for (String arg : args) {
+      if (arg.startsWith("--from=")) {
+        from = Long.parseLong(arg.substring("--from=".length()));
+      } else if (arg.startsWith("--limit=")) {
+        limit = Long.parseLong(arg.substring("--limit=".length()));
+      } else if (arg.equals("--pretty")) {
+        pretty = true;
+      } else if (!arg.startsWith("--") && dir == null) {
+        dir = Paths.get(arg);
+      } else {
+        usage("Unknown argument: " + arg);
+        return;
+      }
+    }
+    if (dir == null || !Files.isDirectory(dir)) {
+      usage(dir == null ? "No chatroom directory given" : "Not a directory: " + dir);
+      return;
+    }
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    if (pretty) {
+      objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+    }
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    export(dir, from, limit, objectMapper, out);
+    out.flush();
+  }
+
+  /**
+   * Write the messages with ids in [from, from + limit) to {@code out}.
+   */
+  static void export(Path dir, long from, long limit, ObjectMapper objectMapper, Writer out) throws IOException {
+    String roomKey = dir.getFileName().toString();
+    String chatroomId = RoomKeys.decode(roomKey);
+    try (ChatroomLog log = ChatroomLog.open(dir, LogOptions.defaults());
+        UserDictionary users = UserDictionary.open(dir.resolve(UserDictionary.FILE_NAME))) {
+      MessageRecordReader reader = new MessageRecordReader(chatroomId == null ? roomKey : chatroomId, users,
+          objectMapper);
+      long end = limit >= log.getNextOffset() - from ? log.getNextOffset() : from + limit;
+      long offset = Math.max(from, log.getFirstOffset());
+      while (offset < end) {
+        int batch = (int) Math.min(end - offset, 1024);
+        log.read(offset, batch, (id, payload) -> {
+          Message message = reader.read(id, payload);
+          out.write(objectMapper.writeValueAsString(message));
+          out.write('\n');
+        });
+        offset += batch;
+      }
+    }
+  }
+
+  private static void usage(String problem) {
+    System.err.println(problem);
+    System.err.println("Usage: LogExport <chatroom log directory> [--from=<id>] [--limit=<count>] [--pretty]");
+    System.exit(2);
+  }
+}
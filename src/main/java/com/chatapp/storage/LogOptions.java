@@ -0,0 +1,54 @@
+package com.chatapp.storage;
+
+import java.time.Duration;
+
+/**
+ * Tuning knobs for chatroom logs.
+ */
+public class LogOptions {
+
+  private final long maxSegmentBytes;
+  private final Duration maxSegmentAge;
+  private final RetentionPolicy retention;
+  private final Duration retentionCheckInterval;
+
+  public LogOptions(long maxSegmentBytes, Duration maxSegmentAge) {
+    this(maxSegmentBytes, maxSegmentAge, RetentionPolicy.UNLIMITED, Duration.ofMinutes(1));
+  }
+
+  /**
+   * @param retention              the policy of rooms without their own
+   * @param retentionCheckInterval how often retention is enforced
+   */
+  public LogOptions(long maxSegmentBytes, Duration maxSegmentAge, RetentionPolicy retention,
+      Duration retentionCheckInterval) {
+    // index entries store positions as ints
+    if (maxSegmentBytes <= LogSegment.HEADER_SIZE || maxSegmentBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("maxSegmentBytes out of range: " + maxSegmentBytes);
+    }
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.maxSegmentAge = maxSegmentAge;
+    this.retention = retention;
+    this.retentionCheckInterval = retentionCheckInterval;
+  }
+
+  public static LogOptions defaults() {
+    return new LogOptions(8L * 1024 * 1024, Duration.ofDays(1));
+  }
+
+  public long getMaxSegmentBytes() {
+    return maxSegmentBytes;
+  }
+
+  public Duration getMaxSegmentAge() {
+    return maxSegmentAge;
+  }
+
+  public RetentionPolicy getRetention() {
+    return retention;
+  }
+
+  public Duration getRetentionCheckInterval() {
+    return retentionCheckInterval;
+  }
+}
@@ -0,0 +1,341 @@
+package com.chatapp.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One append-only segment file of a chatroom log.
+ *
+ * Layout: a fixed header (magic, format version, creation time) followed by
+ * framed records of the form [int length][int crc32][payload]. A record whose
+ * frame is incomplete or whose checksum does not match is treated as a torn
+ * write and cut off when the segment is opened.
+ *
+ * Every {@link #INDEX_INTERVAL}th record is added to a sparse
+ * {@link OffsetIndex}, which lets reads seek close to a given offset instead
+ * of scanning from the start of the segment.
+ */
+public class LogSegment implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(LogSegment.class);
+
+  static final int MAGIC = 0x43484C47; // "CHLG"
+  static final short FORMAT_VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int FRAME_OVERHEAD = 8;
+  static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+  static final int INDEX_INTERVAL = 32;
+
+  private final Path path;
+  private final long baseOffset;
+  private final FileChannel channel;
+  private final long createdAtMillis;
+
+  private OffsetIndex index;
+  // written by the appending thread after the record's bytes, so a reader
+  // that sees a size also sees the records below it
+  private volatile long size;
+  private int recordCount;
+
+  private LogSegment(Path path, long baseOffset, FileChannel channel, long createdAtMillis) {
+    this.path = path;
+    this.baseOffset = baseOffset;
+    this.channel = channel;
+    this.createdAtMillis = createdAtMillis;
+  }
+
+  /**
+   * Create a new, empty segment file.
+   */
+  static LogSegment create(Path path, long baseOffset) throws IOException {
+    FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long now = System.currentTimeMillis();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putShort(FORMAT_VERSION).putShort((short) 0).putLong(now).flip();
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+    LogSegment segment = new LogSegment(path, baseOffset, channel, now);
+    segment.size = HEADER_SIZE;
+    segment.index = OffsetIndex.create(indexPath(path));
+    return segment;
+  }
+
+  /**
+   * Open an existing segment. With {@code recover} set, the segment is
+   * scanned to count its records, rebuild its index and truncate any torn
+   * tail left behind by a crash. Sealed segments only load their index file
+   * (rebuilding it if needed) and report no record count.
+   */
+  static LogSegment open(Path path, long baseOffset, boolean recover) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // keep reading until the header is complete or EOF
+      }
+      header.flip();
+      if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+        throw new IOException("Not a chat log segment: " + path);
+      }
+      short version = header.getShort();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("Unsupported segment version " + version + " in " + path);
+      }
+      header.getShort();
+      LogSegment segment = new LogSegment(path, baseOffset, channel, header.getLong());
+      if (recover) {
+        segment.recover();
+      } else {
+        segment.size = channel.size();
+        segment.recordCount = -1;
+        segment.index = OffsetIndex.load(indexPath(path), segment.size);
+        if (segment.index == null) {
+          logger.info("Rebuilding index for {}", path);
+          segment.recover();
+          segment.recordCount = -1;
+        }
+      }
+      return segment;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  static Path indexPath(Path segmentPath) {
+    String name = segmentPath.getFileName().toString();
+    String base = name.substring(0, name.length() - ChatroomLog.SEGMENT_SUFFIX.length());
+    return segmentPath.resolveSibling(base + OffsetIndex.SUFFIX);
+  }
+
+  private void recover() throws IOException {
+    long fileSize = channel.size();
+    long validEnd = HEADER_SIZE;
+    int count = 0;
+    OffsetIndex rebuilt = OffsetIndex.create(indexPath(path));
+    try (DataInputStream in = openStream(HEADER_SIZE)) {
+      while (true) {
+        byte[] payload = readRecord(in, fileSize - validEnd);
+        if (payload == null) {
+          break;
+        }
+        if (count % INDEX_INTERVAL == 0) {
+          rebuilt.add(count, (int) validEnd);
+        }
+        validEnd += FRAME_OVERHEAD + payload.length;
+        count++;
+      }
+    } catch (IOException e) {
+      rebuilt.close();
+      throw e;
+    }
+    index = rebuilt;
+    if (validEnd < fileSize) {
+      logger.warn("Truncating torn tail of {} from {} to {} bytes", path, fileSize, validEnd);
+      channel.truncate(validEnd);
+    }
+    size = validEnd;
+    recordCount = count;
+  }
+
+  /**
+   * Append one record and return its file position.
+   */
+  long append(byte[] payload) throws IOException {
+    long position = size;
+    append(List.of(payload));
+    return position;
+  }
+
+  /**
+   * Append several records with a single write.
+   */
+  void append(List<byte[]> payloads) throws IOException {
+    int total = 0;
+    for (byte[] payload : payloads) {
+      total += FRAME_OVERHEAD + payload.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(total);
+    long position = size;
+    for (byte[] payload : payloads) {
+      buffer.put(frame(payload));
+    }
+    buffer.flip();
+    long at = position;
+    while (buffer.hasRemaining()) {
+      at += channel.write(buffer, at);
+    }
+    // indexed only once written, so a failed append can simply be retried
+    int count = recordCount;
+    long recordPosition = position;
+    for (byte[] payload : payloads) {
+      if (count % INDEX_INTERVAL == 0) {
+        index.add(count, (int) recordPosition);
+      }
+      recordPosition += FRAME_OVERHEAD + payload.length;
+      count++;
+    }
+    recordCount = count;
+    size = position + total;
+  }
+
+  static ByteBuffer frame(byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    ByteBuffer buffer = ByteBuffer.allocate(FRAME_OVERHEAD + payload.length);
+    buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+    return buffer;
+  }
+
+  void flush() throws IOException {
+    channel.force(false);
+  }
+
+  /**
+   * Stream records starting at the given offset (relative to the base
+   * offset), seeking via the sparse index first.
+   */
+  void read(int fromRelativeOffset, RecordVisitor visitor) throws IOException {
+    long floor = index.floor(fromRelativeOffset);
+    int relativeOffset = floor < 0 ? 0 : (int) (floor >>> 32);
+    long position = floor < 0 ? HEADER_SIZE : (int) floor;
+    long end = size;
+    try (DataInputStream in = openStream(position)) {
+      while (position < end) {
+        byte[] payload = readRecord(in, end - position);
+        if (payload == null) {
+          return;
+        }
+        if (relativeOffset >= fromRelativeOffset && !visitor.visit(relativeOffset, payload)) {
+          return;
+        }
+        position += FRAME_OVERHEAD + payload.length;
+        relativeOffset++;
+      }
+    }
+  }
+
+  private DataInputStream openStream(long position) {
+    InputStream raw = new PositionalInputStream(channel, position);
+    return new DataInputStream(new BufferedInputStream(raw, 64 * 1024));
+  }
+
+  /**
+   * Read one framed record, or return null at end of data or on a torn frame.
+   */
+  private static byte[] readRecord(DataInputStream in, long available) throws IOException {
+    if (available < FRAME_OVERHEAD) {
+      return null;
+    }
+    try {
+      int length = in.readInt();
+      int checksum = in.readInt();
+      if (length < 0 || length > MAX_RECORD_SIZE || length > available - FRAME_OVERHEAD) {
+        return null;
+      }
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      if ((int) crc.getValue() != checksum) {
+        return null;
+      }
+      return payload;
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  long getBaseOffset() {
+    return baseOffset;
+  }
+
+  long getCreatedAtMillis() {
+    return createdAtMillis;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  int getRecordCount() {
+    return recordCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      if (index != null) {
+        index.close();
+      }
+    }
+  }
+
+  /**
+   * Remove the segment and its index from disk. Readers that have the
+   * segment open can go on reading it until it is closed.
+   */
+  void deleteFiles() throws IOException {
+    Files.deleteIfExists(path);
+    Files.deleteIfExists(indexPath(path));
+  }
+
+  /**
+   * Callback for {@link #read}; return false to stop early.
+   */
+  interface RecordVisitor {
+    boolean visit(int relativeOffset, byte[] payload) throws IOException;
+  }
+
+  /**
+   * Reads through positional channel reads so that concurrent scans never
+   * share (or move) the channel position, and closing it leaves the
+   * channel open.
+   */
+  private static final class PositionalInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+
+    PositionalInputStream(FileChannel channel, long position) {
+      this.channel = channel;
+      this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+      if (n > 0) {
+        position += n;
+      }
+      return n;
+    }
+  }
+}
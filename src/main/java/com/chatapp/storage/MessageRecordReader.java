@@ -0,0 +1,153 @@
+package com.chatapp.storage;
+
+import com.chatapp.models.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+
+import static com.chatapp.storage.MessageRecordWriter.CHATROOM_NULL;
+import static com.chatapp.storage.MessageRecordWriter.CHATROOM_TEXT;
+import static com.chatapp.storage.MessageRecordWriter.HAS_TEXT;
+import static com.chatapp.storage.MessageRecordWriter.HAS_USER;
+import static com.chatapp.storage.MessageRecordWriter.TIMESTAMP_MILLIS;
+import static com.chatapp.storage.MessageRecordWriter.TIMESTAMP_TEXT;
+
+/**
+ * Decodes the records written by {@link MessageRecordWriter}, and the JSON
+ * records logs held before it. Thread safe.
+ */
+public class MessageRecordReader {
+
+  private static final byte JSON_FORMAT_START = '{';
+
+  private final String roomId;
+  private final UserDictionary users;
+  private final ObjectMapper objectMapper;
+
+  public MessageRecordReader(String roomId, UserDictionary users, ObjectMapper objectMapper) {
+    this.roomId = roomId;
+    this.users = users;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Decode a stored message. The log offset is authoritative for the id,
+   * which also covers records written before messages carried one.
+   */
+  public Message read(long offset, byte[] payload) throws IOException {
+    if (payload.length == 0) {
+      throw new IOException("Empty record at offset " + offset);
+    }
+    Message message;
+    if (payload[0] == MessageRecordWriter.FORMAT) {
+      message = new Input(payload).message();
+    } else if (payload[0] == JSON_FORMAT_START) {
+      message = objectMapper.readValue(payload, Message.class);
+    } else {
+      throw new IOException("Unknown record format " + payload[0] + " at offset " + offset);
+    }
+    message.setId(offset);
+    return message;
+  }
+
+  /**
+   * Same as {@code Instant.ofEpochMilli(millis).toString()}, formatted by hand
+   * for the years the writer stores as millis.
+   */
+  static String formatMillis(long millis) {
+    LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(millis, 86_400_000L));
+    if (date.getYear() > 9999) {
+      return Instant.ofEpochMilli(millis).toString();
+    }
+    int ofDay = (int) Math.floorMod(millis, 86_400_000L);
+    int fraction = ofDay % 1000;
+    char[] chars = new char[fraction == 0 ? 20 : 24];
+    put(chars, 0, date.getYear(), 4);
+    chars[4] = '-';
+    put(chars, 5, date.getMonthValue(), 2);
+    chars[7] = '-';
+    put(chars, 8, date.getDayOfMonth(), 2);
+    chars[10] = 'T';
+    put(chars, 11, ofDay / 3_600_000, 2);
+    chars[13] = ':';
+    put(chars, 14, ofDay / 60_000 % 60, 2);
+    chars[16] = ':';
+    put(chars, 17, ofDay / 1000 % 60, 2);
+    if (fraction != 0) {
+      chars[19] = '.';
+      put(chars, 20, fraction, 3);
+    }
+    chars[chars.length - 1] = 'Z';
+    return new String(chars);
+  }
+
+  private static void put(char[] chars, int at, int value, int width) {
+    for (int i = at + width - 1; i >= at; i--) {
+      chars[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  private final class Input {
+    private final byte[] bytes;
+    private int position = 1;
+
+    Input(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    Message message() throws IOException {
+      int flags = readByte();
+      Message message = new Message();
+      if ((flags & HAS_USER) != 0) {
+        message.setUser(users.nameOf((int) readVarint()));
+      }
+      if ((flags & TIMESTAMP_MILLIS) != 0) {
+        message.setTimestamp(formatMillis(readVarint()));
+      } else if ((flags & TIMESTAMP_TEXT) != 0) {
+        message.setTimestamp(readString());
+      }
+      if ((flags & CHATROOM_TEXT) != 0) {
+        message.setChatroomId(readString());
+      } else if ((flags & CHATROOM_NULL) == 0) {
+        message.setChatroomId(roomId);
+      }
+      if ((flags & HAS_TEXT) != 0) {
+        message.setText(readString());
+      }
+      return message;
+    }
+
+    private int readByte() throws IOException {
+      if (position >= bytes.length) {
+        throw new IOException("Truncated message record");
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    private long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed varint in message record");
+    }
+
+    private String readString() throws IOException {
+      long length = readVarint();
+      if (length > bytes.length - position) {
+        throw new IOException("Truncated message record");
+      }
+      String value = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+      position += (int) length;
+      return value;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package com.chatapp.storage;
+
+import com.chatapp.models.Message;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Encodes messages as compact binary log records (format 2):
+ *
+ * <pre>
+ * byte    format (2)
+ * byte    flags
+ * varint  user id in the room's {@link UserDictionary}   if HAS_USER
+ * varint  timestamp as epoch millis                        if TIMESTAMP_MILLIS
+ * string  timestamp as text                                if TIMESTAMP_TEXT
+ * string  chatroomId                                       if CHATROOM_TEXT
+ * string  text (varint byte length, then utf-8)            if HAS_TEXT
+ * </pre>
+ *
+ * The id is not stored, it is the record's offset. The chatroomId is only
+ * stored when it differs from the id of the room the log belongs to, which
+ * in practice is never. Timestamps that do not survive the trip through
+ * epoch millis (sub millisecond precision, other formats) are kept as text,
+ * so encoding is lossless. Format 1 records, plain JSON, start with '{' and
+ * are still read by {@link MessageRecordReader}.
+ *
+ * Not thread safe; each room's writer thread uses its own instance.
+ */
+public class MessageRecordWriter {
+
+  static final byte FORMAT = 2;
+
+  static final int HAS_USER = 1;
+  static final int TIMESTAMP_MILLIS = 1 << 1;
+  static final int TIMESTAMP_TEXT = 1 << 2;
+  static final int CHATROOM_TEXT = 1 << 3;
+  static final int CHATROOM_NULL = 1 << 4;
+  static final int HAS_TEXT = 1 << 5;
+
+  private final String roomId;
+  private final UserDictionary users;
+  private byte[] buffer = new byte[256];
+  private int position;
+
+  public MessageRecordWriter(String roomId, UserDictionary users) {
+    this.roomId = roomId;
+    this.users = users;
+  }
+
+  /**
+   * Encode one message. May add its author to the user dictionary.
+   */
+  public byte[] write(Message message) throws IOException {
+    position = 0;
+    int flags = 0;
+    String user = message.getUser();
+    if (user != null) {
+      flags |= HAS_USER;
+    }
+    long millis = -1;
+    String timestamp = message.getTimestamp();
+    if (timestamp != null) {
+      millis = epochMillis(timestamp);
+      flags |= millis >= 0 ? TIMESTAMP_MILLIS : TIMESTAMP_TEXT;
+    }
+    String chatroomId = message.getChatroomId();
+    if (chatroomId == null) {
+      flags |= CHATROOM_NULL;
+    } else if (!chatroomId.equals(roomId)) {
+      flags |= CHATROOM_TEXT;
+    }
+    if (message.getText() != null) {
+      flags |= HAS_TEXT;
+    }
+
+    writeByte(FORMAT);
+    writeByte(flags);
+    if ((flags & HAS_USER) != 0) {
+      writeVarint(users.idOf(user));
+    }
+    if ((flags & TIMESTAMP_MILLIS) != 0) {
+      writeVarint(millis);
+    } else if ((flags & TIMESTAMP_TEXT) != 0) {
+      writeString(timestamp);
+    }
+    if ((flags & CHATROOM_TEXT) != 0) {
+      writeString(chatroomId);
+    }
+    if ((flags & HAS_TEXT) != 0) {
+      writeString(message.getText());
+    }
+    return Arrays.copyOf(buffer, position);
+  }
+
+  /**
+   * Epoch millis of a timestamp in the form {@link Instant#toString} gives
+   * for a millisecond instant after 1970, i.e. 2025-11-11T21:15:00Z or
+   * 2025-11-11T21:15:00.123Z, or -1 for anything else. Parsed by hand since
+   * DateTimeFormatter would cost more than encoding the rest of the record.
+   */
+  static long epochMillis(String timestamp) {
+    int length = timestamp.length();
+    if ((length != 20 && length != 24) || timestamp.charAt(length - 1) != 'Z'
+        || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-' || timestamp.charAt(10) != 'T'
+        || timestamp.charAt(13) != ':' || timestamp.charAt(16) != ':') {
+      return -1;
+    }
+    int year = digits(timestamp, 0, 4);
+    int month = digits(timestamp, 5, 2);
+    int day = digits(timestamp, 8, 2);
+    int hour = digits(timestamp, 11, 2);
+    int minute = digits(timestamp, 14, 2);
+    int second = digits(timestamp, 17, 2);
+    int millis = 0;
+    if (length == 24) {
+      millis = timestamp.charAt(19) == '.' ? digits(timestamp, 20, 3) : -1;
+      if (millis == 0) {
+        return -1; // Instant.toString would leave out ".000"
+      }
+    }
+    if (year < 1970 || month < 0 || day < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+        || second < 0 || second > 59 || millis < 0) {
+      return -1;
+    }
+    try {
+      long days = LocalDate.of(year, month, day).toEpochDay();
+      return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + millis;
+    } catch (DateTimeException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * The decimal value of {@code count} ASCII digits, or -1 if any is not a digit.
+   */
+  private static int digits(String s, int from, int count) {
+    int value = 0;
+    for (int i = from; i < from + count; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private void ensure(int extra) {
+    if (position + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+    }
+  }
+
+  private void writeByte(int b) {
+    ensure(1);
+    buffer[position++] = (byte) b;
+  }
+
+  private void writeVarint(long value) {
+    ensure(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[position++] = (byte) value;
+  }
+
+  private void writeString(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(bytes.length);
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+  }
+}
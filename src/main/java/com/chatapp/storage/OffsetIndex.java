@@ -0,0 +1,139 @@
+package com.chatapp.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sparse index of a log segment: for every Nth record it maps the record's
+ * offset (relative to the segment's base offset) to its file position.
+ * A lookup finds the nearest indexed record at or before the wanted offset,
+ * so reading a page only scans at most N - 1 extra records.
+ *
+ * Entries are kept in memory and mirrored to an .idx file next to the
+ * segment as pairs of ints. The file is a cache: if it is missing or looks
+ * damaged the segment rebuilds it with a scan.
+ *
+ * Only the segment's writer adds entries. Readers look entries up without
+ * locking: the arrays and the entry count are volatile and the count is
+ * written after the entry itself, so a reader that reads the count first
+ * sees every entry below it.
+ */
+class OffsetIndex implements Closeable {
+
+  static final String SUFFIX = ".idx";
+  private static final int ENTRY_SIZE = 8;
+
+  private final Path path;
+  private final FileChannel channel;
+
+  private volatile int[] relativeOffsets = new int[16];
+  private volatile int[] positions = new int[16];
+  private volatile int entries;
+
+  private OffsetIndex(Path path, FileChannel channel) {
+    this.path = path;
+    this.channel = channel;
+  }
+
+  /**
+   * Start an empty index, discarding any existing file.
+   */
+  static OffsetIndex create(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    return new OffsetIndex(path, channel);
+  }
+
+  /**
+   * Load an index file, or return null if it is missing or inconsistent
+   * with a segment of the given size.
+   */
+  static OffsetIndex load(Path path, long segmentSize) throws IOException {
+    if (!Files.exists(path)) {
+      return null;
+    }
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    OffsetIndex index = new OffsetIndex(path, channel);
+    long fileSize = channel.size();
+    if (fileSize % ENTRY_SIZE != 0) {
+      channel.close();
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) fileSize);
+    while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+      // read the whole file
+    }
+    buffer.flip();
+    int lastOffset = -1;
+    int lastPosition = -1;
+    while (buffer.remaining() >= ENTRY_SIZE) {
+      int relativeOffset = buffer.getInt();
+      int position = buffer.getInt();
+      if (relativeOffset <= lastOffset || position <= lastPosition || position >= segmentSize) {
+        channel.close();
+        return null;
+      }
+      index.addInMemory(relativeOffset, position);
+      lastOffset = relativeOffset;
+      lastPosition = position;
+    }
+    return index;
+  }
+
+  void add(int relativeOffset, int position) throws IOException {
+    addInMemory(relativeOffset, position);
+    ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    entry.putInt(relativeOffset).putInt(position).flip();
+    long at = (long) (entries - 1) * ENTRY_SIZE;
+    while (entry.hasRemaining()) {
+      at += channel.write(entry, at);
+    }
+  }
+
+  private void addInMemory(int relativeOffset, int position) {
+    int n = entries;
+    if (n == relativeOffsets.length) {
+      positions = Arrays.copyOf(positions, n * 2);
+      relativeOffsets = Arrays.copyOf(relativeOffsets, n * 2);
+    }
+    relativeOffsets[n] = relativeOffset;
+    positions[n] = position;
+    entries = n + 1;
+  }
+
+  /**
+   * File position of the last indexed record at or before the given
+   * relative offset, packed with that record's offset as
+   * {@code (relativeOffset << 32) | position}, or -1 if there is none.
+   */
+  long floor(int relativeOffset) {
+    int n = entries;
+    int[] offsets = relativeOffsets;
+    int[] filePositions = positions;
+    int i = Arrays.binarySearch(offsets, 0, n, relativeOffset);
+    int entry = i >= 0 ? i : -i - 2;
+    if (entry < 0) {
+      return -1;
+    }
+    return ((long) offsets[entry] << 32) | (filePositions[entry] & 0xFFFFFFFFL);
+  }
+
+  int size() {
+    return entries;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
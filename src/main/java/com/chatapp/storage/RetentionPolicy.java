@@ -0,0 +1,36 @@
+package com.chatapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Duration;
+
+/**
+ * How much history a chatroom log keeps. A limit of 0 means unlimited.
+ *
+ * - maxAgeSeconds: segments whose messages are all older than this are
+ *   dropped, so a message can outlive the limit by up to the segment
+ *   max age;
+ * - maxCount: only the newest maxCount messages stay readable (exact);
+ *   their segments are dropped once no readable message is left in them;
+ * - maxBytes: the oldest segments are dropped while the log is larger,
+ *   never the one being appended to.
+ */
+public record RetentionPolicy(long maxAgeSeconds, long maxCount, long maxBytes) {
+
+  public static final RetentionPolicy UNLIMITED = new RetentionPolicy(0, 0, 0);
+
+  public RetentionPolicy {
+    if (maxAgeSeconds < 0 || maxCount < 0 || maxBytes < 0) {
+      throw new IllegalArgumentException("Retention limits must not be negative");
+    }
+  }
+
+  public static RetentionPolicy of(Duration maxAge, long maxCount, long maxBytes) {
+    return new RetentionPolicy(maxAge.toSeconds(), maxCount, maxBytes);
+  }
+
+  @JsonIgnore
+  public boolean isUnlimited() {
+    return maxAgeSeconds == 0 && maxCount == 0 && maxBytes == 0;
+  }
+}
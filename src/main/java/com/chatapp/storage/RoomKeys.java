@@ -0,0 +1,69 @@
+package com.chatapp.storage;
+
+import java.util.HexFormat;
+
+/**
+ * Maps chatroom ids onto the names of their log directories and back.
+ *
+ * ASCII letters, digits and '-' are kept as they are; every other
+ * character, '_' included, is escaped as "_xx" (its code in hex) or, past
+ * ASCII, "_uxxxx". No two ids share a key, keys are safe file names on any
+ * file system, and ids made of plain names stay readable.
+ */
+public final class RoomKeys {
+
+  private static final HexFormat HEX = HexFormat.of();
+
+  private RoomKeys() {
+  }
+
+  public static String encode(String chatroomId) {
+    StringBuilder sb = new StringBuilder(chatroomId.length());
+    for (int i = 0; i < chatroomId.length(); i++) {
+      char c = chatroomId.charAt(i);
+      if (isSafe(c)) {
+        sb.append(c);
+      } else if (c < 0x80) {
+        sb.append('_').append(HEX.toHexDigits((byte) c));
+      } else {
+        sb.append("_u").append(HEX.toHexDigits(c));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The chatroom id a key was made from, or null if {@link #encode} never
+   * produces {@code key}.
+   */
+  public static String decode(String key) {
+    StringBuilder sb = new StringBuilder(key.length());
+    int i = 0;
+    while (i < key.length()) {
+      char c = key.charAt(i);
+      if (c != '_') {
+        sb.append(c);
+        i++;
+        continue;
+      }
+      int start = key.startsWith("u", i + 1) ? i + 2 : i + 1;
+      int end = start + (start == i + 2 ? 4 : 2);
+      if (end > key.length()) {
+        return null;
+      }
+      try {
+        sb.append((char) HEX.fromHexDigits(key, start, end));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+      i = end;
+    }
+    String chatroomId = sb.toString();
+    // rejects unescaped characters and escapes that did not need to be
+    return encode(chatroomId).equals(key) ? chatroomId : null;
+  }
+
+  private static boolean isSafe(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-';
+  }
+}
@@ -0,0 +1,522 @@
+package com.chatapp.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * In-memory inverted index of one chatroom: token -> ids of the messages
+ * containing it. Ids are added in increasing order, so each posting list is
+ * stored as varint-encoded gaps in a byte array, usually one or two bytes
+ * per posting. Every {@value #BLOCK} postings start a block whose first id
+ * and byte position are kept aside, so a search can decode a list from the
+ * newest block back and find any id by binary search over the blocks.
+ *
+ * The index is saved as a snapshot next to the log (written to a temporary
+ * file and renamed into place) together with the next id it expects. After
+ * a crash it is behind the log, and the owner catches up by indexing only
+ * the missing tail; a full rebuild is needed only when the file is missing
+ * or unreadable.
+ *
+ * One thread adds at a time (the room's writer); searches and saves take
+ * the read lock and run concurrently with each other. A save holds the lock
+ * only while copying the index into a buffer, not while writing the file.
+ */
+public class SearchIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+
+  public static final String FILE_NAME = "search.idx";
+
+  static final int MAGIC = 0x43485349; // "CHSI"
+  static final short FORMAT_VERSION = 1;
+  static final int MAX_TOKEN_LENGTH = 64;
+  static final int BLOCK = 128;
+
+  private final Path path;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  // serializes saving and deleting the file; never taken by add or search
+  private final ReentrantLock fileLock = new ReentrantLock();
+  private final Map<String, Postings> postings = new HashMap<>(); // guarded by lock
+  private long nextId; // guarded by lock
+  private volatile boolean dirty;
+  private boolean deleted; // guarded by fileLock
+
+  private SearchIndex(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Load the index saved in the given file, or return an empty index (with
+   * {@link #getNextId} 0) if there is none or it cannot be read.
+   */
+  public static SearchIndex open(Path path) throws IOException {
+    SearchIndex index = new SearchIndex(path);
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(path);
+    } catch (NoSuchFileException e) {
+      return index;
+    }
+    try {
+      index.load(ByteBuffer.wrap(bytes));
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Discarding unreadable search index {}: {}", path, e.getMessage());
+      index.postings.clear();
+      index.nextId = 0;
+    }
+    return index;
+  }
+
+  private void load(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 4 + 2 + 8 + 4 + 4) {
+      throw new IOException("File too short");
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), 0, buffer.limit() - 4);
+    if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+      throw new IOException("Checksum mismatch");
+    }
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a search index");
+    }
+    short version = buffer.getShort();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported search index version " + version);
+    }
+    nextId = buffer.getLong();
+    int tokens = buffer.getInt();
+    for (int i = 0; i < tokens; i++) {
+      byte[] token = new byte[buffer.getShort()];
+      buffer.get(token);
+      Postings list = new Postings();
+      list.count = buffer.getInt();
+      list.last = buffer.getLong();
+      list.size = buffer.getInt();
+      list.data = new byte[list.size];
+      buffer.get(list.data);
+      list.indexBlocks();
+      postings.put(new String(token, StandardCharsets.UTF_8), list);
+    }
+  }
+
+  /**
+   * Lowercased runs of letters and digits, each at most
+   * {@value #MAX_TOKEN_LENGTH} characters, without duplicates.
+   */
+  public static Set<String> tokenize(String text) {
+    Set<String> tokens = new LinkedHashSet<>();
+    if (text == null) {
+      return tokens;
+    }
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (word && start < 0) {
+        start = i;
+      } else if (!word && start >= 0) {
+        int end = Math.min(i, start + MAX_TOKEN_LENGTH);
+        tokens.add(text.substring(start, end).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Index a message. Ids must be added in increasing order; an id below
+   * {@link #getNextId} was indexed already and is ignored.
+   */
+  public void add(long id, String text) {
+    lock.writeLock().lock();
+    try {
+      if (id < nextId) {
+        return;
+      }
+      for (String token : tokenize(text)) {
+        postings.computeIfAbsent(token, t -> new Postings()).add(id);
+      }
+      nextId = id + 1;
+      dirty = true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Ids of the messages containing every token of {@code query}, newest
+   * first, at most {@code limit} of them and all at least {@code minId}.
+   */
+  public long[] search(String query, long minId, int limit) {
+    return search(query, minId, limit, id -> true);
+  }
+
+  /**
+   * Like {@link #search(String, long, int)}, but only ids {@code accept}
+   * takes count towards {@code limit}. Walks the rarest token's list from
+   * its newest block back, probing the other lists block by block, and
+   * stops as soon as {@code limit} ids are accepted or the ids fall below
+   * {@code minId}; {@code accept} runs under the read lock.
+   */
+  public long[] search(String query, long minId, int limit, LongPredicate accept) {
+    Set<String> tokens = tokenize(query);
+    if (tokens.isEmpty() || limit <= 0) {
+      return new long[0];
+    }
+    lock.readLock().lock();
+    try {
+      List<Postings> lists = new ArrayList<>(tokens.size());
+      for (String token : tokens) {
+        Postings list = postings.get(token);
+        if (list == null) {
+          return new long[0];
+        }
+        lists.add(list);
+      }
+      lists.sort((a, b) -> Integer.compare(a.count, b.count));
+      Postings rarest = lists.get(0);
+      Cursor[] others = new Cursor[lists.size() - 1];
+      for (int i = 0; i < others.length; i++) {
+        others[i] = new Cursor(lists.get(i + 1));
+      }
+      long[] result = new long[Math.min(limit, rarest.count)];
+      int found = 0;
+      long[] block = new long[BLOCK];
+      for (int b = rarest.blocks() - 1; b >= 0 && found < result.length; b--) {
+        int length = rarest.decodeBlock(b, block);
+        for (int i = length - 1; i >= 0 && found < result.length; i--) {
+          long id = block[i];
+          if (id < minId) {
+            return Arrays.copyOf(result, found);
+          }
+          if (inAll(others, id) && accept.test(id)) {
+            result[found++] = id;
+          }
+        }
+      }
+      return found == result.length ? result : Arrays.copyOf(result, found);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static boolean inAll(Cursor[] cursors, long id) {
+    for (Cursor cursor : cursors) {
+      if (!cursor.contains(id)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Drop the postings of ids below {@code id}, e.g. once retention removed
+   * those messages from the log. Lists that start at or after it are left
+   * as they are; the others are re-encoded from the first block they keep.
+   */
+  public void removeBelow(long id) {
+    lock.writeLock().lock();
+    try {
+      int pruned = 0;
+      for (Iterator<Map.Entry<String, Postings>> it = postings.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<String, Postings> entry = it.next();
+        Postings list = entry.getValue();
+        if (list.last < id) {
+          it.remove();
+          pruned++;
+        } else if (list.blockFirst[0] < id) {
+          entry.setValue(list.from(id));
+          pruned++;
+        }
+      }
+      if (pruned > 0) {
+        dirty = true;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * The id the next added message must have; every lower id is indexed.
+   */
+  public long getNextId() {
+    lock.readLock().lock();
+    try {
+      return nextId;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Number of distinct tokens.
+   */
+  public int tokenCount() {
+    lock.readLock().lock();
+    try {
+      return postings.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Bytes held by posting lists, not counting the per-token overhead.
+   */
+  public long postingBytes() {
+    lock.readLock().lock();
+    try {
+      long total = 0;
+      for (Postings list : postings.values()) {
+        total += list.data.length;
+      }
+      return total;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Write the index to its file if anything was added since the last save.
+   */
+  public void save() throws IOException {
+    fileLock.lock();
+    try {
+      if (dirty && !deleted) {
+        write();
+      }
+    } finally {
+      fileLock.unlock();
+    }
+  }
+
+  private void write() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    lock.readLock().lock();
+    try {
+      dirty = false;
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeShort(FORMAT_VERSION);
+      out.writeLong(nextId);
+      out.writeInt(postings.size());
+      for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+        byte[] token = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        Postings list = entry.getValue();
+        out.writeShort(token.length);
+        out.write(token);
+        out.writeInt(list.count);
+        out.writeLong(list.last);
+        out.writeInt(list.size);
+        out.write(list.data, 0, list.size);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    new DataOutputStream(bytes).writeInt((int) crc.getValue());
+
+    Path tmp = path.resolveSibling(FILE_NAME + ".tmp");
+    try {
+      Files.write(tmp, bytes.toByteArray());
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      dirty = true;
+      throw e;
+    }
+  }
+
+  /**
+   * Remove the index file; the in-memory index must not be used afterwards.
+   */
+  public void delete() throws IOException {
+    fileLock.lock();
+    try {
+      deleted = true;
+      Files.deleteIfExists(path.resolveSibling(FILE_NAME + ".tmp"));
+      Files.deleteIfExists(path);
+    } finally {
+      fileLock.unlock();
+    }
+  }
+
+  /**
+   * Increasing ids as varint gaps from the previous id, with the first id
+   * and byte position of every block.
+   */
+  private static final class Postings {
+    private byte[] data = new byte[4];
+    private int size;
+    private int count;
+    private long last = -1;
+    private long[] blockFirst = new long[1];
+    private int[] blockPosition = new int[1];
+
+    void add(long id) {
+      long gap = count == 0 ? id : id - last;
+      if (count % BLOCK == 0) {
+        int b = count / BLOCK;
+        if (b == blockFirst.length) {
+          blockFirst = Arrays.copyOf(blockFirst, b * 2);
+          blockPosition = Arrays.copyOf(blockPosition, b * 2);
+        }
+        blockFirst[b] = id;
+        blockPosition[b] = size;
+      }
+      if (size + 10 > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, size + 10));
+      }
+      while ((gap & ~0x7FL) != 0) {
+        data[size++] = (byte) ((gap & 0x7F) | 0x80);
+        gap >>>= 7;
+      }
+      data[size++] = (byte) gap;
+      last = id;
+      count++;
+    }
+
+    /**
+     * A copy holding only the ids from {@code id} on.
+     */
+    Postings from(long id) {
+      Postings kept = new Postings();
+      long[] ids = new long[BLOCK];
+      for (int b = Math.max(0, blockOf(id)); b < blocks(); b++) {
+        int length = decodeBlock(b, ids);
+        for (int i = 0; i < length; i++) {
+          if (ids[i] >= id) {
+            kept.add(ids[i]);
+          }
+        }
+      }
+      return kept;
+    }
+
+    int blocks() {
+      return (count + BLOCK - 1) / BLOCK;
+    }
+
+    /**
+     * Decode block {@code b} into {@code ids}; returns how many it holds.
+     */
+    int decodeBlock(int b, long[] ids) {
+      int n = Math.min(BLOCK, count - b * BLOCK);
+      int position = blockPosition[b];
+      long id = blockFirst[b];
+      for (int i = 0; i < n; i++) {
+        long gap = 0;
+        int shift = 0;
+        byte v;
+        do {
+          v = data[position++];
+          gap |= (long) (v & 0x7F) << shift;
+          shift += 7;
+        } while (v < 0);
+        // the block's first gap is relative to the previous block
+        if (i > 0) {
+          id += gap;
+        }
+        ids[i] = id;
+      }
+      return n;
+    }
+
+    /**
+     * The block that would hold {@code id}, or -1 if it is below the first.
+     */
+    int blockOf(long id) {
+      int low = 0;
+      int high = blocks() - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (blockFirst[mid] <= id) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return high;
+    }
+
+    /**
+     * Rebuild the block entries after the data was read from a file.
+     */
+    void indexBlocks() {
+      int blocks = blocks();
+      blockFirst = new long[Math.max(1, blocks)];
+      blockPosition = new int[Math.max(1, blocks)];
+      long id = 0;
+      int position = 0;
+      for (int i = 0; i < count; i++) {
+        int start = position;
+        long gap = 0;
+        int shift = 0;
+        byte v;
+        do {
+          v = data[position++];
+          gap |= (long) (v & 0x7F) << shift;
+          shift += 7;
+        } while (v < 0);
+        id = i == 0 ? gap : id + gap;
+        if (i % BLOCK == 0) {
+          blockFirst[i / BLOCK] = id;
+          blockPosition[i / BLOCK] = start;
+        }
+      }
+    }
+  }
+
+  /**
+   * Membership checks against one list for ids in decreasing order,
+   * keeping the last decoded block.
+   */
+  private static final class Cursor {
+    private final Postings list;
+    private final long[] ids = new long[BLOCK];
+    private int block = -1;
+    private int length;
+
+    Cursor(Postings list) {
+      this.list = list;
+    }
+
+    boolean contains(long id) {
+      if (id > list.last) {
+        return false;
+      }
+      int b = list.blockOf(id);
+      if (b < 0) {
+        return false;
+      }
+      if (b != block) {
+        length = list.decodeBlock(b, ids);
+        block = b;
+      }
+      return Arrays.binarySearch(ids, 0, length, id) >= 0;
+    }
+  }
+}
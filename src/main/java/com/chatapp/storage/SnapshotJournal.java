@@ -0,0 +1,325 @@
+package com.chatapp.storage;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Write-ahead journal for a JSON snapshot file such as users.json.
+ *
+ * Every change is appended as one JSON line to a journal next to the
+ * snapshot ({@code users.json.journal.<generation>}) instead of rewriting the
+ * whole file. A background thread compacts: it starts a new journal
+ * generation, asks the owner for its current state, writes that to a
+ * temporary file and atomically renames it over the snapshot, then deletes
+ * the journals the snapshot covers. On startup the owner loads the snapshot
+ * (see {@link #readSnapshot}) and {@link #replay replays} the remaining
+ * journals.
+ *
+ * A crash between the rename and the deletes leaves journals whose changes
+ * are already in the snapshot, so records must be idempotent (set or
+ * put-if-absent semantics), which makes replaying them again harmless.
+ *
+ * Owners must apply a change to their in-memory state before appending it,
+ * so any record in a compacted generation is part of the state captured
+ * after the rotation.
+ *
+ * @param <R> the journal record type, serialized with Jackson
+ */
+public class SnapshotJournal<R> implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(SnapshotJournal.class);
+
+  private static final String JOURNAL_SUFFIX = ".journal.";
+
+  private final Path snapshotFile;
+  private final ObjectMapper objectMapper;
+  private final Class<R> recordType;
+  private final int compactThreshold;
+
+  // locks rather than monitors: both are held across file I/O, which would
+  // pin a virtual thread's carrier
+  private final ReentrantLock lock = new ReentrantLock();
+  // guarded by lock
+  private FileChannel channel;
+  private long generation;
+  private int records;
+  private ScheduledExecutorService compactor;
+
+  // serializes compactions; never taken while holding lock
+  private final ReentrantLock compactLock = new ReentrantLock();
+
+  public SnapshotJournal(Path snapshotFile, ObjectMapper objectMapper, Class<R> recordType, int compactThreshold) {
+    this.snapshotFile = snapshotFile;
+    this.objectMapper = objectMapper;
+    this.recordType = recordType;
+    this.compactThreshold = compactThreshold;
+  }
+
+  /**
+   * Stream the elements of the snapshot, a JSON array, to {@code consumer}
+   * one at a time, so loading never holds the file or the whole list in
+   * memory. A missing or empty snapshot has no elements.
+   *
+   * @return the number of elements read
+   */
+  public <T> long readSnapshot(Class<T> elementType, Consumer<T> consumer) throws IOException {
+    if (!Files.exists(snapshotFile)) {
+      return 0;
+    }
+    try (JsonParser parser = objectMapper.createParser(snapshotFile.toFile())) {
+      JsonToken token = parser.nextToken();
+      if (token == null || token == JsonToken.VALUE_NULL) {
+        return 0;
+      }
+      if (token != JsonToken.START_ARRAY) {
+        throw new IOException(snapshotFile + " does not hold a JSON array");
+      }
+      long count = 0;
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        consumer.accept(objectMapper.readValue(parser, elementType));
+        count++;
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Replay every journal left from earlier runs, oldest first, and open a
+   * fresh generation for new records. A torn last line (from a crash in the
+   * middle of an append) is skipped.
+   *
+   * @return the number of records replayed
+   */
+  public int replay(Consumer<R> consumer) throws IOException {
+    lock.lock();
+    try {
+      TreeMap<Long, Path> journals = listJournals();
+      generation = journals.isEmpty() ? 1 : journals.lastKey() + 1;
+      channel = openJournal(generation);
+      int replayed = 0;
+      for (Path journal : journals.values()) {
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+              continue;
+            }
+            R record;
+            try {
+              record = objectMapper.readValue(line, recordType);
+            } catch (IOException e) {
+              logger.warn("Skipping unreadable record in {}: {}", journal, e.getMessage());
+              continue;
+            }
+            consumer.accept(record);
+            replayed++;
+          }
+        }
+      }
+      records = replayed;
+      if (replayed > 0) {
+        logger.info("Replayed {} journal records onto {}", replayed, snapshotFile);
+      }
+      return replayed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Compact every {@code interval} once at least the threshold number of
+   * records has been appended since the last compaction.
+   */
+  public void startCompaction(Duration interval, Supplier<?> state) {
+    lock.lock();
+    try {
+      if (compactor != null) {
+        return;
+      }
+      compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-compactor-" + snapshotFile.getFileName());
+        thread.setDaemon(true);
+        return thread;
+      });
+      long millis = interval.toMillis();
+      compactor.scheduleWithFixedDelay(() -> {
+        try {
+          if (pendingRecords() >= compactThreshold) {
+            compact(state);
+          }
+        } catch (IOException | RuntimeException e) {
+          logger.error("Failed to compact {}: {}", snapshotFile, e.getMessage());
+        }
+      }, millis, millis, TimeUnit.MILLISECONDS);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Append one change. The caller has already applied it in memory.
+   */
+  public void append(R record) throws IOException {
+    byte[] json = objectMapper.writeValueAsBytes(record);
+    ByteBuffer buffer = ByteBuffer.allocate(json.length + 1);
+    buffer.put(json).put((byte) '\n').flip();
+    lock.lock();
+    try {
+      if (channel == null) {
+        throw new IllegalStateException("Journal for " + snapshotFile + " is not open");
+      }
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      records++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int pendingRecords() {
+    lock.lock();
+    try {
+      return records;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Write the owner's current state as the new snapshot and drop the
+   * journals it covers.
+   */
+  public void compact(Supplier<?> state) throws IOException {
+    compactLock.lock();
+    try {
+      long covered;
+      lock.lock();
+      try {
+        if (channel == null) {
+          return;
+        }
+        channel.close();
+        covered = generation;
+        generation++;
+        channel = openJournal(generation);
+        records = 0;
+      } finally {
+        lock.unlock();
+      }
+
+      // Captured after the rotation: every record in the old generations
+      // was applied in memory before it was appended, so it is included.
+      byte[] json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(state.get());
+      Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+      try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer buffer = ByteBuffer.wrap(json);
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        out.force(true);
+      }
+      Files.move(tmp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+      for (Path journal : listJournals().headMap(covered, true).values()) {
+        Files.deleteIfExists(journal);
+      }
+      logger.debug("Compacted {} up to journal generation {}", snapshotFile, covered);
+    } finally {
+      compactLock.unlock();
+    }
+  }
+
+  /**
+   * Stop background compaction, write a final snapshot and close the
+   * journal.
+   */
+  public void close(Supplier<?> state) throws IOException {
+    ScheduledExecutorService executor;
+    lock.lock();
+    try {
+      executor = compactor;
+      compactor = null;
+    } finally {
+      lock.unlock();
+    }
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (pendingRecords() > 0) {
+      compact(state);
+    }
+    close();
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private FileChannel openJournal(long gen) throws IOException {
+    return FileChannel.open(journalPath(gen), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+  }
+
+  private Path journalPath(long gen) {
+    return snapshotFile.resolveSibling(snapshotFile.getFileName() + JOURNAL_SUFFIX + gen);
+  }
+
+  private TreeMap<Long, Path> listJournals() throws IOException {
+    TreeMap<Long, Path> journals = new TreeMap<>();
+    Path dir = snapshotFile.toAbsolutePath().getParent();
+    String prefix = snapshotFile.getFileName() + JOURNAL_SUFFIX;
+    List<Path> candidates = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*")) {
+      stream.forEach(candidates::add);
+    }
+    for (Path file : candidates) {
+      try {
+        journals.put(Long.parseLong(file.getFileName().toString().substring(prefix.length())), file);
+      } catch (NumberFormatException e) {
+        // not one of ours
+      }
+    }
+    return journals;
+  }
+}
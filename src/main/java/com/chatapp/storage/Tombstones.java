@@ -0,0 +1,161 @@
+package com.chatapp.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ids of deleted messages in one chatroom log. Deleting a message appends
+ * its id here instead of touching the log; readers skip tombstoned ids.
+ * The record itself goes away when retention drops its segment, and the
+ * tombstone with it (see {@link #removeBelow}).
+ *
+ * The file is a plain sequence of 8-byte ids. A torn last id is cut off on
+ * open. Lookups never lock.
+ */
+public class Tombstones implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(Tombstones.class);
+
+  public static final String FILE_NAME = "tombstones";
+
+  private final Path path;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final NavigableSet<Long> ids = new ConcurrentSkipListSet<>();
+  private FileChannel channel; // guarded by lock
+
+  private Tombstones(Path path, FileChannel channel) {
+    this.path = path;
+    this.channel = channel;
+  }
+
+  /**
+   * Open (or create) the tombstones stored in the given file.
+   */
+  public static Tombstones open(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Tombstones tombstones = new Tombstones(path, channel);
+    try {
+      long size = channel.size();
+      long complete = size - size % Long.BYTES;
+      if (complete < size) {
+        logger.warn("Truncating torn tail of {} from {} to {} bytes", path, size, complete);
+        channel.truncate(complete);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) complete);
+      while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+        // keep reading until every id is in memory
+      }
+      buffer.flip();
+      while (buffer.remaining() >= Long.BYTES) {
+        tombstones.ids.add(buffer.getLong());
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return tombstones;
+  }
+
+  /**
+   * Record that a message was deleted and force it to disk.
+   *
+   * @return false if it was already deleted
+   */
+  public boolean add(long id) throws IOException {
+    lock.lock();
+    try {
+      if (ids.contains(id)) {
+        return false;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(id).flip();
+      long at = channel.size();
+      while (buffer.hasRemaining()) {
+        at += channel.write(buffer, at);
+      }
+      channel.force(false);
+      ids.add(id);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean contains(long id) {
+    return !ids.isEmpty() && ids.contains(id);
+  }
+
+  /**
+   * Number of deleted ids in [from, to).
+   */
+  public int count(long from, long to) {
+    return from >= to ? 0 : ids.subSet(from, to).size();
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Forget the ids below {@code offset}, i.e. those retention already
+   * removed from the log, by rewriting the file.
+   */
+  public void removeBelow(long offset) throws IOException {
+    lock.lock();
+    try {
+      NavigableSet<Long> kept = ids.tailSet(offset, true);
+      if (kept.size() == ids.size()) {
+        return;
+      }
+      Path tmp = path.resolveSibling(FILE_NAME + ".tmp");
+      try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer buffer = ByteBuffer.allocate(kept.size() * Long.BYTES);
+        for (long id : kept) {
+          buffer.putLong(id);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        out.force(false);
+      }
+      channel.close();
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      ids.headSet(offset, false).clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      channel.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Close and remove the file.
+   */
+  public void delete() throws IOException {
+    close();
+    Files.deleteIfExists(path);
+  }
+}
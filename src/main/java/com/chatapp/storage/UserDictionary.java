@@ -0,0 +1,218 @@
+package com.chatapp.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only list of the usernames that appear in one chatroom log, so
+ * records can store a small int instead of repeating the name. A name's id
+ * is its position in the file and never changes.
+ *
+ * Layout: a header (magic, format version) followed by entries framed like
+ * log records, [int length][int crc32][utf-8 name]. A torn last entry is cut
+ * off on open; that is safe because an entry is always written before any
+ * record that refers to it.
+ *
+ * Only one thread adds names at a time (the room's writer); lookups by id
+ * can come from any thread and never lock. Names read from the file can be
+ * passed through an interner, so rooms share one instance per name.
+ */
+public class UserDictionary implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(UserDictionary.class);
+
+  public static final String FILE_NAME = "users.dict";
+
+  static final int MAGIC = 0x43484455; // "CHDU"
+  static final short FORMAT_VERSION = 1;
+  static final int HEADER_SIZE = 8;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final UnaryOperator<String> interner;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+  // entries [0, count) are set; the array is republished after every add
+  private volatile String[] names = new String[16];
+  private int count; // guarded by lock
+  private long size; // guarded by lock
+
+  private UserDictionary(Path path, FileChannel channel, UnaryOperator<String> interner) {
+    this.path = path;
+    this.channel = channel;
+    this.interner = interner;
+  }
+
+  /**
+   * Open (or create) the dictionary stored in the given file.
+   */
+  public static UserDictionary open(Path path) throws IOException {
+    return open(path, UnaryOperator.identity());
+  }
+
+  /**
+   * Open (or create) the dictionary stored in the given file, passing every
+   * name it holds through {@code interner}, which must return an equal
+   * string.
+   */
+  public static UserDictionary open(Path path, UnaryOperator<String> interner) throws IOException {
+    FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    UserDictionary dictionary = new UserDictionary(path, channel, interner);
+    try {
+      dictionary.load();
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return dictionary;
+  }
+
+  private void load() throws IOException {
+    long fileSize = channel.size();
+    if (fileSize == 0) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putShort(FORMAT_VERSION).putShort((short) 0).flip();
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+      size = HEADER_SIZE;
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) fileSize);
+    while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+      // keep reading until the whole file is in memory
+    }
+    buffer.flip();
+    if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a user dictionary: " + path);
+    }
+    short version = buffer.getShort();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported user dictionary version " + version + " in " + path);
+    }
+    buffer.getShort();
+    long validEnd = HEADER_SIZE;
+    while (buffer.remaining() >= LogSegment.FRAME_OVERHEAD) {
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (length < 0 || length > buffer.remaining()) {
+        break;
+      }
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      addLoaded(interner.apply(new String(bytes, StandardCharsets.UTF_8)));
+      validEnd += LogSegment.FRAME_OVERHEAD + length;
+    }
+    if (validEnd < fileSize) {
+      logger.warn("Truncating torn tail of {} from {} to {} bytes", path, fileSize, validEnd);
+      channel.truncate(validEnd);
+    }
+    size = validEnd;
+  }
+
+  private void addLoaded(String name) {
+    String[] current = names;
+    if (count == current.length) {
+      current = Arrays.copyOf(current, current.length * 2);
+    }
+    current[count] = name;
+    names = current;
+    ids.put(name, count);
+    count++;
+  }
+
+  /**
+   * The id of a name, adding it to the dictionary (and the file) if it is
+   * new. The entry is written but not forced; see {@link #flush}.
+   */
+  public int idOf(String name) throws IOException {
+    Integer id = ids.get(name);
+    if (id != null) {
+      return id;
+    }
+    lock.lock();
+    try {
+      id = ids.get(name);
+      if (id != null) {
+        return id;
+      }
+      ByteBuffer frame = LogSegment.frame(name.getBytes(StandardCharsets.UTF_8));
+      int length = frame.remaining();
+      long at = size;
+      while (frame.hasRemaining()) {
+        at += channel.write(frame, at);
+      }
+      size += length;
+      int added = count;
+      addLoaded(interner.apply(name));
+      return added;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The name stored under an id.
+   *
+   * @throws IOException if no such id was ever written, i.e. the record that
+   *         refers to it is corrupt
+   */
+  public String nameOf(int id) throws IOException {
+    String[] current = names;
+    String name = id >= 0 && id < current.length ? current[id] : null;
+    if (name == null) {
+      throw new IOException("Unknown user id " + id + " in " + path);
+    }
+    return name;
+  }
+
+  /**
+   * Number of names in the dictionary.
+   */
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Force added names to disk. Call before forcing the log, so a durable
+   * record never refers to a name that was lost.
+   */
+  public void flush() throws IOException {
+    channel.force(false);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Close the dictionary and remove its file.
+   */
+  public void delete() throws IOException {
+    close();
+    Files.deleteIfExists(path);
+  }
+}
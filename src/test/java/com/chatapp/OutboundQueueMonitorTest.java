@@ -0,0 +1,88 @@
+package com.chatapp;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueMonitorTest {
+
+  private static Message<byte[]> frameFor(String sessionId) {
+    SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create();
+    headers.setSessionId(sessionId);
+    return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+  }
+
+  @Test
+  void tracksUndeliveredFramesPerSession() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel(executor);
+    OutboundQueueMonitor monitor = new OutboundQueueMonitor(1000);
+    channel.addInterceptor(monitor);
+
+    // a stalled delivery holds every frame behind it in the queue
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch delivered = new CountDownLatch(4);
+    channel.subscribe(message -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      delivered.countDown();
+    });
+
+    channel.send(frameFor("slow"));
+    channel.send(frameFor("slow"));
+    channel.send(frameFor("slow"));
+    channel.send(frameFor("fast"));
+    assertEquals(3, monitor.depth("slow"));
+    Map<String, Object> stats = monitor.stats();
+    assertEquals(4, stats.get("queued"));
+    assertEquals(3, stats.get("maxDepth"));
+    assertEquals("slow", ((List<Map<String, Object>>) stats.get("deepest")).get(0).get("session"));
+
+    release.countDown();
+    assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(0, monitor.depth("slow"));
+    assertEquals(0, monitor.stats().get("queued"));
+    assertEquals(3, monitor.stats().get("highWaterDepth"));
+  }
+
+  @Test
+  void concurrentSendsAndReleasesKeepTheDepthExact() throws Exception {
+    OutboundQueueMonitor monitor = new OutboundQueueMonitor(Integer.MAX_VALUE);
+    Message<byte[]> frame = frameFor("s1");
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      executor.execute(() -> {
+        // the depth keeps dropping to 0, which removes the counter
+        for (int i = 0; i < 50_000; i++) {
+          monitor.preSend(frame, null);
+          monitor.afterMessageHandled(frame, null, null, null);
+        }
+        monitor.preSend(frame, null);
+        done.countDown();
+      });
+    }
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    executor.shutdown();
+    assertEquals(threads, monitor.depth("s1"));
+    assertEquals(threads, monitor.stats().get("queued"));
+  }
+}
@@ -0,0 +1,48 @@
+package com.chatapp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StompMetricsTest {
+
+  private static Message<byte[]> frame(SimpMessageType type, String destination) {
+    SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(type);
+    headers.setDestination(destination);
+    return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+  }
+
+  @Test
+  void normalizesDestinationsWithIds() {
+    assertEquals("/topic/public", StompMetrics.normalize("/topic/public"));
+    assertEquals("/topic/private/{id}", StompMetrics.normalize("/topic/private/alice_bob"));
+    assertEquals("/topic/presence.{node}", StompMetrics.normalize("/topic/presence.node-1"));
+    assertEquals("none", StompMetrics.normalize(null));
+  }
+
+  @Test
+  void countsFanoutPerDestination() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    StompMetrics metrics = new StompMetrics(registry);
+    ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+    channel.addInterceptor(metrics.outbound());
+    channel.subscribe(message -> { });
+
+    channel.send(frame(SimpMessageType.MESSAGE, "/topic/public"));
+    channel.send(frame(SimpMessageType.MESSAGE, "/topic/private/alice_bob"));
+    channel.send(frame(SimpMessageType.MESSAGE, "/topic/private/carol_dave"));
+    channel.send(frame(SimpMessageType.HEARTBEAT, "/topic/public"));
+
+    assertEquals(1, registry.get("chatapp.websocket.fanout").tag("destination", "/topic/public").counter().count());
+    assertEquals(2,
+        registry.get("chatapp.websocket.fanout").tag("destination", "/topic/private/{id}").counter().count());
+    assertNull(registry.find("chatapp.broker.published").counter());
+  }
+}
@@ -0,0 +1,185 @@
+package com.chatapp.cluster;
+
+import com.chatapp.Application;
+import com.chatapp.models.Message;
+import com.chatapp.services.MessageLogService;
+import com.chatapp.services.UsersList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two nodes in relay mode sharing one {@link TestStompBroker}: a message
+ * sent through one node reaches clients of the other and lands in its
+ * history, and presence spans both.
+ */
+class ClusterRelayTest {
+
+  @TempDir
+  Path dir;
+
+  private TestStompBroker broker;
+  private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+  private final List<StompSession> sessions = new ArrayList<>();
+  private final ThreadPoolTaskScheduler clientScheduler = new ThreadPoolTaskScheduler();
+
+  @AfterEach
+  void tearDown() throws Exception {
+    sessions.forEach(StompSession::disconnect);
+    nodes.forEach(ConfigurableApplicationContext::close);
+    clientScheduler.shutdown();
+    if (broker != null) {
+      broker.close();
+    }
+  }
+
+  private ConfigurableApplicationContext startNode(String nodeId) throws Exception {
+    Path home = Files.createDirectories(dir.resolve(nodeId));
+    ConfigurableApplicationContext node = new SpringApplicationBuilder(Application.class)
+        .profiles("relay")
+        // as arguments, so they take precedence over application-relay.properties
+        .run("--server.port=0",
+            "--chatapp.cluster.node-id=" + nodeId,
+            "--chatapp.cluster.nodes=a,b",
+            "--chatapp.broker.relay.port=" + broker.getPort(),
+            "--chatapp.messages.dir=" + home.resolve("messages"),
+            "--chatapp.messages.legacy-dir=" + home,
+            "--chatapp.users.file=" + home.resolve("users.json"),
+            "--chatapp.friends.file=" + home.resolve("friends.json"));
+    nodes.add(node);
+    StompBrokerRelayMessageHandler relay = node.getBean(StompBrokerRelayMessageHandler.class);
+    assertTrue(waitFor(relay::isBrokerAvailable), "node " + nodeId + " never reached the broker");
+    return node;
+  }
+
+  private StompSession connect(ConfigurableApplicationContext node, String username) throws Exception {
+    WebSocketStompClient client = new WebSocketStompClient(
+        new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+    client.setMessageConverter(new MappingJackson2MessageConverter());
+    client.setTaskScheduler(clientScheduler); // for receipts
+    int port = ((WebServerApplicationContext) node).getWebServer().getPort();
+    StompHeaders connectHeaders = new StompHeaders();
+    connectHeaders.add("username", username);
+    StompSession session = client.connectAsync("http://localhost:" + port + "/ws", new WebSocketHttpHeaders(),
+        connectHeaders, new StompSessionHandlerAdapter() {
+        }).get(10, TimeUnit.SECONDS);
+    session.setAutoReceipt(true);
+    sessions.add(session);
+    return session;
+  }
+
+  private static BlockingQueue<Map<?, ?>> subscribe(StompSession session, String destination) throws Exception {
+    BlockingQueue<Map<?, ?>> frames = new LinkedBlockingQueue<>();
+    CountDownLatch subscribed = new CountDownLatch(1);
+    session.subscribe(destination, new StompFrameHandler() {
+      @Override
+      public Type getPayloadType(StompHeaders headers) {
+        return Map.class;
+      }
+
+      @Override
+      public void handleFrame(StompHeaders headers, Object payload) {
+        frames.add((Map<?, ?>) payload);
+      }
+    }).addReceiptTask(subscribed::countDown);
+    assertTrue(subscribed.await(10, TimeUnit.SECONDS), "no receipt for " + destination);
+    return frames;
+  }
+
+  private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 15_000;
+    while (System.currentTimeMillis() < deadline) {
+      if (condition.getAsBoolean()) {
+        return true;
+      }
+      Thread.sleep(50);
+    }
+    return condition.getAsBoolean();
+  }
+
+  @Test
+  void messagesAndPresenceSpanNodes() throws Exception {
+    broker = new TestStompBroker();
+    clientScheduler.initialize();
+    ConfigurableApplicationContext nodeA = startNode("a");
+    ConfigurableApplicationContext nodeB = startNode("b");
+
+    StompSession alice = connect(nodeA, "alice");
+    BlockingQueue<Map<?, ?>> aliceInbox = subscribe(alice, "/topic/messages");
+    StompSession bob = connect(nodeB, "bob");
+    bob.send("/app/message", new Message("bob", "hello from b", null));
+
+    // fanned out by the shared broker to a client of the other node
+    Map<?, ?> received = aliceInbox.poll(10, TimeUnit.SECONDS);
+    assertNotNull(received, "alice never got bob's message");
+    assertEquals("hello from b", received.get("text"));
+
+    // replicated into node a's own history, under the id its clients saw
+    MessageLogService historyA = nodeA.getBean(MessageLogService.class);
+    assertTrue(waitFor(() -> historyA.loadRecent("public", 10).stream()
+        .anyMatch(m -> "hello from b".equals(m.getText()))), "message not replicated to node a");
+    long id = ((Number) received.get("id")).longValue();
+    assertEquals(List.of(id), historyA.loadRecent("public", 10).stream().map(Message::getId).toList());
+    assertEquals(List.of(id), nodeB.getBean(MessageLogService.class).loadRecent("public", 10).stream()
+        .map(Message::getId).toList());
+
+    // clients cannot listen in on node-to-node traffic
+    StompSession eve = connect(nodeA, "eve");
+    CountDownLatch subscribed = new CountDownLatch(1);
+    eve.subscribe(nodeA.getBean(ClusterNode.class).destination("messages"), new StompFrameHandler() {
+      @Override
+      public Type getPayloadType(StompHeaders headers) {
+        return Map.class;
+      }
+
+      @Override
+      public void handleFrame(StompHeaders headers, Object payload) {
+      }
+    }).addReceiptTask(subscribed::countDown);
+    assertTrue(!subscribed.await(2, TimeUnit.SECONDS), "subscribed to a cluster destination");
+    // the node answered with an ERROR frame, which ends the session
+    assertTrue(waitFor(() -> !eve.isConnected()), "eve still connected");
+    sessions.remove(eve);
+
+    // each node sees the other's users
+    UsersList presenceA = nodeA.getBean(UsersList.class);
+    UsersList presenceB = nodeB.getBean(UsersList.class);
+    assertTrue(waitFor(() -> presenceA.getOnlineUsers().containsAll(List.of("alice", "bob"))));
+    assertTrue(waitFor(() -> presenceB.getOnlineUsers().containsAll(List.of("alice", "bob"))));
+
+    bob.disconnect();
+    sessions.remove(bob);
+    assertTrue(waitFor(() -> !presenceA.getOnlineUsers().contains("bob")), "bob still online on node a");
+  }
+}
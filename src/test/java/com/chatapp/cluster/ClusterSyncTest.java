@@ -0,0 +1,160 @@
+package com.chatapp.cluster;
+
+import com.chatapp.models.Message;
+import com.chatapp.services.MessageLogService;
+import com.chatapp.services.MessageWritePipeline;
+import com.chatapp.services.RecentMessageCache;
+import com.chatapp.services.UsernameDictionary;
+import com.chatapp.services.UsersList;
+import com.chatapp.storage.LogOptions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two nodes on an in-memory stand-in for the broker: frames are queued and
+ * handed to every node's cluster subscription, unless the node is cut off.
+ */
+class ClusterSyncTest {
+
+  @TempDir
+  Path dir;
+
+  private final Deque<org.springframework.messaging.Message<?>> frames = new ArrayDeque<>();
+  private final List<Node> nodes = new ArrayList<>();
+
+  private final class Node {
+    final String id;
+    final MessageLogService log;
+    final ClusterSync sync;
+    final List<String> delivered = new ArrayList<>();
+    boolean cutOff;
+
+    Node(String id) throws IOException {
+      this.id = id;
+      ClusterNode clusterNode = new ClusterNode(id, true, List.of("a", "b"), ClusterNode.DEFAULT_DESTINATION_PREFIX);
+      SimpMessagingTemplate template = new SimpMessagingTemplate((frame, timeout) -> {
+        String destination = SimpMessageHeaderAccessor.getDestination(frame.getHeaders());
+        if (clusterNode.isInternal(destination)) {
+          frames.add(frame);
+        } else {
+          delivered.add(destination);
+        }
+        return true;
+      });
+      template.setMessageConverter(new MappingJackson2MessageConverter());
+      Path base = dir.resolve(id);
+      SimpleMeterRegistry registry = new SimpleMeterRegistry();
+      UsernameDictionary usernames = new UsernameDictionary(registry);
+      log = new MessageLogService(new ObjectMapper(), registry, usernames, base, base, LogOptions.defaults(),
+          Duration.ofMinutes(1), new RecentMessageCache(50, Long.MAX_VALUE),
+          new MessageWritePipeline(registry, 16, 16, MessageWritePipeline.Durability.NONE));
+      log.init();
+      UsersList usersList = new UsersList(template, clusterNode, usernames, registry, Duration.ofMillis(200),
+          Duration.ofSeconds(30));
+      sync = new ClusterSync(clusterNode, log, usersList, template, new ObjectMapper(), null);
+      nodes.add(this);
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    for (Node node : nodes) {
+      node.log.close();
+    }
+  }
+
+  @Test
+  void ownerAssignsIdsAndLaggingNodeCatchesUp() throws IOException {
+    Node a = new Node("a");
+    Node b = new Node("b");
+    ClusterNode ownerCheck = new ClusterNode("a", true, List.of("a", "b"), ClusterNode.DEFAULT_DESTINATION_PREFIX);
+    String room = "room_0";
+    for (int i = 1; !ownerCheck.ownerOf(MessageLogService.roomKey(room)).equals("b"); i++) {
+      room = "room_" + i;
+    }
+
+    // sent to the node that does not own the room: forwarded, numbered by b, copied back to a
+    a.sync.deliver(message("one", room), "/topic/private/" + room);
+    deliverFrames();
+    assertEquals(List.of(0L), ids(b.log.loadRecent(room, 10)));
+    assertEquals(List.of(0L), ids(a.log.loadRecent(room, 10)));
+    // only the owner delivers to clients
+    assertEquals(List.of("/topic/private/" + room), b.delivered);
+    assertEquals(List.of(), a.delivered);
+
+    // a misses two messages and one of them is deleted on b meanwhile
+    a.cutOff = true;
+    b.sync.deliver(message("two", room), "/topic/private/" + room);
+    b.sync.deliver(message("three", room), "/topic/private/" + room);
+    deliverFrames();
+    b.log.deleteMessage(room, 1);
+    a.cutOff = false;
+
+    // the next message shows a the gap; it asks b to replay from id 1
+    b.sync.deliver(message("four", room), "/topic/private/" + room);
+    deliverFrames();
+    assertEquals(List.of(0L, 2L, 3L), ids(b.log.loadRecent(room, 10)));
+    assertEquals(ids(b.log.loadRecent(room, 10)), ids(a.log.loadRecent(room, 10)));
+    assertEquals(List.of("one", "three", "four"), texts(a.log.loadRecent(room, 10)));
+    assertEquals(4, a.log.nextId(room));
+  }
+
+  @Test
+  void deletesAreReplicatedById() throws IOException {
+    Node a = new Node("a");
+    Node b = new Node("b");
+    for (String text : List.of("one", "two", "three")) {
+      a.sync.deliver(message(text, "public"), "/topic/messages");
+      deliverFrames();
+    }
+    assertEquals(List.of(0L, 1L, 2L), ids(a.log.loadRecent("public", 10)));
+
+    assertTrue(b.log.deleteMessage("public", 1));
+    b.sync.publishMessageDeleted("public", 1);
+    deliverFrames();
+    assertEquals(List.of("one", "three"), texts(a.log.loadRecent("public", 10)));
+    assertEquals(List.of("one", "three"), texts(b.log.loadRecent("public", 10)));
+  }
+
+  private void deliverFrames() {
+    while (!frames.isEmpty()) {
+      org.springframework.messaging.Message<?> frame = frames.poll();
+      String destination = SimpMessageHeaderAccessor.getDestination(frame.getHeaders());
+      for (Node node : List.copyOf(nodes)) {
+        boolean forNode = destination.endsWith("/messages") || destination.endsWith("/node." + node.id);
+        if (forNode && !node.cutOff) {
+          node.sync.onClusterEvent(frame);
+        }
+      }
+    }
+  }
+
+  private static Message message(String text, String room) {
+    return new Message("alice", text, "2025-11-11T21:15:00Z", room);
+  }
+
+  private static List<Long> ids(List<Message> messages) {
+    return messages.stream().map(Message::getId).toList();
+  }
+
+  private static List<String> texts(List<Message> messages) {
+    return messages.stream().map(Message::getText).toList();
+  }
+}
@@ -0,0 +1,220 @@
+package com.chatapp.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal in-process STOMP 1.2 broker over TCP, standing in for RabbitMQ or
+ * ActiveMQ when testing relay mode: CONNECT, SUBSCRIBE, UNSUBSCRIBE, SEND
+ * fanned out as MESSAGE to every matching subscription, DISCONNECT and
+ * receipts. Destinations match exactly; no heartbeats, no auth, no acks.
+ */
+class TestStompBroker implements Closeable {
+
+  private final ServerSocket serverSocket;
+  private final ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "test-stomp-broker");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final Map<Connection, Boolean> connections = new ConcurrentHashMap<>();
+  private final AtomicLong messageIds = new AtomicLong();
+
+  TestStompBroker() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    threads.execute(this::acceptLoop);
+  }
+
+  int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    for (Connection connection : connections.keySet()) {
+      connection.close();
+    }
+    threads.shutdownNow();
+  }
+
+  private void acceptLoop() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Connection connection = new Connection(serverSocket.accept());
+        connections.put(connection, true);
+        threads.execute(connection::readLoop);
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  private record Frame(String command, Map<String, String> headers, byte[] body) {
+  }
+
+  private final class Connection {
+    private final Socket socket;
+    private final OutputStream out;
+    // subscription id -> destination
+    private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.out = socket.getOutputStream();
+    }
+
+    void readLoop() {
+      try (InputStream in = new BufferedInputStream(socket.getInputStream())) {
+        Frame frame;
+        while ((frame = readFrame(in)) != null) {
+          handle(frame);
+        }
+      } catch (IOException e) {
+        // connection dropped
+      } finally {
+        close();
+      }
+    }
+
+    void handle(Frame frame) throws IOException {
+      Map<String, String> headers = frame.headers();
+      switch (frame.command()) {
+        case "CONNECT", "STOMP" -> send("CONNECTED", Map.of("version", "1.2", "heart-beat", "0,0"), new byte[0]);
+        case "SUBSCRIBE" -> subscriptions.put(headers.get("id"), headers.get("destination"));
+        case "UNSUBSCRIBE" -> subscriptions.remove(headers.get("id"));
+        case "SEND" -> publish(headers.get("destination"), headers.get("content-type"), frame.body());
+        default -> {
+        }
+      }
+      if (headers.containsKey("receipt")) {
+        send("RECEIPT", Map.of("receipt-id", headers.get("receipt")), new byte[0]);
+      }
+      if ("DISCONNECT".equals(frame.command())) {
+        close();
+      }
+    }
+
+    synchronized void send(String command, Map<String, String> headers, byte[] body) throws IOException {
+      StringBuilder head = new StringBuilder(command).append('\n');
+      headers.forEach((name, value) -> head.append(escape(name)).append(':').append(escape(value)).append('\n'));
+      head.append("content-length:").append(body.length).append("\n\n");
+      out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+      out.write(body);
+      out.write(0);
+      out.flush();
+    }
+
+    void close() {
+      connections.remove(this);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+
+  private void publish(String destination, String contentType, byte[] body) {
+    for (Connection connection : connections.keySet()) {
+      for (Map.Entry<String, String> subscription : connection.subscriptions.entrySet()) {
+        if (!subscription.getValue().equals(destination)) {
+          continue;
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("destination", destination);
+        headers.put("subscription", subscription.getKey());
+        headers.put("message-id", String.valueOf(messageIds.incrementAndGet()));
+        if (contentType != null) {
+          headers.put("content-type", contentType);
+        }
+        try {
+          connection.send("MESSAGE", headers, body);
+        } catch (IOException e) {
+          connection.close();
+        }
+      }
+    }
+  }
+
+  private static Frame readFrame(InputStream in) throws IOException {
+    String command;
+    do {
+      command = readLine(in);
+      if (command == null) {
+        return null;
+      }
+    } while (command.isEmpty()); // heartbeats
+    Map<String, String> headers = new LinkedHashMap<>();
+    String line;
+    while ((line = readLine(in)) != null && !line.isEmpty()) {
+      int colon = line.indexOf(':');
+      // the first occurrence of a repeated header wins
+      headers.putIfAbsent(unescape(line.substring(0, colon)), unescape(line.substring(colon + 1)));
+    }
+    byte[] body;
+    if (headers.containsKey("content-length")) {
+      body = in.readNBytes(Integer.parseInt(headers.get("content-length")));
+      in.read(); // NUL
+    } else {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) > 0) {
+        buffer.write(b);
+      }
+      body = buffer.toByteArray();
+    }
+    return new Frame(command, headers, body);
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) {
+        return null;
+      }
+      if (b != '\r') {
+        line.write(b);
+      }
+    }
+    return line.toString(StandardCharsets.UTF_8);
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\n", "\\n").replace(":", "\\c").replace("\r", "\\r");
+  }
+
+  private static String unescape(String value) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' && i + 1 < value.length()) {
+        char next = value.charAt(++i);
+        result.append(switch (next) {
+          case 'n' -> '\n';
+          case 'r' -> '\r';
+          case 'c' -> ':';
+          default -> next;
+        });
+      } else {
+        result.append(c);
+      }
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,454 @@
+package com.chatapp.loadtest;
+
+import com.chatapp.Application;
+import com.chatapp.models.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Drives the chat app with simulated STOMP clients and measures how long a
+ * published message takes to reach its subscribers.
+ *
+ * Unless --url points at a running server, the app is started in this JVM
+ * on a random port with its data in a temporary directory. Each client
+ * registers and logs in over REST, connects to /ws, subscribes to
+ * /topic/messages and to a private room it shares with one other client,
+ * sends /app/connect, and then publishes to /app/message and
+ * /app/private/{chatroomId} at the configured rates.
+ *
+ * Every message carries the time it was due to be sent, so latency
+ * includes any time the sender fell behind its schedule (no coordinated
+ * omission). Only messages due inside the measurement window, after the
+ * warm-up, are counted; a frame that has not arrived when the drain period
+ * ends is reported as dropped.
+ *
+ * Options (all --name=value): clients (10), public-rate and private-rate
+ * (messages per second per client, 1), duration (30s), warmup (5s), drain
+ * (5s), message-bytes (100), url, histogram (file for the full percentile
+ * distribution), max-p99 (fail if exceeded). Anything else is passed on
+ * to the in-process app, e.g. --spring.profiles.active=virtual. The exit
+ * status is non-zero if frames were dropped, errors occurred or max-p99
+ * was exceeded.
+ */
+public class LoadGenerator {
+
+  private static final String USER_PREFIX = "loaduser";
+  private static final String PASSWORD = "load-test-password";
+  private static final String MARKER = "lt|";
+  private static final String PROBE = "probe|";
+  private static final int MAX_ERRORS_SHOWN = 10;
+
+  public record Options(int clients, double publicRate, double privateRate, Duration duration, Duration warmup,
+      Duration drain, int messageBytes, String url, Path histogram, Duration maxP99, List<String> appArgs) {
+
+    public static Options parse(String... args) {
+      int clients = 10;
+      double publicRate = 1;
+      double privateRate = 1;
+      Duration duration = Duration.ofSeconds(30);
+      Duration warmup = Duration.ofSeconds(5);
+      Duration drain = Duration.ofSeconds(5);
+      int messageBytes = 100;
+      String url = null;
+      Path histogram = null;
+      Duration maxP99 = null;
+      List<String> appArgs = new ArrayList<>();
+      for (String arg : args) {
+        int eq = arg.indexOf('=');
+        if (!arg.startsWith("--") || eq < 0) {
+          throw new IllegalArgumentException("Expected --name=value, got " + arg);
+        }
+        String value = arg.substring(eq + 1);
+        switch (arg.substring(2, eq)) {
+          case "clients" -> clients = Integer.parseInt(value);
+          case "public-rate" -> publicRate = Double.parseDouble(value);
+          case "private-rate" -> privateRate = Double.parseDouble(value);
+          case "duration" -> duration = DurationStyle.detectAndParse(value);
+          case "warmup" -> warmup = DurationStyle.detectAndParse(value);
+          case "drain" -> drain = DurationStyle.detectAndParse(value);
+          case "message-bytes" -> messageBytes = Integer.parseInt(value);
+          case "url" -> url = value.isBlank() ? null : value.replaceAll("/+$", "");
+          case "histogram" -> histogram = value.isBlank() ? null : Path.of(value);
+          case "max-p99" -> maxP99 = value.isBlank() ? null : DurationStyle.detectAndParse(value);
+          default -> appArgs.add(arg);
+        }
+      }
+      if (clients < 1) {
+        throw new IllegalArgumentException("clients must be at least 1");
+      }
+      return new Options(clients, publicRate, privateRate, duration, warmup, drain, messageBytes, url, histogram,
+          maxP99, List.copyOf(appArgs));
+    }
+  }
+
+  /**
+   * Counts over the measurement window. Latencies are in microseconds.
+   */
+  public record Report(int clients, Duration measured, long published, long expected, long delivered, long errors,
+      Histogram latency) {
+
+    public long dropped() {
+      return Math.max(0, expected - delivered);
+    }
+
+    public void print(PrintStream out) {
+      double seconds = measured.toMillis() / 1000.0;
+      out.printf("clients     %d%n", clients);
+      out.printf("measured    %.1f s%n", seconds);
+      out.printf("published   %d (%.1f msg/s)%n", published, published / seconds);
+      out.printf("delivered   %d of %d frames (%.1f frames/s)%n", delivered, expected, delivered / seconds);
+      out.printf("dropped     %d%n", dropped());
+      out.printf("errors      %d%n", errors);
+      out.printf("latency ms  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+          millis(50), millis(90), millis(99), millis(99.9), latency.getMaxValue() / 1000.0);
+    }
+
+    private double millis(double percentile) {
+      return latency.getValueAtPercentile(percentile) / 1000.0;
+    }
+  }
+
+  private final Options options;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+  private final Histogram latency = new ConcurrentHistogram(3);
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong expected = new AtomicLong();
+  private final AtomicLong delivered = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private volatile long windowStart = Long.MAX_VALUE;
+  private volatile long windowEnd = Long.MAX_VALUE;
+
+  public LoadGenerator(Options options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = Options.parse(args);
+    Report report = new LoadGenerator(options).run();
+    report.print(System.out);
+    System.out.println();
+    report.latency().outputPercentileDistribution(System.out, 1000.0);
+    if (options.histogram() != null) {
+      try (PrintStream out = new PrintStream(Files.newOutputStream(options.histogram()))) {
+        report.latency().outputPercentileDistribution(out, 1000.0);
+      }
+    }
+    boolean tooSlow = options.maxP99() != null
+        && report.latency().getValueAtPercentile(99) > options.maxP99().toNanos() / 1000;
+    System.exit(report.dropped() > 0 || report.errors() > 0 || tooSlow ? 1 : 0);
+  }
+
+  public Report run() throws Exception {
+    Path home = null;
+    ConfigurableApplicationContext app = null;
+    String baseUrl = options.url();
+    if (baseUrl == null) {
+      home = Files.createTempDirectory("chatapp-loadtest");
+      app = startApp(home);
+      baseUrl = "http://localhost:" + ((WebServerApplicationContext) app).getWebServer().getPort();
+    }
+    ThreadPoolTaskScheduler receipts = new ThreadPoolTaskScheduler();
+    receipts.setThreadNamePrefix("loadtest-receipts-");
+    receipts.initialize();
+    ScheduledExecutorService senders = Executors.newScheduledThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+          Thread thread = new Thread(runnable, "loadtest-sender");
+          thread.setDaemon(true);
+          return thread;
+        });
+    List<StompSession> sessions = new ArrayList<>();
+    try {
+      logIn(baseUrl);
+      WebSocketStompClient client = new WebSocketStompClient(
+          new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+      client.setMessageConverter(new MappingJackson2MessageConverter());
+      client.setTaskScheduler(receipts);
+      for (int i = 0; i < options.clients(); i++) {
+        sessions.add(connect(client, baseUrl, i));
+      }
+
+      String padding = "x".repeat(Math.max(0, options.messageBytes() - 40));
+      long now = System.nanoTime();
+      windowStart = now + options.warmup().toNanos();
+      windowEnd = windowStart + options.duration().toNanos();
+      for (int i = 0; i < options.clients(); i++) {
+        StompSession session = sessions.get(i);
+        String user = USER_PREFIX + i;
+        String room = roomOf(i);
+        int members = partnerOf(i) < options.clients() ? 2 : 1;
+        // a WebSocket session takes one send at a time
+        schedule(senders, options.publicRate(), options.clients(), due -> {
+          synchronized (session) {
+            session.send("/app/message", new Message(user, text(due, padding), null));
+          }
+        });
+        schedule(senders, options.privateRate(), members, due -> {
+          synchronized (session) {
+            session.send("/app/private/" + room, new Message(user, text(due, padding), null, room));
+          }
+        });
+      }
+
+      TimeUnit.NANOSECONDS.sleep(windowEnd - System.nanoTime());
+      senders.shutdownNow();
+      senders.awaitTermination(10, TimeUnit.SECONDS);
+      long drainUntil = System.nanoTime() + options.drain().toNanos();
+      while (delivered.get() < expected.get() && System.nanoTime() < drainUntil) {
+        Thread.sleep(50);
+      }
+      return new Report(options.clients(), options.duration(), published.get(), expected.get(), delivered.get(),
+          errors.get(), latency.copy());
+    } finally {
+      senders.shutdownNow();
+      for (StompSession session : sessions) {
+        if (session.isConnected()) {
+          session.disconnect();
+        }
+      }
+      receipts.shutdown();
+      if (app != null) {
+        app.close();
+      }
+      if (home != null) {
+        deleteRecursively(home);
+      }
+    }
+  }
+
+  private ConfigurableApplicationContext startApp(Path home) {
+    // devtools would restart the app by re-running our main method
+    System.setProperty("spring.devtools.restart.enabled", "false");
+    List<String> args = new ArrayList<>(List.of(
+        "--server.port=0",
+        "--chatapp.messages.dir=" + home.resolve("messages"),
+        "--chatapp.messages.legacy-dir=" + home,
+        "--chatapp.users.file=" + home.resolve("users.json"),
+        "--chatapp.friends.file=" + home.resolve("friends.json"),
+        // the per-message INFO lines would cost more than the messages
+        "--logging.level.com.chatapp=WARN"));
+    args.addAll(options.appArgs());
+    return new SpringApplicationBuilder(Application.class).run(args.toArray(String[]::new));
+  }
+
+  // register (or find) every user and log them in, a few at a time
+  private void logIn(String baseUrl) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < options.clients(); i++) {
+        String user = USER_PREFIX + i;
+        futures.add(pool.submit(() -> {
+          int status = post(baseUrl + "/api/auth/register", user);
+          if (status != 200 && status != 409) {
+            throw new IllegalStateException("Registering " + user + " failed with HTTP " + status);
+          }
+          status = post(baseUrl + "/api/auth/login", user);
+          if (status != 200) {
+            throw new IllegalStateException("Logging in " + user + " failed with HTTP " + status);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  // retries while the password hashing pool is saturated (503)
+  private int post(String url, String user) throws IOException, InterruptedException {
+    byte[] body = objectMapper.writeValueAsBytes(Map.of("username", user, "password", PASSWORD));
+    HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+        .build();
+    for (int attempt = 0; ; attempt++) {
+      int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+      if (status != 503 || attempt == 100) {
+        return status;
+      }
+      Thread.sleep(100);
+    }
+  }
+
+  private StompSession connect(WebSocketStompClient client, String baseUrl, int index) throws Exception {
+    String user = USER_PREFIX + index;
+    StompHeaders connectHeaders = new StompHeaders();
+    connectHeaders.add("username", user);
+    StompSession session = client.connectAsync(baseUrl + "/ws", new WebSocketHttpHeaders(), connectHeaders,
+        new StompSessionHandlerAdapter() {
+          @Override
+          public void handleFrame(StompHeaders headers, Object payload) {
+            // only ERROR frames reach the session handler
+            error(user + " got an ERROR frame: " + headers.getFirst("message"), null);
+          }
+
+          @Override
+          public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+              byte[] payload, Throwable exception) {
+            error(user + " failed to handle a " + command + " frame", exception);
+          }
+
+          @Override
+          public void handleTransportError(StompSession session, Throwable exception) {
+            error(user + " lost its connection", exception);
+          }
+        }).get(30, TimeUnit.SECONDS);
+
+    String room = roomOf(index);
+    CountDownLatch publicProbe = new CountDownLatch(1);
+    CountDownLatch privateProbe = new CountDownLatch(1);
+    session.subscribe("/topic/messages", inbox(user, publicProbe));
+    session.subscribe("/topic/private/" + room, inbox(user, privateProbe));
+    // the simple broker sends no receipts, so wait until our own probes come back
+    awaitProbe(publicProbe, () -> session.send("/app/message", new Message(user, PROBE + user, null)));
+    awaitProbe(privateProbe,
+        () -> session.send("/app/private/" + room, new Message(user, PROBE + user, null, room)));
+    session.send("/app/connect", Map.of("username", user));
+    return session;
+  }
+
+  private static void awaitProbe(CountDownLatch probe, Runnable send) throws InterruptedException {
+    for (int attempt = 0; attempt < 60; attempt++) {
+      send.run();
+      if (probe.await(500, TimeUnit.MILLISECONDS)) {
+        return;
+      }
+    }
+    throw new IllegalStateException("Subscription never became active");
+  }
+
+  private StompFrameHandler inbox(String user, CountDownLatch probe) {
+    return new StompFrameHandler() {
+      @Override
+      public Type getPayloadType(StompHeaders headers) {
+        return Message.class;
+      }
+
+      @Override
+      public void handleFrame(StompHeaders headers, Object payload) {
+        long now = System.nanoTime();
+        String text = ((Message) payload).getText();
+        if (text == null || !text.startsWith(MARKER)) {
+          if ((PROBE + user).equals(text)) {
+            probe.countDown();
+          }
+          return;
+        }
+        long due = Long.parseLong(text.substring(MARKER.length(), text.indexOf('|', MARKER.length())));
+        if (inWindow(due)) {
+          delivered.incrementAndGet();
+          latency.recordValue(Math.max(0, now - due) / 1000);
+        }
+      }
+    };
+  }
+
+  private interface Publisher {
+    void publish(long due);
+  }
+
+  /**
+   * Publish at a fixed rate, starting at a random offset so clients do not
+   * all send at once. Each message is stamped with the time it was due.
+   */
+  private void schedule(ScheduledExecutorService senders, double rate, int subscribers, Publisher publisher) {
+    if (rate <= 0) {
+      return;
+    }
+    long period = (long) (1_000_000_000L / rate);
+    long offset = ThreadLocalRandom.current().nextLong(period);
+    long first = System.nanoTime() + offset;
+    AtomicLong sequence = new AtomicLong();
+    senders.scheduleAtFixedRate(() -> {
+      long due = first + sequence.getAndIncrement() * period;
+      if (inWindow(due)) {
+        published.incrementAndGet();
+        expected.addAndGet(subscribers);
+      }
+      try {
+        publisher.publish(due);
+      } catch (RuntimeException e) {
+        error("Publishing failed", e);
+      }
+    }, offset, period, TimeUnit.NANOSECONDS);
+  }
+
+  // counts every error, prints the first few
+  private void error(String what, Throwable cause) {
+    if (errors.incrementAndGet() <= MAX_ERRORS_SHOWN) {
+      System.err.println(what + (cause == null ? "" : ": " + cause));
+    }
+  }
+
+  private boolean inWindow(long due) {
+    return due >= windowStart && due < windowEnd;
+  }
+
+  private static String text(long due, String padding) {
+    return MARKER + due + "|" + padding;
+  }
+
+  // clients are paired up: 0 with 1, 2 with 3, ...
+  private static int partnerOf(int index) {
+    return index ^ 1;
+  }
+
+  private static String roomOf(int index) {
+    int low = Math.min(index, partnerOf(index));
+    int high = Math.max(index, partnerOf(index));
+    return USER_PREFIX + low + "_" + USER_PREFIX + high;
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package com.chatapp.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A short run of the load generator against an in-process app: every frame
+ * published in the window arrives, and each arrival has a latency.
+ */
+class LoadGeneratorTest {
+
+  @Test
+  void deliversEveryFrameOfAShortRun() throws Exception {
+    LoadGenerator.Options options = LoadGenerator.Options.parse(
+        "--clients=5", "--public-rate=20", "--private-rate=20",
+        "--warmup=1s", "--duration=2s", "--drain=5s");
+    LoadGenerator.Report report = new LoadGenerator(options).run();
+    report.print(System.out);
+
+    assertTrue(report.published() > 0);
+    // 5 clients: two pairs and one client alone in its room
+    assertTrue(report.expected() > report.published());
+    assertEquals(0, report.errors());
+    assertEquals(0, report.dropped());
+    assertEquals(report.delivered(), report.latency().getTotalCount());
+  }
+}
@@ -0,0 +1,185 @@
+package com.chatapp.services;
+
+import com.chatapp.models.Message;
+import com.chatapp.storage.LogOptions;
+import com.chatapp.storage.RetentionPolicy;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatroomTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void retentionPrunesTheSearchIndex() throws IOException {
+    Chatroom room = open(new LogOptions(4096, Duration.ofDays(1)));
+    try {
+      for (int i = 0; i < 1000; i++) {
+        room.stage(new Message("alice", "message " + i + (i < 500 ? " early" : ""), "2025-11-11T21:15:00Z"));
+      }
+      room.writePending(MessageWritePipeline.Durability.NONE);
+      int tokens = room.getSearchIndex().tokenCount();
+      long bytes = room.getSearchIndex().postingBytes();
+
+      assertEquals(700, room.applyRetention(new RetentionPolicy(0, 300, 0), System.currentTimeMillis()));
+      // "early" and the numbers of removed messages are gone, and every list got shorter
+      assertArrayEquals(new long[0], room.getSearchIndex().search("early", 0, 10));
+      assertEquals(tokens - 700 - 1, room.getSearchIndex().tokenCount());
+      assertTrue(room.getSearchIndex().postingBytes() < bytes);
+      assertArrayEquals(new long[] { 999, 998 }, room.getSearchIndex().search("message", 0, 2));
+      assertEquals(300, room.getSearchIndex().search("message", 0, 1000).length);
+    } finally {
+      room.close();
+    }
+
+    // the pruned index is what gets saved
+    Chatroom reopened = open(new LogOptions(4096, Duration.ofDays(1)));
+    try {
+      assertEquals(300, reopened.getSearchIndex().search("message", 0, 1000).length);
+      assertArrayEquals(new long[] { 700 }, reopened.getSearchIndex().search("700", 0, 10));
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  void failedWriteKeepsMessagesQueuedAndRetries() throws Exception {
+    // every record gets its own segment, so blocking the next segment's file name makes the write fail
+    Chatroom room = open(new LogOptions(17, Duration.ofDays(1)));
+    AtomicLong now = new AtomicLong();
+    room.setNanoClock(now::get);
+    long firstBackoff = TimeUnit.MILLISECONDS.toNanos(Chatroom.FIRST_RETRY_BACKOFF_MILLIS);
+    try {
+      room.stage(message("hello first"));
+      assertEquals(1, room.writePending(MessageWritePipeline.Durability.BATCH));
+      Path blocker = Files.createDirectory(dir.resolve("00000000000000000001.log"));
+      room.stage(message("hello second"));
+      room.stage(message("hello third"));
+
+      assertEquals(0, room.writePending(MessageWritePipeline.Durability.BATCH));
+      assertTrue(room.hasFailedWrites());
+      assertEquals(1, room.getLog().getNextOffset());
+      // still readable, but not indexed until written
+      assertEquals(List.of(1L, 2L), room.inFlightFrom(1).stream().map(Message::getId).toList());
+      assertArrayEquals(new long[] { 0 }, room.getSearchIndex().search("hello", 0, 10));
+
+      // the first retry is due after the first backoff, and fails again
+      now.set(firstBackoff - 1);
+      assertEquals(0, room.writePending(MessageWritePipeline.Durability.BATCH));
+      now.set(firstBackoff);
+      assertEquals(0, room.writePending(MessageWritePipeline.Durability.BATCH));
+      assertEquals(1, room.getLog().getNextOffset());
+
+      // the backoff doubles; nothing is tried before it is over
+      Files.delete(blocker);
+      now.set(3 * firstBackoff - 1);
+      assertEquals(0, room.writePending(MessageWritePipeline.Durability.BATCH));
+      assertTrue(room.hasFailedWrites());
+      now.set(3 * firstBackoff);
+      assertEquals(2, room.writePending(MessageWritePipeline.Durability.BATCH));
+      assertFalse(room.hasFailedWrites());
+      assertEquals(List.of(), room.inFlightFrom(0));
+      assertEquals(3, room.getLog().getNextOffset());
+      assertArrayEquals(new long[] { 2, 1, 0 }, room.getSearchIndex().search("hello", 0, 10));
+    } finally {
+      room.close();
+    }
+  }
+
+  @Test
+  void everyDurabilityWritesEverything() throws IOException {
+    for (MessageWritePipeline.Durability durability : MessageWritePipeline.Durability.values()) {
+      Path roomDir = dir.resolve(durability.name());
+      Chatroom room = open(roomDir, UnaryOperator.identity());
+      try {
+        for (int i = 0; i < 10; i++) {
+          room.stage(message("message " + i));
+        }
+        assertEquals(10, room.writePending(durability), durability.name());
+        assertEquals(0, room.writePending(durability), durability.name());
+      } finally {
+        room.close();
+      }
+      Chatroom reopened = open(roomDir, UnaryOperator.identity());
+      try {
+        assertEquals(10, reopened.getLog().getNextOffset(), durability.name());
+        assertEquals(10, reopened.getSearchIndex().search("message", 0, 100).length, durability.name());
+      } finally {
+        reopened.close();
+      }
+    }
+  }
+
+  @Test
+  void inFlightMessagesStayVisibleWhileBeingWritten() throws Exception {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    // the writer interns new author names; hold it there, mid-write
+    UnaryOperator<String> interner = name -> {
+      if (name.equals("slow")) {
+        writing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return name;
+    };
+    Chatroom room = open(dir, interner);
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    try {
+      room.stage(new Message("slow", "one", "2025-11-11T21:15:00Z"));
+      room.stage(message("two"));
+      Future<Integer> written = writer.submit(() -> room.writePending(MessageWritePipeline.Durability.BATCH));
+      assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+      // senders and readers are not held up by the write
+      room.stage(message("three"));
+      assertEquals(List.of(0L, 1L, 2L), room.inFlightFrom(0).stream().map(Message::getId).toList());
+      release.countDown();
+      assertEquals(2, written.get(10, TimeUnit.SECONDS));
+      assertEquals(List.of(2L), room.inFlightFrom(0).stream().map(Message::getId).toList());
+      assertEquals(1, room.writePending(MessageWritePipeline.Durability.BATCH));
+    } finally {
+      release.countDown();
+      writer.shutdown();
+      room.close();
+    }
+  }
+
+  private static Message message(String text) {
+    return new Message("alice", text, "2025-11-11T21:15:00Z");
+  }
+
+  private Chatroom open(LogOptions options) throws IOException {
+    return Chatroom.open("room", dir, options, new ObjectMapper(), UnaryOperator.identity(),
+        LockWaits.timer(new SimpleMeterRegistry(), "chatroom"));
+  }
+
+  private Chatroom open(Path roomDir, UnaryOperator<String> interner) throws IOException {
+    return Chatroom.open("room", roomDir, LogOptions.defaults(), new ObjectMapper(), interner,
+        LockWaits.timer(new SimpleMeterRegistry(), "chatroom"));
+  }
+}
@@ -0,0 +1,73 @@
+package com.chatapp.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FriendGraphTest {
+
+  @Test
+  void csrGraphAgreesWithAdjacencyGraphThroughMerges() {
+    FriendGraph expected = FriendGraph.create("adjacency", 0);
+    FriendGraph csr = FriendGraph.create("csr", 16);
+    Random random = new Random(7);
+    for (int i = 0; i < 20_000; i++) {
+      int a = random.nextInt(200);
+      int b = random.nextInt(200);
+      if (a == b) {
+        continue;
+      }
+      // more adds than removes, so the graph grows and keeps merging
+      if (random.nextInt(3) > 0) {
+        assertEquals(expected.add(a, b), csr.add(a, b));
+      } else {
+        assertEquals(expected.remove(a, b), csr.remove(a, b));
+      }
+      assertEquals(expected.contains(b, a), csr.contains(b, a));
+      if (i % 1000 == 0) {
+        csr.compact();
+      }
+    }
+    assertEquals(expected.edgeCount(), csr.edgeCount());
+    for (int user = 0; user < 210; user++) {
+      assertArrayEquals(expected.friendsOf(user), csr.friendsOf(user), "friends of " + user);
+    }
+    assertEquals(edges(expected), edges(csr));
+    csr.compact();
+    assertEquals(edges(expected), edges(csr));
+  }
+
+  @Test
+  void csrGraphBuildsLoadedEdgesOnCompact() {
+    FriendGraph expected = FriendGraph.create("adjacency", 0);
+    FriendGraph csr = FriendGraph.create("csr", 16);
+    csr.add(1, 2);
+    expected.add(1, 2);
+    Random random = new Random(11);
+    for (int i = 0; i < 5000; i++) {
+      int a = random.nextInt(300);
+      int b = (a + 1 + random.nextInt(299)) % 300;
+      // duplicates, in either order, and edges already in the graph
+      expected.load(a, b);
+      csr.load(b, a);
+      csr.load(a, b);
+    }
+    csr.load(2, 1);
+    csr.compact();
+    assertEquals(expected.edgeCount(), csr.edgeCount());
+    assertEquals(edges(expected), edges(csr));
+    assertEquals(expected.remove(2, 1), csr.remove(2, 1));
+    assertEquals(edges(expected), edges(csr));
+  }
+
+  private static List<String> edges(FriendGraph graph) {
+    List<String> edges = new ArrayList<>();
+    graph.forEachEdge((user, friend) -> edges.add(user + "-" + friend));
+    return edges;
+  }
+}
@@ -0,0 +1,185 @@
+package com.chatapp.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FriendServiceTest {
+
+  @TempDir
+  Path dir;
+
+  private FriendService open(UsernameDictionary usernames, String graph) {
+    // a tiny merge threshold, so the csr graph merges its overlay all the time
+    FriendService service = new FriendService(new ObjectMapper(), new SimpleMeterRegistry(), usernames,
+        new StartupLoader(new SimpleMeterRegistry()), dir.resolve("friends.json").toString(), graph, 2, 50,
+        10000, 1000, Duration.ofMinutes(1));
+    service.init();
+    return service;
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = { "adjacency", "csr" })
+  void graphOfUserIdsSurvivesRestart(String graph) {
+    UsernameDictionary usernames = new UsernameDictionary(new SimpleMeterRegistry());
+    FriendService friends = open(usernames, graph);
+    assertTrue(friends.addFriendship("carol", "Alice"));
+    assertTrue(friends.addFriendship("alice", "bob"));
+    assertTrue(friends.addFriendship("dave", "alice"));
+    assertFalse(friends.addFriendship("ALICE", "carol"));
+    assertFalse(friends.addFriendship("alice", " alice "));
+    assertTrue(friends.removeFriendship("alice", "dave"));
+    assertFalse(friends.removeFriendship("alice", "dave"));
+    assertFalse(friends.removeFriendship("alice", "nobody"));
+
+    assertEquals(List.of("bob", "carol"), friends.getFriends(" Alice"));
+    assertEquals(List.of("alice"), friends.getFriends("carol"));
+    assertEquals(List.of(), friends.getFriends("dave"));
+    assertTrue(friends.areFriends("Bob", "alice"));
+    assertFalse(friends.areFriends("bob", "carol"));
+    assertEquals(4, usernames.size());
+    // lookups of unknown names do not grow the dictionary
+    friends.getFriends("nobody");
+    assertEquals(4, usernames.size());
+    friends.close();
+
+    // the graph is saved by name, so ids of a new process do not matter
+    UsernameDictionary fresh = new UsernameDictionary(new SimpleMeterRegistry());
+    fresh.idOf("zoe");
+    FriendService reopened = open(fresh, graph);
+    assertEquals(List.of("bob", "carol"), reopened.getFriends("alice"));
+    assertEquals(List.of(), reopened.getFriends("dave"));
+    reopened.close();
+  }
+
+  @Test
+  void suggestsFriendsOfFriendsByMutualFriendsAndForgetsThemOnChange() {
+    FriendService friends = open(new UsernameDictionary(new SimpleMeterRegistry()), "csr");
+    friends.addFriendship("alice", "bob");
+    friends.addFriendship("alice", "carol");
+    friends.addFriendship("alice", "dave");
+    friends.addFriendship("bob", "erin");
+    friends.addFriendship("carol", "erin");
+    friends.addFriendship("dave", "frank");
+    friends.addFriendship("bob", "carol");
+
+    assertEquals(List.of("bob", "carol"), friends.getMutualFriends("Alice", "erin"));
+    assertEquals(List.of("carol"), friends.getMutualFriends("alice", "bob"));
+    assertEquals(List.of(), friends.getMutualFriends("alice", "nobody"));
+    assertEquals(List.of(new FriendService.Suggestion("erin", 2), new FriendService.Suggestion("frank", 1)),
+        friends.getSuggestions("alice", 10));
+    assertEquals(List.of(new FriendService.Suggestion("erin", 2)), friends.getSuggestions("alice", 1));
+
+    // a change two hops away evicts the cached suggestions
+    friends.addFriendship("dave", "gina");
+    friends.addFriendship("frank", "gina");
+    assertEquals(List.of(new FriendService.Suggestion("erin", 2), new FriendService.Suggestion("frank", 1),
+        new FriendService.Suggestion("gina", 1)), friends.getSuggestions("alice", 10));
+    friends.removeFriendship("carol", "erin");
+    friends.addFriendship("alice", "frank");
+    assertEquals(List.of(new FriendService.Suggestion("gina", 2), new FriendService.Suggestion("erin", 1)),
+        friends.getSuggestions("alice", 10));
+    assertEquals(List.of(), friends.getSuggestions("nobody", 10));
+    friends.close();
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = { "adjacency", "csr" })
+  void concurrentChangesKeepBothSidesOfEveryFriendship(String graph) throws Exception {
+    FriendService friends = open(new UsernameDictionary(new SimpleMeterRegistry()), graph);
+    int threads = 8;
+    int perThread = 200;
+    ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+    try {
+      // every thread befriends alice with its own users, then drops the odd ones
+      List<Future<?>> writers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        String prefix = "t" + t + "-";
+        writers.add(pool.submit(() -> {
+          for (int i = 0; i < perThread; i++) {
+            assertTrue(friends.addFriendship("alice", prefix + i));
+          }
+          for (int i = 1; i < perThread; i += 2) {
+            assertTrue(friends.removeFriendship(prefix + i, "alice"));
+          }
+        }));
+      }
+      Future<?> reader = pool.submit(() -> {
+        while (writers.stream().anyMatch(writer -> !writer.isDone())) {
+          List<String> seen = friends.getFriends("alice");
+          assertEquals(seen.stream().sorted().distinct().toList(), seen);
+        }
+      });
+      for (Future<?> writer : writers) {
+        writer.get(30, TimeUnit.SECONDS);
+      }
+      reader.get(30, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    List<String> expected = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      for (int i = 0; i < perThread; i += 2) {
+        expected.add("t" + t + "-" + i);
+      }
+    }
+    assertEquals(expected.stream().sorted().toList(), friends.getFriends("alice"));
+    for (int t = 0; t < threads; t++) {
+      assertEquals(List.of("alice"), friends.getFriends("t" + t + "-0"));
+      assertEquals(List.of(), friends.getFriends("t" + t + "-1"));
+      assertTrue(friends.areFriends("t" + t + "-2", "alice"));
+      assertFalse(friends.areFriends("alice", "t" + t + "-3"));
+    }
+    friends.close();
+  }
+
+  @Test
+  void intersectsSortedArraysOfAnySize() {
+    int[] evens = new int[1000];
+    for (int i = 0; i < evens.length; i++) {
+      evens[i] = 2 * i;
+    }
+    assertArrayEquals(new int[] { 4, 10 }, FriendService.intersect(new int[] { 3, 4, 10 }, evens));
+    assertArrayEquals(new int[] { 4, 10 },
+        FriendService.intersect(new int[] { 1, 4, 9, 10 }, new int[] { 4, 10, 11 }));
+    assertArrayEquals(new int[0], FriendService.intersect(new int[0], evens));
+  }
+
+  @Test
+  void dictionaryHandsOutDenseIdsAndSharedNames() {
+    UsernameDictionary usernames = new UsernameDictionary(new SimpleMeterRegistry());
+    assertEquals(0, usernames.idOf(" Alice "));
+    assertEquals(1, usernames.idOf("bob"));
+    assertEquals(0, usernames.idOf("alice"));
+    assertEquals(UsernameDictionary.NONE, usernames.idOf("  "));
+    assertEquals(UsernameDictionary.NONE, usernames.find("carol"));
+    assertTrue(usernames.intern(new String("ALICE")) == usernames.nameOf(0));
+    assertTrue(usernames.canonical(new String("bob")) == usernames.nameOf(1));
+    // names that are not normalized keep their spelling
+    assertEquals("Bob", usernames.canonical("Bob"));
+    // names from clients are looked up but never get an id
+    assertEquals("mallory", usernames.canonical("mallory"));
+    assertEquals("zed", usernames.lookup(" Zed "));
+    assertTrue(usernames.lookup("BOB") == usernames.nameOf(1));
+    assertEquals(null, usernames.lookup("  "));
+    assertEquals(2, usernames.size());
+  }
+}
@@ -0,0 +1,96 @@
+package com.chatapp.services;
+
+import com.chatapp.models.Message;
+import com.chatapp.storage.LogOptions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * MessageLogService under contention: a fixed pool of writer/reader threads
+ * spread over a few chatrooms. Every room must end up with a dense, gap-free
+ * id sequence, all of which is found again after a restart. Throughput is
+ * measured by MessageLogContentionBenchmark (jmh profile).
+ */
+class MessageLogServiceContentionTest {
+
+  private static final int THREADS = Math.max(8, Runtime.getRuntime().availableProcessors());
+  private static final int OPS_PER_THREAD = 400;
+
+  @TempDir
+  Path dir;
+
+  @ParameterizedTest
+  @ValueSource(ints = { 1, 16 })
+  void idsStayGapFreeAndDurable(int rooms) throws Exception {
+    MessageWritePipeline pipeline = new MessageWritePipeline(new SimpleMeterRegistry(), 1024, 512,
+        MessageWritePipeline.Durability.NONE);
+    MessageLogService service = new MessageLogService(new ObjectMapper(), new SimpleMeterRegistry(),
+        new UsernameDictionary(new SimpleMeterRegistry()), dir, dir, LogOptions.defaults(), Duration.ofMinutes(1),
+        new RecentMessageCache(50, Long.MAX_VALUE), pipeline);
+    service.init();
+    pipeline.start();
+
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      int thread = t;
+      futures.add(pool.submit(() -> {
+        start.await();
+        for (int i = 0; i < OPS_PER_THREAD; i++) {
+          String room = "room" + ((thread + i) % rooms);
+          if (i % 4 == 3) {
+            service.loadRecent(room, 50);
+          } else {
+            service.append(new Message("user" + thread, "message " + i, "2025-11-11T21:15:00Z", room));
+          }
+        }
+        return null;
+      }));
+    }
+
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    pool.shutdown();
+
+    long appendsPerThread = OPS_PER_THREAD - OPS_PER_THREAD / 4;
+    long totalAppends = 0;
+    for (int r = 0; r < rooms; r++) {
+      List<Message> all = service.loadRecent("room" + r, Integer.MAX_VALUE);
+      for (int i = 0; i < all.size(); i++) {
+        assertEquals(i, all.get(i).getId());
+      }
+      totalAppends += all.size();
+    }
+    assertEquals(appendsPerThread * THREADS, totalAppends);
+    service.close();
+
+    // everything accepted must have reached the logs
+    MessageLogService reopened = new MessageLogService(new ObjectMapper(), new SimpleMeterRegistry(),
+        new UsernameDictionary(new SimpleMeterRegistry()), dir, dir, LogOptions.defaults(), Duration.ofMinutes(1),
+        new RecentMessageCache(50, Long.MAX_VALUE), pipeline);
+    reopened.init();
+    long reloaded = 0;
+    for (int r = 0; r < rooms; r++) {
+      reloaded += reopened.loadRecent("room" + r, Integer.MAX_VALUE).size();
+    }
+    assertEquals(totalAppends, reloaded);
+    reopened.close();
+  }
+}
@@ -0,0 +1,96 @@
+package com.chatapp.services;
+
+import com.chatapp.models.Message;
+import com.chatapp.storage.LogOptions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageLogServiceTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void roomsWhoseIdsDifferOnlyInPunctuationKeepSeparateLogs() throws IOException {
+    List<String> rooms = List.of("alice_bob", "alice.bob", "alice bob");
+    MessageLogService service = open();
+    for (String room : rooms) {
+      service.append(new Message("alice", "hello " + room, "2025-11-11T21:15:00Z", room));
+    }
+    assertTrue(service.deleteMessage("alice.bob", 0));
+    service.close();
+
+    MessageLogService reopened = open();
+    assertEquals(List.of("hello alice_bob"), texts(reopened.loadRecent("alice_bob", 10)));
+    assertEquals(List.of(), texts(reopened.loadRecent("alice.bob", 10)));
+    assertEquals(List.of("hello alice bob"), texts(reopened.loadRecent("alice bob", 10)));
+    assertEquals("alice bob", reopened.loadRecent("alice bob", 10).get(0).getChatroomId());
+    assertEquals(1, reopened.search("alice_bob", "hello", 10).size());
+    assertEquals(3, reopened.chatroomKeys().size());
+    reopened.close();
+  }
+
+  @Test
+  void legacyFileOfARoomWithALogIsLeftInPlace() throws IOException {
+    MessageLogService service = open();
+    service.append(new Message("alice", "new", "2025-11-11T21:15:00Z", "alice_bob"));
+    service.close();
+    Path taken = dir.resolve("messages_alice_bob.json");
+    Path free = dir.resolve("messages_carol_dave.json");
+    String legacy = "[{\"user\":\"carol\",\"text\":\"old\",\"timestamp\":\"2025-11-10T10:00:00Z\"}]";
+    Files.writeString(taken, legacy);
+    Files.writeString(free, legacy);
+
+    MessageLogService reopened = open();
+    assertTrue(Files.exists(taken));
+    assertFalse(Files.exists(free));
+    assertTrue(Files.exists(dir.resolve("messages_carol_dave.json.migrated")));
+    assertEquals(List.of("new"), texts(reopened.loadRecent("alice_bob", 10)));
+    assertEquals(List.of("old"), texts(reopened.loadRecent("carol_dave", 10)));
+    reopened.close();
+  }
+
+  @Test
+  void logsNamedByTheOldSchemeAreRenamedToTheirKey() throws IOException {
+    Chatroom old = Chatroom.open("alice_bob", dir.resolve("alice_bob"), LogOptions.defaults(), new ObjectMapper(),
+        UnaryOperator.identity(), LockWaits.timer(new SimpleMeterRegistry(), "chatroom"));
+    old.stage(new Message("alice", "before", "2025-11-11T21:15:00Z", "alice_bob"));
+    old.writePending(MessageWritePipeline.Durability.BATCH);
+    old.close();
+
+    MessageLogService service = open();
+    assertFalse(Files.exists(dir.resolve("alice_bob")));
+    assertTrue(Files.isDirectory(dir.resolve("alice_5fbob")));
+    List<Message> messages = service.loadRecent("alice_bob", 10);
+    assertEquals(List.of("before"), texts(messages));
+    assertEquals("alice_bob", messages.get(0).getChatroomId());
+    service.close();
+  }
+
+  private MessageLogService open() throws IOException {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    MessageLogService service = new MessageLogService(new ObjectMapper(), registry,
+        new UsernameDictionary(registry), dir, dir, LogOptions.defaults(), Duration.ofMinutes(1),
+        new RecentMessageCache(50, Long.MAX_VALUE),
+        new MessageWritePipeline(registry, 16, 16, MessageWritePipeline.Durability.NONE));
+    service.init();
+    return service;
+  }
+
+  private static List<String> texts(List<Message> messages) {
+    return messages.stream().map(Message::getText).toList();
+  }
+}
@@ -0,0 +1,58 @@
+package com.chatapp.services;
+
+import com.chatapp.models.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RecentMessageCacheTest {
+
+  private static Message message(String room, int i) {
+    return new Message("alice", "text-" + i, "2025-11-11T21:15:00Z", room);
+  }
+
+  @Test
+  void ringKeepsNewestMessages() {
+    RecentMessageCache cache = new RecentMessageCache(3, Long.MAX_VALUE);
+    cache.warm("public", List.of(message("public", 0)), true);
+    for (int i = 1; i <= 4; i++) {
+      cache.onAppend("public", message("public", i));
+    }
+
+    List<Message> recent = cache.recent("public", 3);
+    assertNotNull(recent);
+    assertEquals("text-2", recent.get(0).getText());
+    assertEquals("text-4", recent.get(2).getText());
+    // the ring no longer holds the full history, so larger requests miss
+    assertNull(cache.recent("public", 4));
+  }
+
+  @Test
+  void completeRoomAnswersAnyLimit() {
+    RecentMessageCache cache = new RecentMessageCache(10, Long.MAX_VALUE);
+    cache.warm("alice_bob", List.of(message("alice_bob", 0)), true);
+    assertEquals(1, cache.recent("alice_bob", 50).size());
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedRoomsOverBudget() {
+    long perMessage = RecentMessageCache.estimateBytes(message("room-0", 0));
+    RecentMessageCache cache = new RecentMessageCache(10, perMessage * 25);
+    for (int r = 0; r < 3; r++) {
+      List<Message> tail = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        tail.add(message("room-" + r, i));
+      }
+      cache.warm("room-" + r, tail, true);
+    }
+
+    assertEquals(2, cache.cachedRooms());
+    assertNull(cache.recent("room-0", 1));
+    assertNotNull(cache.recent("room-2", 1));
+  }
+}
@@ -0,0 +1,51 @@
+package com.chatapp.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class StartupLoaderTest {
+
+  @Test
+  void requestsWaitUntilTheLoadIsDone() throws Exception {
+    StartupLoader loader = new StartupLoader(new SimpleMeterRegistry());
+    CountDownLatch release = new CountDownLatch(1);
+    StartupLoader.Load load = loader.start("users", l -> l.phase("snapshot", () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    assertEquals(Status.OUT_OF_SERVICE, loader.health().getStatus());
+
+    try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+      Future<?> request = pool.submit(load::await);
+      Thread.sleep(50);
+      assertFalse(request.isDone());
+      release.countDown();
+      request.get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(true, load.isDone());
+    assertEquals(Status.UP, loader.health().getStatus());
+  }
+
+  @Test
+  void failedLoadStillOpensTheGate() {
+    StartupLoader loader = new StartupLoader(new SimpleMeterRegistry());
+    StartupLoader.Load load = loader.start("friends", l -> {
+      throw new IllegalStateException("boom");
+    });
+    load.await();
+    assertEquals(Status.UP, loader.health().getStatus());
+  }
+}
@@ -0,0 +1,58 @@
+package com.chatapp.services;
+
+import com.chatapp.cluster.ClusterNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TypingAggregatorTest {
+
+  private final List<Message<?>> sent = new ArrayList<>();
+  private final TypingAggregator aggregator = new TypingAggregator(
+      new SimpMessagingTemplate((message, timeout) -> sent.add(message)), new ClusterNode("local", false),
+      Duration.ofMillis(500), Duration.ofSeconds(5), 2, 5);
+
+  @Test
+  void publishesOnlyWhenTheTypingSetChanges() {
+    aggregator.update("public", "s1", "alice", true);
+    aggregator.update("public", "s2", "bob", true);
+    aggregator.flush();
+    assertEquals(1, sent.size());
+
+    // refreshing the same users is not a change
+    aggregator.update("public", "s1", "alice", true);
+    aggregator.flush();
+    assertEquals(1, sent.size());
+
+    aggregator.update("public", "s1", "alice", false);
+    aggregator.flush();
+    assertEquals(2, sent.size());
+    assertEquals("/topic/typing/public", sent.get(1).getHeaders().get("simpDestination"));
+  }
+
+  @Test
+  void dropsNotificationsBeyondTheSessionBurst() {
+    for (int i = 0; i < 5; i++) {
+      assertTrue(aggregator.update("public", "s1", "alice", true));
+    }
+    assertFalse(aggregator.update("public", "s1", "alice", true));
+    aggregator.flush();
+    assertEquals(1, sent.size());
+    // stopping is never limited, or alice would stay typing until the TTL
+    assertTrue(aggregator.update("public", "s1", "alice", false));
+    aggregator.flush();
+    assertEquals(2, sent.size());
+    assertEquals(List.of(), ((Map<?, ?>) sent.get(1).getPayload()).get("users"));
+    // other sessions have their own budget
+    assertTrue(aggregator.update("public", "s2", "bob", true));
+  }
+}
@@ -0,0 +1,164 @@
+package com.chatapp.services;
+
+import com.chatapp.models.UserAccount;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserServiceTest {
+
+  private static final int THREADS = 8;
+
+  @TempDir
+  Path dir;
+
+  private final ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+  private final List<PasswordHasher> hashers = new ArrayList<>();
+  private final List<UserService> services = new ArrayList<>();
+
+  @AfterEach
+  void tearDown() {
+    threads.shutdownNow();
+    services.forEach(UserService::close);
+    hashers.forEach(PasswordHasher::shutdown);
+  }
+
+  @Test
+  void concurrentRegistrationsOfOneNameHaveOneWinner() throws Exception {
+    UserService users = open(4);
+    // differently spelled, but all the same account
+    List<UserAccount> attempts = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      attempts.add(new UserAccount(i % 2 == 0 ? "Alice" : " alice ", "password" + i));
+    }
+    List<UserService.RegistrationResult> results = all(attempts, users::register);
+
+    assertEquals(1, results.stream().filter(UserService.RegistrationResult.SUCCESS::equals).count());
+    assertEquals(THREADS - 1, results.stream().filter(UserService.RegistrationResult.USERNAME_EXISTS::equals).count());
+    int winner = results.indexOf(UserService.RegistrationResult.SUCCESS);
+    assertEquals(UserService.LoginResult.SUCCESS, users.login(new UserAccount("ALICE", "password" + winner)));
+    assertEquals(UserService.LoginResult.INVALID_CREDENTIALS,
+        users.login(new UserAccount("alice", "password" + (winner + 1))));
+  }
+
+  @Test
+  void loginsAndRegistrationsRunConcurrently() throws Exception {
+    UserService users = open(4);
+    for (int i = 0; i < THREADS; i++) {
+      assertEquals(UserService.RegistrationResult.SUCCESS, users.register(new UserAccount("user" + i, "secret" + i)));
+    }
+    List<Callable<Object>> work = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      int n = i;
+      work.add(() -> users.login(new UserAccount("USER" + n, "secret" + n)));
+      work.add(() -> users.login(new UserAccount("user" + n, "wrong")));
+      work.add(() -> users.register(new UserAccount("new" + n, "secret")));
+    }
+    List<Object> results = all(work);
+
+    for (int i = 0; i < THREADS; i++) {
+      assertEquals(UserService.LoginResult.SUCCESS, results.get(3 * i));
+      assertEquals(UserService.LoginResult.INVALID_CREDENTIALS, results.get(3 * i + 1));
+      assertEquals(UserService.RegistrationResult.SUCCESS, results.get(3 * i + 2));
+      assertTrue(users.userExists("new" + i));
+    }
+  }
+
+  @Test
+  void loginUpgradesALegacyHashExactlyOnce() throws Exception {
+    String legacy = new BCryptPasswordEncoder(4).encode("secret");
+    Files.writeString(dir.resolve("users.json"), new ObjectMapper().writeValueAsString(
+        List.of(new UserAccount("alice", legacy))));
+    UserService users = open(5);
+    List<UserAccount> logins = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      logins.add(new UserAccount("alice", "secret"));
+    }
+    for (UserService.LoginResult result : all(logins, users::login)) {
+      assertEquals(UserService.LoginResult.SUCCESS, result);
+    }
+    assertEquals(UserService.LoginResult.SUCCESS, users.login(new UserAccount("alice", "secret")));
+
+    // concurrent logins all see the old hash, but only one replaces it
+    List<UserService.AccountChange> changes = journaled();
+    assertEquals(1, changes.size());
+    assertTrue(changes.get(0).replace());
+    assertTrue(changes.get(0).password().startsWith("$2a$05$"));
+    assertTrue(new BCryptPasswordEncoder(5).matches("secret", changes.get(0).password()));
+  }
+
+  private List<UserService.AccountChange> journaled() throws IOException {
+    ObjectMapper objectMapper = new ObjectMapper();
+    List<UserService.AccountChange> changes = new ArrayList<>();
+    try (DirectoryStream<Path> journals = Files.newDirectoryStream(dir, "users.json.journal.*")) {
+      for (Path journal : journals) {
+        for (String line : Files.readAllLines(journal)) {
+          if (!line.isBlank()) {
+            changes.add(objectMapper.readValue(line, UserService.AccountChange.class));
+          }
+        }
+      }
+    }
+    return changes;
+  }
+
+  private UserService open(int strength) {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    PasswordHasher hasher = new PasswordHasher(registry, strength, 2, 64, Duration.ofSeconds(10));
+    hashers.add(hasher);
+    UserService users = new UserService(new ObjectMapper(), hasher, new UsernameDictionary(registry),
+        new StartupLoader(registry), dir.resolve("users.json").toString(), 1000, Duration.ofMinutes(1));
+    users.init();
+    services.add(users);
+    return users;
+  }
+
+  private <T, R> List<R> all(List<T> inputs, Function<T, R> call) throws Exception {
+    List<Callable<R>> work = new ArrayList<>();
+    for (T input : inputs) {
+      work.add(() -> call.apply(input));
+    }
+    return all(work);
+  }
+
+  /**
+   * Run the calls on the pool, all released at the same moment.
+   */
+  private <R> List<R> all(List<Callable<R>> work) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<R>> futures = new ArrayList<>();
+    for (Callable<R> call : work) {
+      futures.add(threads.submit(() -> {
+        start.await();
+        return call.call();
+      }));
+    }
+    start.countDown();
+    List<R> results = new ArrayList<>();
+    for (Future<R> future : futures) {
+      results.add(future.get(30, TimeUnit.SECONDS));
+    }
+    return results;
+  }
+}
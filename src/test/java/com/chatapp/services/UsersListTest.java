@@ -0,0 +1,138 @@
+package com.chatapp.services;
+
+import com.chatapp.cluster.ClusterNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UsersListTest {
+
+  private final List<Message<?>> sent = new ArrayList<>();
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final UsersList usersList = new UsersList(new SimpMessagingTemplate((message, timeout) -> sent.add(message)),
+      new ClusterNode("local", false), new UsernameDictionary(new SimpleMeterRegistry()), registry,
+      Duration.ofMillis(200), Duration.ofSeconds(30));
+
+  private long replayedVersion;
+
+  private double onlineGauge() {
+    return registry.get("chatapp.presence.online.users").gauge().value();
+  }
+
+  @Test
+  void userStaysOnlineUntilLastSessionCloses() {
+    usersList.sessionOpened("s1", "alice");
+    usersList.userConnect("s2", " Alice");
+    usersList.flush();
+    assertEquals(List.of("alice"), usersList.getOnlineUsers());
+    assertEquals(1, sent.size());
+    assertEquals(1, onlineGauge());
+
+    usersList.sessionClosed("s1");
+    usersList.flush();
+    assertEquals(List.of("alice"), usersList.getOnlineUsers());
+    assertEquals(1, sent.size());
+    assertEquals(1, onlineGauge());
+
+    usersList.userDisconnect("s2");
+    usersList.flush();
+    assertTrue(usersList.getOnlineUsers().isEmpty());
+    assertEquals(0, onlineGauge());
+    assertEquals(2, sent.size());
+    assertEquals(2L, usersList.snapshot().get("version"));
+  }
+
+  @Test
+  void reconnectWithinWindowPublishesNothing() {
+    usersList.sessionOpened("s1", "bob");
+    usersList.flush();
+    usersList.sessionClosed("s1");
+    usersList.sessionOpened("s2", "bob");
+    usersList.flush();
+    assertEquals(1, sent.size());
+    Map<String, Object> snapshot = usersList.snapshot();
+    assertEquals(1L, snapshot.get("version"));
+    assertEquals(List.of("bob"), snapshot.get("users"));
+  }
+
+  @Test
+  void deltasAlwaysAddUpToTheSnapshot() {
+    ClusterNode clusterNode = new ClusterNode("local", true, List.of("local", "other"),
+        ClusterNode.DEFAULT_DESTINATION_PREFIX);
+    UsersList clustered = new UsersList(new SimpMessagingTemplate((message, timeout) -> sent.add(message)),
+        clusterNode, new UsernameDictionary(new SimpleMeterRegistry()), new SimpleMeterRegistry(),
+        Duration.ofMillis(200), Duration.ofSeconds(30));
+    String topic = (String) clustered.snapshot().get("topic");
+    Set<String> replayed = new TreeSet<>();
+
+    clustered.sessionOpened("a1", "alice");
+    clustered.sessionOpened("a2", "alice");
+    clustered.userConnect("a2", "Alice"); // announced again, still one session
+    clustered.sessionOpened("b1", "bob");
+    assertSnapshot(clustered, topic, replayed, List.of("alice", "bob"));
+
+    // alice is also on the other node; bob's only session switches to carol
+    clustered.remotePresence("other", List.of("alice", "dave"));
+    clustered.userConnect("b1", "carol");
+    assertSnapshot(clustered, topic, replayed, List.of("alice", "carol", "dave"));
+
+    clustered.sessionClosed("a1");
+    clustered.remotePresence("other", List.of("dave"));
+    assertSnapshot(clustered, topic, replayed, List.of("alice", "carol", "dave"));
+
+    clustered.sessionClosed("a2");
+    clustered.userDisconnect("b1");
+    assertSnapshot(clustered, topic, replayed, List.of("dave"));
+    assertEquals(1, clustered.sessionCount());
+  }
+
+  // apply the deltas published so far and compare them with a fresh snapshot
+  @SuppressWarnings("unchecked")
+  private void assertSnapshot(UsersList list, String topic, Set<String> replayed, List<String> expected) {
+    Map<String, Object> snapshot = list.snapshot();
+    long version = 0;
+    for (Message<?> message : sent) {
+      if (!topic.equals(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))) {
+        continue;
+      }
+      Map<String, Object> delta = (Map<String, Object>) message.getPayload();
+      assertEquals(++version, delta.get("version"));
+      if (version > replayedVersion) {
+        replayed.addAll((List<String>) delta.get("joined"));
+        replayed.removeAll((List<String>) delta.get("left"));
+        replayedVersion = version;
+      }
+    }
+    assertEquals(expected, snapshot.get("users"));
+    assertEquals(version, snapshot.get("version"));
+    assertEquals(expected, new ArrayList<>(replayed));
+  }
+
+  @Test
+  void timerWheelFiresOnlyDueKeys() {
+    TimerWheel<String> wheel = new TimerWheel<>(1000, 8, 0);
+    wheel.schedule("soon", 2500);
+    wheel.schedule("later", 20_000); // more than one turn of the wheel away
+    wheel.schedule("moved", 3000);
+    wheel.schedule("moved", 9000);
+
+    assertTrue(wheel.advance(2000).isEmpty());
+    assertEquals(List.of("soon"), wheel.advance(3000));
+    assertTrue(wheel.advance(8000).isEmpty());
+    assertEquals(List.of("moved"), wheel.advance(12_000));
+    assertEquals(List.of("later"), wheel.advance(20_000));
+    assertEquals(0, wheel.size());
+  }
+}
@@ -0,0 +1,160 @@
+package com.chatapp.services;
+
+import com.chatapp.cluster.ClusterNode;
+import com.chatapp.models.Message;
+import com.chatapp.storage.LogOptions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the message log, friends and presence services on virtual threads
+ * under a JFR recording and fails if any of them held on to its carrier:
+ * jdk.VirtualThreadPinned for a thread that parked inside a synchronized
+ * block, and jdk.JavaMonitorEnter for one that blocked entering a contended
+ * monitor of ours. Neither event fires for blocking I/O under a monitor by
+ * itself, but under this much contention another thread is always waiting
+ * to get in.
+ */
+class VirtualThreadPinningTest {
+
+  private static final int THREADS = 64;
+  private static final int OPS_PER_THREAD = 50;
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void servicesDoNotPinCarrierThreads() throws Exception {
+    List<RecordedEvent> pinned = new CopyOnWriteArrayList<>();
+    try (RecordingStream recording = new RecordingStream()) {
+      for (String event : new String[] { "jdk.VirtualThreadPinned", "jdk.JavaMonitorEnter" }) {
+        recording.enable(event).withThreshold(Duration.ZERO).withStackTrace();
+        recording.onEvent(event, e -> {
+          if (holdsCarrier(e)) {
+            pinned.add(e);
+          }
+        });
+      }
+      recording.startAsync();
+
+      // control: two threads sleeping inside the same monitor pin on this JVM,
+      // so the recording must see it
+      Object monitor = new Object();
+      Runnable holder = () -> {
+        synchronized (monitor) {
+          sleep(20);
+        }
+      };
+      Thread first = Thread.ofVirtual().start(holder);
+      Thread second = Thread.ofVirtual().start(holder);
+      first.join();
+      second.join();
+      awaitDelivery();
+      assumeTrue(!pinned.isEmpty(), "this JVM does not pin virtual threads in synchronized blocks");
+      pinned.clear();
+
+      runWorkload();
+      awaitDelivery();
+    }
+    assertEquals(0, pinned.size(), () -> "virtual threads were pinned: " + pinned);
+  }
+
+  private void runWorkload() throws Exception {
+    MessageWritePipeline pipeline = new MessageWritePipeline(new SimpleMeterRegistry(), 1024, 512,
+        MessageWritePipeline.Durability.NONE);
+    UsernameDictionary usernames = new UsernameDictionary(new SimpleMeterRegistry());
+    MessageLogService messages = new MessageLogService(new ObjectMapper(), new SimpleMeterRegistry(), usernames,
+        dir, dir, LogOptions.defaults(), Duration.ofMinutes(1), new RecentMessageCache(50, Long.MAX_VALUE), pipeline);
+    messages.init();
+    pipeline.start();
+    FriendService friends = new FriendService(new ObjectMapper(), new SimpleMeterRegistry(), usernames,
+        new StartupLoader(new SimpleMeterRegistry()), dir.resolve("friends.json").toString(),
+        "adjacency", 65536, 50, 10000, 100, Duration.ofMinutes(1));
+    friends.init();
+    UsersList users = new UsersList(new SimpMessagingTemplate((message, timeout) -> true),
+        new ClusterNode("local", false), usernames, new SimpleMeterRegistry(), Duration.ofMillis(200),
+        Duration.ofSeconds(30));
+
+    try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<?>> futures = new CopyOnWriteArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        int thread = t;
+        futures.add(pool.submit(() -> {
+          String user = "user" + thread;
+          String room = "room" + (thread % 4);
+          users.sessionOpened("session" + thread, user);
+          for (int i = 0; i < OPS_PER_THREAD; i++) {
+            messages.append(new Message(user, "message " + i, "2025-11-11T21:15:00Z", room));
+            messages.loadRecent(room, 20);
+            messages.loadAfter(room, i, 20);
+            friends.addFriendship(user, "user" + ((thread + i) % THREADS));
+            friends.getFriends(user);
+            users.touch("session" + thread);
+            users.snapshot();
+          }
+          if (thread % 8 == 0) {
+            messages.deleteHistory("room" + (thread % 4));
+          }
+          users.sessionClosed("session" + thread);
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      friends.close();
+      messages.close(); // also stops the pipeline
+    }
+    assertTrue(users.getOnlineUsers().isEmpty());
+  }
+
+  // a virtual thread pinned anywhere under our code, or blocked on one of
+  // our own monitors (not e.g. the class loader's)
+  private static boolean holdsCarrier(RecordedEvent event) {
+    if (event.getThread() == null || !event.getThread().isVirtual() || event.getStackTrace() == null) {
+      return false;
+    }
+    List<RecordedFrame> frames = event.getStackTrace().getFrames();
+    if (event.getEventType().getName().equals("jdk.JavaMonitorEnter")) {
+      return !frames.isEmpty() && isOurs(frames.get(0));
+    }
+    return frames.stream().anyMatch(VirtualThreadPinningTest::isOurs);
+  }
+
+  private static boolean isOurs(RecordedFrame frame) {
+    return frame.getMethod().getType().getName().startsWith("com.chatapp.");
+  }
+
+  // events are delivered in batches; give the stream time to catch up
+  private static void awaitDelivery() {
+    sleep(TimeUnit.SECONDS.toMillis(2));
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package com.chatapp.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChatroomLogTest {
+
+  @TempDir
+  Path dir;
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String str(byte[] b) {
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  private static List<String> tail(ChatroomLog log, int limit) throws IOException {
+    List<String> result = new ArrayList<>();
+    log.readTail(limit, (offset, payload) -> result.add(str(payload)));
+    return result;
+  }
+
+  private static List<Long> offsets(ChatroomLog log, long from, int max) throws IOException {
+    List<Long> result = new ArrayList<>();
+    log.read(from, max, (offset, payload) -> {
+      assertEquals("message-" + offset, str(payload));
+      result.add(offset);
+    });
+    return result;
+  }
+
+  @Test
+  void readTailSpansRolledSegments() throws IOException {
+    LogOptions options = new LogOptions(64, Duration.ofDays(1));
+    try (ChatroomLog log = ChatroomLog.open(dir, options)) {
+      for (int i = 0; i < 20; i++) {
+        log.append(bytes("message-" + i));
+      }
+      List<String> tail = tail(log, 5);
+      assertEquals(5, tail.size());
+      assertEquals("message-15", tail.get(0));
+      assertEquals("message-19", tail.get(4));
+      assertEquals(20, tail(log, 100).size());
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      assertEquals(true, files.count() > 1);
+    }
+
+    try (ChatroomLog reopened = ChatroomLog.open(dir, options)) {
+      assertEquals(20, reopened.size());
+      assertEquals(20, reopened.append(bytes("message-20")));
+      assertEquals("message-20", tail(reopened, 1).get(0));
+    }
+  }
+
+  @Test
+  void openTruncatesTornTail() throws IOException {
+    Path segment;
+    try (ChatroomLog log = ChatroomLog.open(dir, LogOptions.defaults())) {
+      log.append(bytes("first"));
+      log.append(bytes("second"));
+      segment = dir.resolve(ChatroomLog.segmentFileName(0));
+    }
+    long intactSize = Files.size(segment);
+
+    // simulate a crash halfway through writing a third record
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+      channel.write(LogSegment.frame(bytes("third-record")).limit(10));
+    }
+
+    try (ChatroomLog log = ChatroomLog.open(dir, LogOptions.defaults())) {
+      assertEquals(intactSize, Files.size(segment));
+      assertEquals(2, log.size());
+      log.append(bytes("third"));
+      List<String> tail = tail(log, 10);
+      assertEquals(3, tail.size());
+      assertEquals("third", tail.get(2));
+    }
+  }
+
+  @Test
+  void readSeeksToAnyOffsetThroughTheIndex() throws IOException {
+    LogOptions options = new LogOptions(4096, Duration.ofDays(1));
+    try (ChatroomLog log = ChatroomLog.open(dir, options)) {
+      for (int i = 0; i < 1000; i++) {
+        log.append(bytes("message-" + i));
+      }
+      assertEquals(List.of(500L, 501L, 502L), offsets(log, 500, 3));
+      assertEquals(List.of(998L, 999L), offsets(log, 998, 10));
+      assertEquals(50, offsets(log, 37, 50).size());
+    }
+
+    // a lost index file is rebuilt from the segment on open
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path idx : files.filter(p -> p.toString().endsWith(OffsetIndex.SUFFIX)).toList()) {
+        Files.delete(idx);
+      }
+    }
+    try (ChatroomLog log = ChatroomLog.open(dir, options)) {
+      assertEquals(List.of(123L, 124L), offsets(log, 123, 2));
+    }
+  }
+
+  @Test
+  void retentionDropsOldSegmentsAndPersistsTheStart() throws IOException {
+    LogOptions options = new LogOptions(4096, Duration.ofDays(1));
+    try (ChatroomLog log = ChatroomLog.open(dir, options)) {
+      for (int i = 0; i < 1000; i++) {
+        log.append(bytes("message-" + i));
+      }
+      int segments = log.getSegmentCount();
+
+      // count retention is exact, whole segments go once nothing in them is readable
+      assertEquals(700, log.applyRetention(new RetentionPolicy(0, 300, 0), System.currentTimeMillis()));
+      assertEquals(700, log.getFirstOffset());
+      assertEquals(List.of(700L, 701L), offsets(log, 0, 702));
+      assertEquals(300, tail(log, 1000).size());
+      assertEquals(true, log.getSegmentCount() < segments);
+
+      // byte retention never drops the segment being appended to
+      assertEquals(0, log.applyRetention(new RetentionPolicy(0, 0, 1 << 20), System.currentTimeMillis()));
+      log.applyRetention(new RetentionPolicy(0, 0, 1), System.currentTimeMillis());
+      assertEquals(1, log.getSegmentCount());
+      long first = log.getFirstOffset();
+      assertEquals(1000 - first, tail(log, 1000).size());
+      assertEquals(1000, log.append(bytes("message-1000")));
+    }
+
+    try (ChatroomLog log = ChatroomLog.open(dir, options)) {
+      assertEquals(1001 - log.getFirstOffset(), log.size());
+      assertEquals(log.getFirstOffset(), offsets(log, 0, 2000).get(0));
+    }
+  }
+
+  @Test
+  void ageRetentionDropsSegmentsOlderThanTheLimit() throws IOException {
+    try (ChatroomLog log = ChatroomLog.open(dir, new LogOptions(4096, Duration.ofDays(1)))) {
+      for (int i = 0; i < 1000; i++) {
+        log.append(bytes("message-" + i));
+      }
+      long now = System.currentTimeMillis();
+      RetentionPolicy policy = RetentionPolicy.of(Duration.ofHours(1), 0, 0);
+      assertEquals(0, log.applyRetention(policy, now));
+      long removed = log.applyRetention(policy, now + Duration.ofHours(2).toMillis());
+      assertEquals(true, removed > 0);
+      assertEquals(1, log.getSegmentCount());
+      assertEquals(1000 - removed, tail(log, 1000).size());
+    }
+  }
+
+  @Test
+  void tombstonesSurviveReopenAndArePrunedBelowTheStart() throws IOException {
+    Path file = dir.resolve(Tombstones.FILE_NAME);
+    try (Tombstones tombstones = Tombstones.open(file)) {
+      assertEquals(true, tombstones.add(5));
+      assertEquals(false, tombstones.add(5));
+      tombstones.add(9);
+      tombstones.add(42);
+    }
+    try (Tombstones tombstones = Tombstones.open(file)) {
+      assertEquals(true, tombstones.contains(9));
+      assertEquals(false, tombstones.contains(10));
+      assertEquals(2, tombstones.count(0, 42));
+      tombstones.removeBelow(10);
+      assertEquals(1, tombstones.size());
+      tombstones.add(50);
+    }
+    try (Tombstones tombstones = Tombstones.open(file)) {
+      assertEquals(2, tombstones.size());
+      assertEquals(false, tombstones.contains(5));
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package com.chatapp.storage;
+
+import com.chatapp.models.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageRecordTest {
+
+  @TempDir
+  Path dir;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private static void assertSameMessage(Message expected, Message actual) {
+    assertEquals(expected.getUser(), actual.getUser());
+    assertEquals(expected.getText(), actual.getText());
+    assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    assertEquals(expected.getChatroomId(), actual.getChatroomId());
+  }
+
+  @Test
+  void roundTripsWithoutLosingAnything() throws IOException {
+    Message plain = new Message("alice", "lunch at noon? 🍕", "2025-11-11T21:15:00.123Z", "alice_bob");
+    Message micros = new Message("bob", "sure", "2025-11-11T21:15:00.123456Z", "alice_bob");
+    Message oddRoom = new Message("alice", null, "yesterday", "alice/bob");
+    Message bare = new Message(null, "", null, null);
+
+    Path file = dir.resolve(UserDictionary.FILE_NAME);
+    byte[][] records = new byte[4][];
+    try (UserDictionary users = UserDictionary.open(file)) {
+      MessageRecordWriter writer = new MessageRecordWriter("alice_bob", users);
+      records[0] = writer.write(plain);
+      records[1] = writer.write(micros);
+      records[2] = writer.write(oddRoom);
+      records[3] = writer.write(bare);
+      assertEquals(2, users.size());
+    }
+    // user, millis timestamp and the room are a few bytes instead of JSON
+    assertTrue(records[0].length < objectMapper.writeValueAsBytes(plain).length / 2);
+
+    try (UserDictionary users = UserDictionary.open(file)) {
+      MessageRecordReader reader = new MessageRecordReader("alice_bob", users, objectMapper);
+      Message read = reader.read(7, records[0]);
+      assertEquals(7L, read.getId());
+      assertSameMessage(plain, read);
+      assertSameMessage(micros, reader.read(8, records[1]));
+      assertSameMessage(oddRoom, reader.read(9, records[2]));
+      assertSameMessage(bare, reader.read(10, records[3]));
+      assertNull(reader.read(10, records[3]).getChatroomId());
+    }
+  }
+
+  @Test
+  void storesOnlyCanonicalTimestampsAsMillis() {
+    for (String timestamp : new String[] { "2025-11-11T21:15:00Z", "2025-11-11T21:15:00.123Z",
+        "2024-02-29T23:59:59.999Z", "1970-01-01T00:00:00.001Z" }) {
+      long millis = MessageRecordWriter.epochMillis(timestamp);
+      assertEquals(Instant.parse(timestamp).toEpochMilli(), millis);
+      assertEquals(timestamp, MessageRecordReader.formatMillis(millis));
+    }
+    for (String timestamp : new String[] { "2025-11-11T21:15:00.000Z", "2025-02-30T21:15:00Z",
+        "1969-12-31T23:59:59Z", "2025-11-11T24:00:00Z", "2025-11-11 21:15:00Z" }) {
+      assertEquals(-1, MessageRecordWriter.epochMillis(timestamp));
+    }
+  }
+
+  @Test
+  void readsJsonRecordsFromOlderLogs() throws IOException {
+    Message old = new Message("carol", "hi", "2025-11-11T21:15:00Z", "public");
+    try (UserDictionary users = UserDictionary.open(dir.resolve(UserDictionary.FILE_NAME))) {
+      MessageRecordReader reader = new MessageRecordReader("public", users, objectMapper);
+      assertSameMessage(old, reader.read(3, objectMapper.writeValueAsBytes(old)));
+      assertThrows(IOException.class, () -> reader.read(4, new byte[] { 2, 1, 5 }));
+    }
+  }
+
+  @Test
+  void dictionaryDropsTornEntryOnOpen() throws IOException {
+    Path file = dir.resolve(UserDictionary.FILE_NAME);
+    try (UserDictionary users = UserDictionary.open(file)) {
+      assertEquals(0, users.idOf("alice"));
+      assertEquals(1, users.idOf("bob"));
+      assertEquals(0, users.idOf("alice"));
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 2);
+    }
+    try (UserDictionary users = UserDictionary.open(file)) {
+      assertEquals(1, users.size());
+      assertEquals("alice", users.nameOf(0));
+      assertEquals(1, users.idOf("carol"));
+    }
+  }
+
+  @Test
+  void exportsLogAsJsonLines() throws IOException {
+    Path room = dir.resolve("alice_bob");
+    try (ChatroomLog log = ChatroomLog.open(room, LogOptions.defaults());
+        UserDictionary users = UserDictionary.open(room.resolve(UserDictionary.FILE_NAME))) {
+      MessageRecordWriter writer = new MessageRecordWriter("alice_bob", users);
+      for (int i = 0; i < 5; i++) {
+        log.append(writer.write(new Message("alice", "m" + i, "2025-11-11T21:15:00Z", "alice_bob")));
+      }
+    }
+    StringWriter out = new StringWriter();
+    LogExport.export(room, 2, 2, objectMapper, out);
+    String[] lines = out.toString().split("\n");
+    assertEquals(2, lines.length);
+    Message first = objectMapper.readValue(lines[0], Message.class);
+    assertEquals(2L, first.getId());
+    assertEquals("m2", first.getText());
+  }
+}
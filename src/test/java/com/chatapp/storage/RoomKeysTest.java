@@ -0,0 +1,44 @@
+package com.chatapp.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoomKeysTest {
+
+  @Test
+  void distinctIdsGetDistinctKeysThatMapBack() {
+    List<String> ids = List.of("public", "alice_bob", "alice.bob", "alice bob", "alice/bob", "alice_2ebob",
+        "Alice-Bob", "älice_bob", "日本語", "a\uD800b", "_", "__", "..", "");
+    Set<String> keys = new HashSet<>();
+    for (String id : ids) {
+      String key = RoomKeys.encode(id);
+      assertTrue(key.matches("[A-Za-z0-9_-]*"), key);
+      assertTrue(keys.add(key), key);
+      assertEquals(id, RoomKeys.decode(key));
+    }
+    assertEquals("public", RoomKeys.encode("public"));
+    assertEquals("alice_5fbob", RoomKeys.encode("alice_bob"));
+    assertEquals("alice_2ebob", RoomKeys.encode("alice.bob"));
+    assertEquals("_u00e4", RoomKeys.encode("ä"));
+  }
+
+  @Test
+  void rejectsNamesThatAreNotKeys() {
+    // directories named by the old scheme, which only replaced unsafe characters
+    assertNull(RoomKeys.decode("alice_bob"));
+    assertNull(RoomKeys.decode("alice_"));
+    assertNull(RoomKeys.decode("alice_u00"));
+    // escapes of safe characters, upper case hex and unescaped characters
+    assertNull(RoomKeys.decode("_61lice"));
+    assertNull(RoomKeys.decode("alice_2Ebob"));
+    assertNull(RoomKeys.decode("alice.bob"));
+    assertNull(RoomKeys.decode("älice"));
+  }
+}
@@ -0,0 +1,94 @@
+package com.chatapp.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SearchIndexTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void findsMessagesContainingEveryWordNewestFirst() throws IOException {
+    SearchIndex index = SearchIndex.open(dir.resolve(SearchIndex.FILE_NAME));
+    index.add(0, "Lunch tomorrow?");
+    index.add(1, "sure, lunch at noon");
+    index.add(2, "Noon works. LUNCH!");
+    index.add(300, "no lunch today");
+    index.add(100_000, "lunch at noon again");
+
+    assertArrayEquals(new long[] { 100_000, 2, 1 }, index.search("noon lunch", 0, 10));
+    assertArrayEquals(new long[] { 100_000, 300 }, index.search("LUNCH", 0, 2));
+    assertArrayEquals(new long[] { 100_000, 300 }, index.search("lunch", 300, 10));
+    assertArrayEquals(new long[0], index.search("lunch dinner", 0, 10));
+    assertArrayEquals(new long[0], index.search("?!", 0, 10));
+    // already indexed ids are skipped
+    index.add(2, "dinner");
+    assertArrayEquals(new long[0], index.search("dinner", 0, 10));
+    assertEquals(List.of("it", "s", "déjà", "vu"), List.copyOf(SearchIndex.tokenize("It's déjà-vu, it's")));
+  }
+
+  @Test
+  void reloadsSavedIndexAndDiscardsCorruptOne() throws IOException {
+    Path file = dir.resolve(SearchIndex.FILE_NAME);
+    SearchIndex index = SearchIndex.open(file);
+    for (int i = 0; i < 1000; i++) {
+      index.add(i, "message " + i + (i % 7 == 0 ? " seven" : ""));
+    }
+    index.save();
+
+    SearchIndex reloaded = SearchIndex.open(file);
+    assertEquals(1000, reloaded.getNextId());
+    assertArrayEquals(index.search("seven message", 0, 1000), reloaded.search("seven message", 0, 1000));
+    assertEquals(143, reloaded.search("seven", 0, 1000).length);
+
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length / 2] ^= 1;
+    Files.write(file, bytes);
+    SearchIndex corrupt = SearchIndex.open(file);
+    assertEquals(0, corrupt.getNextId());
+    assertEquals(0, corrupt.tokenCount());
+  }
+
+  @Test
+  void searchesAcrossBlocksLikeAScanWouldAndSkipsRejectedIds() throws IOException {
+    Path file = dir.resolve(SearchIndex.FILE_NAME);
+    SearchIndex index = SearchIndex.open(file);
+    Random random = new Random(3);
+    List<Long> both = new ArrayList<>();
+    long id = 0;
+    for (int i = 0; i < 5000; i++) {
+      // gaps of one to several hundred, so varints of one and two bytes
+      id += 1 + (random.nextInt(4) == 0 ? random.nextInt(500) : 0);
+      boolean red = random.nextInt(3) == 0;
+      boolean blue = random.nextInt(2) == 0;
+      index.add(id, (red ? "red " : "") + (blue ? "blue " : "") + "ball");
+      if (red && blue) {
+        both.add(0, id);
+      }
+    }
+    long[] expected = both.stream().mapToLong(Long::longValue).toArray();
+    assertArrayEquals(expected, index.search("blue red", 0, expected.length + 1));
+    assertArrayEquals(Arrays.copyOf(expected, 7), index.search("red blue ball", 0, 7));
+    long minId = expected[expected.length / 2];
+    assertArrayEquals(Arrays.copyOf(expected, expected.length / 2 + 1), index.search("red blue", minId, 100_000));
+
+    // rejected ids do not count towards the limit
+    long[] odd = both.stream().mapToLong(Long::longValue).filter(i -> i % 2 == 1).limit(50).toArray();
+    assertArrayEquals(odd, index.search("red blue", 0, 50, i -> i % 2 == 1));
+
+    index.save();
+    assertArrayEquals(expected, SearchIndex.open(file).search("red blue", 0, expected.length));
+  }
+}
@@ -0,0 +1,115 @@
+package com.chatapp.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SnapshotJournalTest {
+
+  public record Change(boolean added, String name) {
+  }
+
+  @TempDir
+  Path dir;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private static void apply(TreeSet<String> state, Change change) {
+    if (change.added()) {
+      state.add(change.name());
+    } else {
+      state.remove(change.name());
+    }
+  }
+
+  private long journalFiles() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(p -> p.getFileName().toString().contains(".journal.")).count();
+    }
+  }
+
+  @Test
+  void replaysJournalAndSkipsTornRecord() throws IOException {
+    Path snapshot = dir.resolve("state.json");
+    try (SnapshotJournal<Change> journal = new SnapshotJournal<>(snapshot, objectMapper, Change.class, 100)) {
+      journal.replay(change -> { });
+      journal.append(new Change(true, "a"));
+      journal.append(new Change(true, "b"));
+      journal.append(new Change(false, "a"));
+    }
+    // simulate a crash halfway through the next append
+    Files.writeString(dir.resolve("state.json.journal.1"), "{\"added\":true,\"na",
+        StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+    TreeSet<String> state = new TreeSet<>();
+    try (SnapshotJournal<Change> journal = new SnapshotJournal<>(snapshot, objectMapper, Change.class, 100)) {
+      assertEquals(3, journal.replay(change -> apply(state, change)));
+    }
+    assertEquals(List.of("b"), new ArrayList<>(state));
+  }
+
+  @Test
+  void compactionWritesSnapshotAndDropsOldJournals() throws IOException {
+    Path snapshot = dir.resolve("state.json");
+    TreeSet<String> state = new TreeSet<>();
+    SnapshotJournal<Change> journal = new SnapshotJournal<>(snapshot, objectMapper, Change.class, 100);
+    journal.replay(change -> apply(state, change));
+    for (int i = 0; i < 10; i++) {
+      Change change = new Change(true, "user" + i);
+      apply(state, change);
+      journal.append(change);
+    }
+    journal.compact(() -> new ArrayList<>(state));
+    Change late = new Change(true, "late");
+    apply(state, late);
+    journal.append(late);
+    journal.close();
+
+    assertEquals(1, journalFiles());
+    List<String> saved = objectMapper.readValue(snapshot.toFile(), new TypeReference<List<String>>() {
+    });
+    assertEquals(10, saved.size());
+
+    // snapshot plus the remaining journal restore the full state
+    TreeSet<String> restored = new TreeSet<>(saved);
+    try (SnapshotJournal<Change> reopened = new SnapshotJournal<>(snapshot, objectMapper, Change.class, 100)) {
+      assertEquals(1, reopened.replay(change -> apply(restored, change)));
+    }
+    assertEquals(state, restored);
+  }
+
+  @Test
+  void readSnapshotStreamsArrayElements() throws IOException {
+    Path snapshot = dir.resolve("state.json");
+    SnapshotJournal<Change> journal = new SnapshotJournal<>(snapshot, objectMapper, Change.class, 100);
+    List<Change> read = new ArrayList<>();
+    assertEquals(0, journal.readSnapshot(Change.class, read::add));
+
+    Files.writeString(snapshot, "");
+    assertEquals(0, journal.readSnapshot(Change.class, read::add));
+
+    List<Change> changes = List.of(new Change(true, "a"), new Change(false, "b"), new Change(true, "c"));
+    objectMapper.writerWithDefaultPrettyPrinter().writeValue(snapshot.toFile(), changes);
+    assertEquals(3, journal.readSnapshot(Change.class, read::add));
+    assertEquals(changes, read);
+
+    // a truncated snapshot is an error, not a silently shorter list
+    String json = Files.readString(snapshot);
+    Files.writeString(snapshot, json.substring(0, json.length() / 2));
+    assertThrows(IOException.class, () -> journal.readSnapshot(Change.class, change -> { }));
+  }
+}